@@ -1,22 +1,42 @@
 package com.genericembedding;
 
+import com.genericembedding.action.EmbeddingStatsAction;
+import com.genericembedding.action.RateShareAction;
+import com.genericembedding.action.TransportEmbeddingStatsAction;
+import com.genericembedding.action.TransportRateShareAction;
+import com.genericembedding.providers.ProviderContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.cluster.ClusterChangedEvent;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
 import org.elasticsearch.common.settings.ClusterSettings;
 import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.features.NodeFeature;
+import org.elasticsearch.indices.SystemIndexDescriptor;
+import org.elasticsearch.ingest.IngestMetadata;
+import org.elasticsearch.ingest.PipelineConfiguration;
 import org.elasticsearch.ingest.Processor;
 import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.plugins.SystemIndexPlugin;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestHandler;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
@@ -25,13 +45,169 @@ import java.util.function.Supplier;
 /**
  * Main plugin class for AI Embedding Processor
  */
-public class AIEmbedPlugin extends Plugin implements IngestPlugin, ActionPlugin {
+public class AIEmbedPlugin extends Plugin implements IngestPlugin, ActionPlugin, SystemIndexPlugin {
     
     public static final String TYPE = PluginConstants.PROCESSOR_TYPE;
 
+    private static final Logger logger = LogManager.getLogger(AIEmbedPlugin.class);
+
+    private final Settings settings;
+    private final EmbeddingCache embeddingCache;
+    private final EmbeddingHttpClient httpClient;
+    private final ProviderRegistry providerRegistry = new ProviderRegistry();
+    private final QueryEmbeddingCache queryCache;
+    private final EmbeddingStats embeddingStats = new EmbeddingStats();
+    private QueryEmbedder queryEmbedder;
+    private PersistentEmbeddingStore persistentStore;
+    private TokenCounter tokenCounter;
+
+    public AIEmbedPlugin(Settings settings) {
+        this.settings = settings;
+        this.embeddingCache = EmbeddingCache.fromSettings(settings);
+        this.httpClient = EmbeddingHttpClient.fromSettings(settings);
+        this.queryCache = QueryEmbeddingCache.fromSettings(settings);
+    }
+
     @Override
     public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
-        return Collections.singletonMap(TYPE, new AIEmbedProcessorFactory());
+        try {
+            persistentStore = PersistentEmbeddingStore.fromSettings(settings, parameters.env.dataFiles(), parameters.genericExecutor::accept);
+        } catch (IOException e) {
+            logger.warn("Failed to open persistent embedding store, continuing without it", e);
+        }
+        ClusterEmbeddingCache clusterCache = ClusterEmbeddingCache.fromSettings(settings, parameters.client);
+        return Collections.singletonMap(
+            TYPE,
+            new AIEmbedProcessorFactory(
+                ProviderContext.builder()
+                    .setExecutor(EmbeddingExecutor.fromParameters(parameters))
+                    .setCache(embeddingCache)
+                    .setStore(persistentStore)
+                    .setClusterCache(clusterCache)
+                    .setHttpClient(httpClient)
+                    .setTokenCounter(tokenCounter(parameters.env.configFile()))
+                    .setStats(embeddingStats)
+                    .build(),
+                providerRegistry
+            )
+        );
+    }
+
+    @Override
+    public Collection<?> createComponents(PluginServices services) {
+        services.clusterService().addListener(this::releaseUnusedProviders);
+        // Simulated pipelines register providers that no stored pipeline refers to
+        TimeValue unstoredTimeout = AIEmbedProcessorFactory.UNSTORED_PROVIDER_TIMEOUT_SETTING.get(settings);
+        services.threadPool().scheduleWithFixedDelay(() -> providerRegistry.releaseIdle(ProviderRegistry.INGEST, unstoredTimeout.nanos()),
+            unstoredTimeout, services.threadPool().generic());
+        ClusterRateShares rateShares = new ClusterRateShares(
+            settings,
+            providerRegistry,
+            services.clusterService(),
+            services.threadPool(),
+            services.client()
+        );
+        rateShares.start();
+        queryEmbedder = new QueryEmbedder(
+            settings,
+            ProviderContext.builder()
+                .setExecutor(EmbeddingExecutor.fromThreadPool(services.threadPool()))
+                .setCache(embeddingCache)
+                .setHttpClient(httpClient)
+                .setTokenCounter(tokenCounter(services.environment().configFile()))
+                .setStats(embeddingStats)
+                .setScope(ProviderRegistry.SEARCH)
+                .build(),
+            providerRegistry,
+            queryCache
+        );
+        queryEmbedder.start(services.threadPool());
+        return List.of(providerRegistry, rateShares, embeddingStats, embeddingCache, queryCache);
+    }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return List.of(
+            new ActionHandler<>(RateShareAction.INSTANCE, TransportRateShareAction.class),
+            new ActionHandler<>(EmbeddingStatsAction.INSTANCE, TransportEmbeddingStatsAction.class)
+        );
+    }
+
+    // Pipelines and the search handlers count tokens the same way, with the vocabulary loaded once
+    private synchronized TokenCounter tokenCounter(Path configDir) {
+        if (tokenCounter == null) {
+            tokenCounter = TokenCounter.fromSettings(settings, configDir);
+        }
+        return tokenCounter;
+    }
+
+    /**
+     * Drops registry entries that no stored pipeline refers to any more, once pipelines have been
+     * replaced or deleted.
+     */
+    private void releaseUnusedProviders(ClusterChangedEvent event) {
+        IngestMetadata ingest = event.state().metadata().custom(IngestMetadata.TYPE);
+        if (ingest == event.previousState().metadata().custom(IngestMetadata.TYPE)) {
+            return;
+        }
+        List<Map<String, Object>> liveConfigs = new ArrayList<>();
+        if (ingest != null) {
+            for (PipelineConfiguration pipeline : ingest.getPipelines().values()) {
+                collectProviderConfigs(pipeline.getConfigAsMap(), liveConfigs);
+            }
+        }
+        providerRegistry.retain(liveConfigs);
+    }
+
+    // Processors can be nested, e.g. in on_failure or foreach, so the whole pipeline is searched
+    @SuppressWarnings("unchecked")
+    private static void collectProviderConfigs(Object node, List<Map<String, Object>> configs) {
+        if (node instanceof Map) {
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) node).entrySet()) {
+                if (TYPE.equals(entry.getKey()) && entry.getValue() instanceof Map) {
+                    configs.add(AIEmbedProcessorFactory.providerConfig(new HashMap<>((Map<String, Object>) entry.getValue())));
+                }
+                collectProviderConfigs(entry.getValue(), configs);
+            }
+        } else if (node instanceof List) {
+            for (Object element : (List<?>) node) {
+                collectProviderConfigs(element, configs);
+            }
+        }
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return List.of(
+            EmbeddingCache.MAX_ENTRIES_SETTING,
+            EmbeddingCache.MAX_BYTES_SETTING,
+            PersistentEmbeddingStore.ENABLED_SETTING,
+            PersistentEmbeddingStore.MAX_SIZE_SETTING,
+            ClusterEmbeddingCache.ENABLED_SETTING,
+            EmbeddingHttpClient.MAX_CONNECTIONS_PER_HOST_SETTING,
+            TokenCounter.ENCODING_SETTING,
+            ClusterRateShares.ENABLED_SETTING,
+            ClusterRateShares.INTERVAL_SETTING,
+            QueryEmbeddingCache.MAX_ENTRIES_SETTING,
+            QueryEmbeddingCache.TTL_SETTING,
+            QueryEmbedder.PROVIDER_IDLE_TIMEOUT_SETTING,
+            AIEmbedProcessorFactory.UNSTORED_PROVIDER_TIMEOUT_SETTING
+        );
+    }
+
+    @Override
+    public Collection<SystemIndexDescriptor> getSystemIndexDescriptors(Settings settings) {
+        return List.of(ClusterEmbeddingCache.systemIndexDescriptor());
+    }
+
+    @Override
+    public String getFeatureName() {
+        return PluginConstants.PROCESSOR_TYPE;
+    }
+
+    @Override
+    public String getFeatureDescription() {
+        return "Stores the cluster-wide embedding cache of the " + PluginConstants.PROCESSOR_TYPE + " processor";
     }
 
     @Override
@@ -47,8 +223,18 @@ public class AIEmbedPlugin extends Plugin implements IngestPlugin, ActionPlugin
         Predicate<NodeFeature> clusterSupportsFeature
     ) {
         return List.of(
-            new SemanticSearchRestHandler(settings),
-            new HybridSearchRestHandler(settings)
+            new SemanticSearchRestHandler(settings, queryEmbedder, embeddingStats.semanticSearch()),
+            new HybridSearchRestHandler(settings, queryEmbedder, embeddingStats.hybridSearch()),
+            new QueryCacheStatsRestHandler(queryCache),
+            new EmbeddingStatsRestHandler(embeddingStats),
+            new NodesEmbeddingStatsRestHandler()
         );
     }
+
+    @Override
+    public void close() throws IOException {
+        if (persistentStore != null) {
+            persistentStore.close();
+        }
+    }
 }
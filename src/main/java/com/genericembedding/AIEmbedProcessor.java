@@ -9,29 +9,125 @@ import org.elasticsearch.ingest.AbstractProcessor;
 import org.elasticsearch.ingest.IngestDocument;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
 
 public class AIEmbedProcessor extends AbstractProcessor {
 
     private static final Logger logger = LogManager.getLogger(AIEmbedProcessor.class);
     public static final String TYPE = PluginConstants.PROCESSOR_TYPE;
+    private static final String VECTOR_SUFFIX = "_vector";
+    private static final String CHUNKS_SUFFIX = "_chunks";
+    private static final String FINGERPRINT_SUFFIX = "_fingerprint";
+    private static final String FLOAT_SUFFIX = "_float";
     private final EmbeddingProvider provider;
     private final List<String> sourceFields;
+    private final TextChunker chunker;
+    private final String fingerprintKey;
+    private final VectorQuantizer quantizer;
+    private final boolean keepFloat;
+    private final boolean normalize;
 
-    public AIEmbedProcessor(String tag, String description, List<String> sourceFields, EmbeddingProvider provider) {
-        super(tag, description);
-        this.sourceFields = sourceFields;
-        this.provider = provider;
+    private AIEmbedProcessor(Builder builder) {
+        super(builder.tag, builder.description);
+        this.sourceFields = builder.sourceFields;
+        this.provider = builder.provider;
+        this.chunker = builder.chunker;
+        this.fingerprintKey = builder.fingerprintKey;
+        this.quantizer = builder.quantizer;
+        this.keepFloat = builder.keepFloat && builder.quantizer != null;
+        this.normalize = builder.normalize;
+    }
+
+    /**
+     * A processor that embeds each of {@code sourceFields} whole and writes the vector to {@code <field>_vector}.
+     */
+    public static Builder builder(String tag, String description, List<String> sourceFields, EmbeddingProvider provider) {
+        return new Builder(tag, description, sourceFields, provider);
+    }
+
+    public static class Builder {
+        private final String tag;
+        private final String description;
+        private final List<String> sourceFields;
+        private final EmbeddingProvider provider;
+        private TextChunker chunker;
+        private String fingerprintKey;
+        private VectorQuantizer quantizer;
+        private boolean keepFloat;
+        private boolean normalize;
+
+        private Builder(String tag, String description, List<String> sourceFields, EmbeddingProvider provider) {
+            this.tag = tag;
+            this.description = description;
+            this.sourceFields = sourceFields;
+            this.provider = provider;
+        }
+
+        /**
+         * If not {@code null}, each field is split into passages that are embedded separately and
+         * written to {@code <field>_chunks} instead of {@code <field>_vector}.
+         */
+        public Builder setChunker(TextChunker chunker) {
+            this.chunker = chunker;
+            return this;
+        }
+
+        /**
+         * If not {@code null}, enables fingerprint mode: a hash of this key (the model and any option
+         * that changes the output) and the field content is stored in {@code <field>_fingerprint}, and
+         * fields whose fingerprint and output are already present are not embedded again.
+         */
+        public Builder setFingerprintKey(String fingerprintKey) {
+            this.fingerprintKey = fingerprintKey;
+            return this;
+        }
+
+        /**
+         * If not {@code null}, vectors are written quantized by it instead of as floats.
+         */
+        public Builder setQuantizer(VectorQuantizer quantizer) {
+            this.quantizer = quantizer;
+            return this;
+        }
+
+        /**
+         * Whether to also write the float vectors of quantized output, to {@code <field>_vector_float}
+         * or each passage's {@code vector_float}.
+         */
+        public Builder setKeepFloat(boolean keepFloat) {
+            this.keepFloat = keepFloat;
+            return this;
+        }
+
+        /**
+         * Whether to scale vectors to unit length before writing them, as fields with
+         * {@code dot_product} similarity require.
+         */
+        public Builder setNormalize(boolean normalize) {
+            this.normalize = normalize;
+            return this;
+        }
+
+        public AIEmbedProcessor build() {
+            return new AIEmbedProcessor(this);
+        }
     }
 
     @Override
-    public IngestDocument execute(IngestDocument ingestDocument) {
+    public void execute(IngestDocument ingestDocument, BiConsumer<IngestDocument, Exception> handler) {
         logger.info("=== STARTING EMBEDDING PROCESSOR ===");
         logger.info("Document index: {}", ingestDocument.getSourceAndMetadata().get("_index"));
         logger.info("Source fields to process: {}", sourceFields);
         
         List<ProviderRequest> requests = new ArrayList<>();
         List<String> fieldsToEmbed = new ArrayList<>();
+        List<List<int[]>> fieldChunks = new ArrayList<>();
+        List<String> fingerprints = new ArrayList<>();
 
         logger.info("Checking fields in document...");
         for (String field : sourceFields) {
@@ -40,7 +136,27 @@ public class AIEmbedProcessor extends AbstractProcessor {
                 String content = ingestDocument.getFieldValue(field, String.class);
                 logger.info("Field '{}' found with content length: {}", field, content != null ? content.length() : 0);
                 if (content != null && !content.isEmpty()) {
-                    requests.add(new ProviderRequest(content));
+                    String fingerprint = null;
+                    if (fingerprintKey != null) {
+                        fingerprint = ContentHash.sha256(fingerprintKey, content);
+                        if (isUnchanged(ingestDocument, field, fingerprint)) {
+                            logger.info("Field '{}' is unchanged since it was last embedded, skipping", field);
+                            continue;
+                        }
+                    }
+                    fingerprints.add(fingerprint);
+                    if (chunker != null) {
+                        // All passages of all fields go out in the same provider call
+                        List<int[]> chunks = chunker.chunk(content);
+                        for (int[] chunk : chunks) {
+                            requests.add(new ProviderRequest(content.substring(chunk[0], chunk[1])));
+                        }
+                        fieldChunks.add(chunks);
+                        logger.info("Split field '{}' into {} chunks", field, chunks.size());
+                    } else {
+                        requests.add(new ProviderRequest(content));
+                        fieldChunks.add(null);
+                    }
                     fieldsToEmbed.add(field);
                     logger.info("Added field '{}' to embedding queue", field);
                 } else {
@@ -54,60 +170,140 @@ public class AIEmbedProcessor extends AbstractProcessor {
         logger.info("Total fields to embed: {}", fieldsToEmbed.size());
         logger.info("Fields to embed: {}", fieldsToEmbed);
 
-        if (!requests.isEmpty()) {
-            try {
-                logger.info("=== CALLING EMBEDDING PROVIDER ===");
-                logger.info("Provider class: {}", provider.getClass().getSimpleName());
-                logger.info("Number of requests: {}", requests.size());
-                
-                ProviderResponse response = provider.embed(requests);
-                
-                logger.info("=== EMBEDDING PROVIDER RESPONSE ===");
-                List<List<Float>> vectors = response.getVectors();
-                logger.info("Number of vectors returned: {}", vectors.size());
-                
-                for (int i = 0; i < vectors.size(); i++) {
-                    logger.info("Vector {} dimensions: {}", i, vectors.get(i).size());
-                }
+        if (requests.isEmpty()) {
+            logger.info("No fields to embed, skipping embedding process");
+            handler.accept(ingestDocument, null);
+            return;
+        }
+
+        logger.info("=== CALLING EMBEDDING PROVIDER ===");
+        logger.info("Provider class: {}", provider.getClass().getSimpleName());
+        logger.info("Number of requests: {}", requests.size());
+
+        CompletableFuture<ProviderResponse> future;
+        try {
+            future = provider.embedAsync(requests);
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
 
-                if (vectors.size() != fieldsToEmbed.size()) {
-                    String errorMsg = "Number of returned embeddings (" + vectors.size() + ") does not match number of requested fields (" + fieldsToEmbed.size() + ")";
-                    logger.error(errorMsg);
-                    throw new IllegalStateException(errorMsg);
+        future.whenComplete((response, failure) -> {
+            if (failure == null) {
+                try {
+                    setVectorFields(ingestDocument, fieldsToEmbed, fieldChunks, fingerprints, response);
+                    logger.info("=== EMBEDDING PROCESSOR COMPLETED SUCCESSFULLY ===");
+                } catch (Exception e) {
+                    failure = e;
                 }
+            }
+            if (failure != null) {
+                setEmbeddingError(ingestDocument, failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+            }
+            logger.info("=== EMBEDDING PROCESSOR FINISHED ===");
+            handler.accept(ingestDocument, null);
+        });
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument ingestDocument) {
+        throw new UnsupportedOperationException("this method should not get executed");
+    }
+
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    private boolean isUnchanged(IngestDocument ingestDocument, String field, String fingerprint) {
+        String fingerprintField = field + FINGERPRINT_SUFFIX;
+        String outputField = field + (chunker != null ? CHUNKS_SUFFIX : VECTOR_SUFFIX);
+        return ingestDocument.hasField(fingerprintField)
+            && fingerprint.equals(ingestDocument.getFieldValue(fingerprintField, Object.class))
+            && ingestDocument.hasField(outputField);
+    }
 
-                logger.info("=== SETTING VECTOR FIELDS ===");
-                for (int i = 0; i < fieldsToEmbed.size(); i++) {
-                    String vectorField = fieldsToEmbed.get(i) + "_vector";
-                    logger.info("Setting field '{}' with vector of {} dimensions", vectorField, vectors.get(i).size());
-                    ingestDocument.setFieldValue(vectorField, vectors.get(i));
-                    logger.info("Successfully set field '{}'", vectorField);
+    private void setVectorFields(IngestDocument ingestDocument, List<String> fieldsToEmbed, List<List<int[]>> fieldChunks,
+                                 List<String> fingerprints, ProviderResponse response) {
+        logger.info("=== EMBEDDING PROVIDER RESPONSE ===");
+        List<float[]> vectors = response.getVectors();
+        logger.info("Number of vectors returned: {}", vectors.size());
+        
+        for (int i = 0; i < vectors.size(); i++) {
+            logger.info("Vector {} dimensions: {}", i, vectors.get(i).length);
+        }
+
+        int expected = 0;
+        for (List<int[]> chunks : fieldChunks) {
+            expected += chunks == null ? 1 : chunks.size();
+        }
+        if (vectors.size() != expected) {
+            String errorMsg = "Number of returned embeddings (" + vectors.size() + ") does not match number of requested fields (" + expected + ")";
+            logger.error(errorMsg);
+            throw new IllegalStateException(errorMsg);
+        }
+
+        logger.info("=== SETTING VECTOR FIELDS ===");
+        int next = 0;
+        for (int i = 0; i < fieldsToEmbed.size(); i++) {
+            List<int[]> chunks = fieldChunks.get(i);
+            if (chunks == null) {
+                String vectorField = fieldsToEmbed.get(i) + VECTOR_SUFFIX;
+                float[] vector = output(vectors.get(next++));
+                logger.info("Setting field '{}' with vector of {} dimensions", vectorField, vector.length);
+                ingestDocument.setFieldValue(vectorField, encode(vector));
+                if (keepFloat) {
+                    ingestDocument.setFieldValue(vectorField + FLOAT_SUFFIX, new FloatVectorList(vector));
                 }
-                
-                // Store usage information if available
-                if (response.hasUsage()) {
-                    logger.info("=== SETTING USAGE INFORMATION ===");
-                    ingestDocument.setFieldValue("embedding_usage", response.getUsage());
-                    logger.info("Stored usage information: {}", response.getUsage());
+                logger.info("Successfully set field '{}'", vectorField);
+            } else {
+                // Passages reference the source text by character range rather than copying it
+                String chunksField = fieldsToEmbed.get(i) + CHUNKS_SUFFIX;
+                List<Map<String, Object>> passages = new ArrayList<>(chunks.size());
+                for (int[] chunk : chunks) {
+                    Map<String, Object> passage = new LinkedHashMap<>();
+                    passage.put("offset", chunk[0]);
+                    passage.put("length", chunk[1] - chunk[0]);
+                    float[] vector = output(vectors.get(next++));
+                    passage.put("vector", encode(vector));
+                    if (keepFloat) {
+                        passage.put("vector" + FLOAT_SUFFIX, new FloatVectorList(vector));
+                    }
+                    passages.add(passage);
                 }
-                
-                logger.info("=== EMBEDDING PROCESSOR COMPLETED SUCCESSFULLY ===");
-            } catch (Exception e) {
-                logger.error("=== EMBEDDING PROCESSOR ERROR ===");
-                logger.error("Error type: {}", e.getClass().getSimpleName());
-                logger.error("Error message: {}", e.getMessage());
-                logger.error("Full stack trace:", e);
-                
-                String errorMsg = "Failed to embed fields: " + e.getMessage();
-                logger.info("Setting embedding_error field with: {}", errorMsg);
-                ingestDocument.setFieldValue("embedding_error", errorMsg);
+                ingestDocument.setFieldValue(chunksField, passages);
+                logger.info("Set field '{}' with {} passages", chunksField, passages.size());
             }
-        } else {
-            logger.info("No fields to embed, skipping embedding process");
+            if (fingerprints.get(i) != null) {
+                ingestDocument.setFieldValue(fieldsToEmbed.get(i) + FINGERPRINT_SUFFIX, fingerprints.get(i));
+            }
+        }
+        
+        // Store usage information if available
+        if (response.hasUsage()) {
+            logger.info("=== SETTING USAGE INFORMATION ===");
+            ingestDocument.setFieldValue("embedding_usage", response.getUsage());
+            logger.info("Stored usage information: {}", response.getUsage());
         }
+    }
+
+    private float[] output(float[] vector) {
+        // Provider vectors may be shared with the caches, so normalizing works on a copy
+        return normalize ? Vectors.l2Normalize(vector) : vector;
+    }
+
+    private List<?> encode(float[] vector) {
+        return quantizer != null ? new ByteVectorList(quantizer.quantize(vector)) : new FloatVectorList(vector);
+    }
+
+    private void setEmbeddingError(IngestDocument ingestDocument, Throwable e) {
+        logger.error("=== EMBEDDING PROCESSOR ERROR ===");
+        logger.error("Error type: {}", e.getClass().getSimpleName());
+        logger.error("Error message: {}", e.getMessage());
+        logger.error("Full stack trace:", e);
         
-        logger.info("=== EMBEDDING PROCESSOR FINISHED ===");
-        return ingestDocument;
+        String errorMsg = "Failed to embed fields: " + e.getMessage();
+        logger.info("Setting embedding_error field with: {}", errorMsg);
+        ingestDocument.setFieldValue("embedding_error", errorMsg);
     }
 
     @Override
@@ -1,7 +1,10 @@
 package com.genericembedding;
 
 import com.genericembedding.providers.EmbeddingProvider;
+import com.genericembedding.providers.ProviderContext;
 import com.genericembedding.providers.ProviderFactory;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.core.TimeValue;
 import org.elasticsearch.ingest.Processor;
 
 import java.util.Collections;
@@ -11,7 +14,28 @@ import java.util.Map;
 
 public class AIEmbedProcessorFactory implements Processor.Factory {
 
+    /**
+     * How long a provider built for a pipeline that was never stored, such as the inline pipeline of
+     * a {@code _simulate} request, is kept after it was last built.
+     */
+    public static final Setting<TimeValue> UNSTORED_PROVIDER_TIMEOUT_SETTING = Setting.timeSetting(
+        "ai_embed.ingest.unstored_provider_timeout", TimeValue.timeValueMinutes(10), TimeValue.timeValueSeconds(1), Setting.Property.NodeScope);
+
+    private final ProviderContext providers;
+    private final TokenCounter tokenCounter;
+    private final ProviderRegistry registry;
+
+    /**
+     * @param providers the node services the ingest providers are built on
+     */
+    public AIEmbedProcessorFactory(ProviderContext providers, ProviderRegistry registry) {
+        this.providers = providers;
+        this.tokenCounter = providers.getTokenCounter();
+        this.registry = registry;
+    }
+
     @Override
+    @SuppressWarnings("unchecked")
     public Processor create(Map<String, Processor.Factory> factories, String tag, String description, Map<String, Object> config) throws Exception {
         List<String> sourceFields;
         Object sourceFieldsObj = config.remove(PluginConstants.CONFIG_SOURCE_FIELDS);
@@ -26,6 +50,60 @@ public class AIEmbedProcessorFactory implements Processor.Factory {
             throw new IllegalArgumentException(PluginConstants.ERROR_SOURCE_FIELDS_INVALID_TYPE);
         }
         
+        Map<String, Object> processedConfig = providerConfig(config);
+
+        TextChunker chunker = null;
+        Object chunkSize = config.remove(PluginConstants.CONFIG_CHUNK_SIZE);
+        Object chunkOverlap = config.remove(PluginConstants.CONFIG_CHUNK_OVERLAP);
+        if (chunkSize != null) {
+            chunker = new TextChunker(tokenCounter, ((Number) chunkSize).intValue(), chunkOverlap != null ? ((Number) chunkOverlap).intValue() : 0);
+        }
+
+        VectorQuantizer quantizer = null;
+        Object quantization = config.remove(PluginConstants.CONFIG_QUANTIZATION);
+        Object quantizationRange = config.remove(PluginConstants.CONFIG_QUANTIZATION_RANGE);
+        Object keepFloat = config.remove(PluginConstants.CONFIG_KEEP_FLOAT_VECTOR);
+        if (quantization != null && !"none".equals(quantization)) {
+            quantizer = new VectorQuantizer(quantization.toString(),
+                quantizationRange != null ? ((Number) quantizationRange).floatValue() : null);
+        }
+        boolean keepFloatVector = keepFloat != null && Boolean.parseBoolean(keepFloat.toString());
+        Object normalizeOption = config.remove(PluginConstants.CONFIG_NORMALIZE);
+        boolean normalize = normalizeOption != null && Boolean.parseBoolean(normalizeOption.toString());
+
+        // Everything that changes the stored output is part of the fingerprint, so changing it re-embeds
+        String fingerprintKey = null;
+        Object fingerprint = config.remove(PluginConstants.CONFIG_FINGERPRINT);
+        if (fingerprint != null && Boolean.parseBoolean(fingerprint.toString())) {
+            fingerprintKey = processedConfig.get(PluginConstants.CONFIG_API_URL) + "|" + ProviderFactory.cacheModel(processedConfig);
+            if (normalize) {
+                fingerprintKey += "|normalized";
+            }
+            if (chunker != null) {
+                fingerprintKey += "|chunks:" + tokenCounter.encoding() + ":" + chunkSize + ":" + (chunkOverlap != null ? chunkOverlap : 0);
+            }
+            if (quantizer != null) {
+                fingerprintKey += "|quantization:" + quantizer.key() + (keepFloatVector ? ":float" : "");
+            }
+        }
+
+        EmbeddingProvider provider = registry.acquire(ProviderRegistry.INGEST, processedConfig,
+            limits -> ProviderFactory.create(processedConfig, providers, limits));
+
+        return AIEmbedProcessor.builder(tag, description, sourceFields, provider)
+            .setChunker(chunker)
+            .setFingerprintKey(fingerprintKey)
+            .setQuantizer(quantizer)
+            .setKeepFloat(keepFloatVector)
+            .setNormalize(normalize)
+            .build();
+    }
+
+    /**
+     * Removes the provider options from a processor config and returns them with defaults applied.
+     * This is also how stored pipelines are mapped back to their registry entries.
+     */
+    static Map<String, Object> providerConfig(Map<String, Object> config) {
         Map<String, Object> processedConfig = new HashMap<>();
         processedConfig.put(PluginConstants.CONFIG_API_URL, config.remove(PluginConstants.CONFIG_API_URL));
         processedConfig.put(PluginConstants.CONFIG_MODEL, config.remove(PluginConstants.CONFIG_MODEL));
@@ -35,10 +113,19 @@ public class AIEmbedProcessorFactory implements Processor.Factory {
         processedConfig.put(PluginConstants.CONFIG_READ_TIMEOUT, config.remove(PluginConstants.CONFIG_READ_TIMEOUT));
         processedConfig.put(PluginConstants.CONFIG_PROVIDER, config.remove(PluginConstants.CONFIG_PROVIDER));
         processedConfig.put(PluginConstants.CONFIG_MAX_REQUESTS_PER_SECOND, config.remove(PluginConstants.CONFIG_MAX_REQUESTS_PER_SECOND));
+        processedConfig.put(PluginConstants.CONFIG_RATE_LIMIT_BURST, config.remove(PluginConstants.CONFIG_RATE_LIMIT_BURST));
+        processedConfig.put(PluginConstants.CONFIG_MAX_TOKENS_PER_MINUTE, config.remove(PluginConstants.CONFIG_MAX_TOKENS_PER_MINUTE));
         processedConfig.put(PluginConstants.CONFIG_BACKOFF_INITIAL_DELAY_MS, config.remove(PluginConstants.CONFIG_BACKOFF_INITIAL_DELAY_MS));
         processedConfig.put(PluginConstants.CONFIG_BACKOFF_MAX_DELAY_MS, config.remove(PluginConstants.CONFIG_BACKOFF_MAX_DELAY_MS));
         processedConfig.put(PluginConstants.CONFIG_BACKOFF_MULTIPLIER, config.remove(PluginConstants.CONFIG_BACKOFF_MULTIPLIER));
         processedConfig.put(PluginConstants.CONFIG_HEADERS, config.remove(PluginConstants.CONFIG_HEADERS));
+        processedConfig.put(PluginConstants.CONFIG_BATCH_MAX_INPUTS, config.remove(PluginConstants.CONFIG_BATCH_MAX_INPUTS));
+        processedConfig.put(PluginConstants.CONFIG_BATCH_MAX_BYTES, config.remove(PluginConstants.CONFIG_BATCH_MAX_BYTES));
+        processedConfig.put(PluginConstants.CONFIG_BATCH_LINGER_MS, config.remove(PluginConstants.CONFIG_BATCH_LINGER_MS));
+        Object dimensions = config.remove(PluginConstants.CONFIG_DIMENSIONS);
+        if (dimensions != null) {
+            processedConfig.put(PluginConstants.CONFIG_DIMENSIONS, ((Number) dimensions).intValue());
+        }
         
         processedConfig.putIfAbsent(PluginConstants.CONFIG_API_URL, PluginConstants.DEFAULT_API_URL);
         processedConfig.putIfAbsent(PluginConstants.CONFIG_MODEL, PluginConstants.DEFAULT_MODEL);
@@ -52,9 +139,9 @@ public class AIEmbedProcessorFactory implements Processor.Factory {
         processedConfig.putIfAbsent(PluginConstants.CONFIG_BACKOFF_MAX_DELAY_MS, PluginConstants.DEFAULT_BACKOFF_MAX_DELAY_MS);
         processedConfig.putIfAbsent(PluginConstants.CONFIG_BACKOFF_MULTIPLIER, PluginConstants.DEFAULT_BACKOFF_MULTIPLIER);
         processedConfig.putIfAbsent(PluginConstants.CONFIG_HEADERS, new HashMap<String, String>());
-        
-        EmbeddingProvider provider = ProviderFactory.create(processedConfig);
-
-        return new AIEmbedProcessor(tag, description, sourceFields, provider);
+        processedConfig.putIfAbsent(PluginConstants.CONFIG_BATCH_MAX_INPUTS, PluginConstants.DEFAULT_BATCH_MAX_INPUTS);
+        processedConfig.putIfAbsent(PluginConstants.CONFIG_BATCH_MAX_BYTES, PluginConstants.DEFAULT_BATCH_MAX_BYTES);
+        processedConfig.putIfAbsent(PluginConstants.CONFIG_BATCH_LINGER_MS, PluginConstants.DEFAULT_BATCH_LINGER_MS);
+        return processedConfig;
     }
 }
@@ -0,0 +1,106 @@
+package com.genericembedding;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Request and token budgets for one API credential. Every provider that sends with the same
+ * credential should hold the same instance, since that is the scope the API enforces them in.
+ *
+ * The configured limits are account-wide. When several nodes send with the same credential, each
+ * node is given a share of them (see {@link ClusterRateShares}) and its limiters are rebuilt at that
+ * fraction of the configured rate whenever the share changes. The rebuilt limiters inherit the
+ * permits outstanding on the old ones, so a new share never starts with an unused burst.
+ */
+public class ApiLimits {
+
+    private final int maxRequestsPerSecond;
+    private final int burst;
+    private final long maxTokensPerMinute;
+    private final LongSupplier clock;
+    private volatile double share = 1.0;
+    private volatile RateLimiter requests;
+    private volatile RateLimiter tokens;
+    private volatile long lastUsedNanos;
+
+    public ApiLimits(int maxRequestsPerSecond, int burst, long maxTokensPerMinute) {
+        this(maxRequestsPerSecond, burst, maxTokensPerMinute, System::nanoTime);
+    }
+
+    ApiLimits(int maxRequestsPerSecond, int burst, long maxTokensPerMinute, LongSupplier clock) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.burst = burst;
+        this.maxTokensPerMinute = maxTokensPerMinute;
+        this.clock = clock;
+        this.requests = new RateLimiter(maxRequestsPerSecond, burst, clock);
+        this.tokens = RateLimiter.perMinute(maxTokensPerMinute, clock);
+        this.lastUsedNanos = clock.getAsLong() - Long.MAX_VALUE / 2;
+    }
+
+    /**
+     * Limits described by the {@code max_requests_per_second}, {@code rate_limit_burst} and
+     * {@code max_tokens_per_minute} options of a processor config.
+     */
+    public static ApiLimits fromConfig(Map<String, Object> config) {
+        int maxRequestsPerSecond = ((Number) config.getOrDefault(PluginConstants.CONFIG_MAX_REQUESTS_PER_SECOND, PluginConstants.DEFAULT_MAX_REQUESTS_PER_SECOND)).intValue();
+        Object burst = config.get(PluginConstants.CONFIG_RATE_LIMIT_BURST);
+        Object maxTokensPerMinute = config.get(PluginConstants.CONFIG_MAX_TOKENS_PER_MINUTE);
+        return new ApiLimits(
+            maxRequestsPerSecond,
+            burst != null ? ((Number) burst).intValue() : maxRequestsPerSecond,
+            maxTokensPerMinute != null ? ((Number) maxTokensPerMinute).longValue() : 0
+        );
+    }
+
+    public RateLimiter requests() {
+        return requests;
+    }
+
+    public RateLimiter tokens() {
+        return tokens;
+    }
+
+    public int getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    /**
+     * The configured token budget, {@code 0} when tokens are not limited.
+     */
+    public long getMaxTokensPerMinute() {
+        return maxTokensPerMinute;
+    }
+
+    public double getShare() {
+        return share;
+    }
+
+    /**
+     * Limits this node to {@code share} (in {@code (0, 1]}) of the configured rates.
+     */
+    public synchronized void setShare(double share) {
+        if (share == this.share) {
+            return;
+        }
+        this.share = share;
+        // Rounded down so that the nodes' bursts add up to no more than the configured one
+        RateLimiter requests = RateLimiter.perSecond(maxRequestsPerSecond * share, Math.max(1, (long) (burst * share)), clock);
+        requests.carryOver(this.requests);
+        this.requests = requests;
+        long tokensPerMinute = maxTokensPerMinute > 0 ? Math.max(1, (long) (maxTokensPerMinute * share)) : 0;
+        RateLimiter tokens = RateLimiter.perMinute(tokensPerMinute, clock);
+        tokens.carryOver(this.tokens);
+        this.tokens = tokens;
+    }
+
+    void markUsed() {
+        lastUsedNanos = clock.getAsLong();
+    }
+
+    /**
+     * Whether a request was sent with these limits within the last {@code windowNanos}.
+     */
+    public boolean isActive(long windowNanos) {
+        return clock.getAsLong() - lastUsedNanos < windowNanos;
+    }
+}
@@ -17,8 +17,15 @@ public class BackoffStrategy {
     }
 
     public long nextDelay() {
+        return delayFor(attempt++);
+    }
+
+    /**
+     * Stateless variant of {@link #nextDelay()} for callers that track their own attempt count,
+     * so concurrent requests sharing one strategy don't advance each other's backoff.
+     */
+    public long delayFor(int attempt) {
         long delay = (long) (initialDelayMs * Math.pow(multiplier, attempt));
-        attempt++;
         return Math.min(delay, maxDelayMs);
     }
 }
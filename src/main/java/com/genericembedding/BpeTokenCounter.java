@@ -0,0 +1,123 @@
+package com.genericembedding;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Exact token counter for tiktoken byte-level BPE encodings ({@code cl100k_base},
+ * {@code o200k_base}).
+ *
+ * The vocabulary is read from a standard {@code .tiktoken} rank file, so nothing is fetched at
+ * runtime. Text is split with the encoding's pre-tokenization pattern and each piece is merged
+ * lowest rank first; pieces that are whole vocabulary entries, the common case for words, cost a
+ * single lookup. Only counts are produced; token ids are never materialized.
+ */
+public class BpeTokenCounter implements TokenCounter {
+
+    public static final String CL100K_BASE = "cl100k_base";
+    public static final String O200K_BASE = "o200k_base";
+
+    // tiktoken's cl100k_base pattern, with \z for its $ since Java's $ also matches before a final line break
+    private static final Pattern CL100K_PATTERN = Pattern.compile(
+        "'(?i:[sdmt]|ll|ve|re)|[^\\r\\n\\p{L}\\p{N}]?+\\p{L}++|\\p{N}{1,3}+| ?[^\\s\\p{L}\\p{N}]++[\\r\\n]*+|\\s++\\z|\\s*[\\r\\n]|\\s+(?!\\S)|\\s",
+        Pattern.UNICODE_CHARACTER_CLASS
+    );
+    private static final Pattern O200K_PATTERN = Pattern.compile(
+        "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?"
+            + "|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+",
+        Pattern.UNICODE_CHARACTER_CLASS
+    );
+
+    // Merging is quadratic in the piece length; longer pieces (e.g. base64 blobs) are estimated
+    private static final int MAX_MERGE_BYTES = 256;
+
+    private final String encoding;
+    private final Pattern pattern;
+    // Keys are token bytes as ISO-8859-1 strings, a lossless one char per byte mapping
+    private final Map<String, Integer> ranks;
+
+    public BpeTokenCounter(String encoding, Map<String, Integer> ranks) {
+        this.encoding = encoding;
+        this.pattern = pattern(encoding);
+        this.ranks = ranks;
+    }
+
+    public static BpeTokenCounter load(String encoding, Path rankFile) throws IOException {
+        Map<String, Integer> ranks = new HashMap<>(1 << 18);
+        Base64.Decoder decoder = Base64.getDecoder();
+        try (BufferedReader reader = Files.newBufferedReader(rankFile, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0) {
+                    continue;
+                }
+                byte[] token = decoder.decode(line.substring(0, space));
+                ranks.put(new String(token, StandardCharsets.ISO_8859_1), Integer.parseInt(line.substring(space + 1).trim()));
+            }
+        }
+        return new BpeTokenCounter(encoding, ranks);
+    }
+
+    static Pattern pattern(String encoding) {
+        return O200K_BASE.equals(encoding) ? O200K_PATTERN : CL100K_PATTERN;
+    }
+
+    @Override
+    public String encoding() {
+        return encoding;
+    }
+
+    @Override
+    public int count(String text) {
+        int tokens = 0;
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            String piece = new String(matcher.group().getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+            tokens += countPiece(piece);
+        }
+        return tokens;
+    }
+
+    private int countPiece(String piece) {
+        int length = piece.length();
+        if (length <= 1 || ranks.containsKey(piece)) {
+            return 1;
+        }
+        if (length > MAX_MERGE_BYTES) {
+            return (length + 3) / 4;
+        }
+        // boundaries[0..parts] are the start offsets of the current parts plus the end offset
+        int[] boundaries = new int[length + 1];
+        for (int i = 0; i <= length; i++) {
+            boundaries[i] = i;
+        }
+        int parts = length;
+        while (parts > 1) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for (int i = 0; i < parts - 1; i++) {
+                Integer rank = ranks.get(piece.substring(boundaries[i], boundaries[i + 2]));
+                if (rank != null && rank < bestRank) {
+                    bestRank = rank;
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            System.arraycopy(boundaries, best + 2, boundaries, best + 1, parts - best - 1);
+            parts--;
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,30 @@
+package com.genericembedding;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@code List<Byte>} view over a quantized vector, the byte counterpart of {@link FloatVectorList}.
+ */
+public class ByteVectorList extends AbstractList<Byte> implements RandomAccess {
+
+    private final byte[] values;
+
+    public ByteVectorList(byte[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public Byte get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    public byte[] values() {
+        return values;
+    }
+}
@@ -0,0 +1,213 @@
+package com.genericembedding;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.Version;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.ContextPreservingActionListener;
+import org.elasticsearch.client.internal.Client;
+import org.elasticsearch.cluster.metadata.IndexMetadata;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.indices.SystemIndexDescriptor;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Cluster-wide embedding cache stored in a plugin-owned system index.
+ *
+ * Documents are keyed by a hash of (model, text) and hold the vector as little-endian float32
+ * bytes in a {@code binary} field. Lookups are a single multi-get per batch; new vectors are written
+ * back with a fire-and-forget bulk request using {@code create} so concurrent writers never
+ * overwrite each other.
+ *
+ * The cache belongs to the plugin rather than to whichever user's request triggered a lookup, so
+ * its traffic runs in the system context. Listeners get the caller's context back.
+ */
+public class ClusterEmbeddingCache {
+
+    public static final Setting<Boolean> ENABLED_SETTING =
+        Setting.boolSetting("ai_embed.cluster_cache.enabled", false, Setting.Property.NodeScope);
+
+    public static final String INDEX_NAME = ".ai-embed-cache";
+    // Managed system index descriptors must name an origin; the cache's own requests do not use it
+    public static final String ORIGIN = "ai_embed";
+
+    private static final Logger logger = LogManager.getLogger(ClusterEmbeddingCache.class);
+    private static final String FIELD_MODEL = "model";
+    private static final String FIELD_DIMS = "dims";
+    private static final String FIELD_VECTOR = "vector";
+    private static final int MAPPINGS_VERSION = 1;
+
+    private final Client client;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    public ClusterEmbeddingCache(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Returns the cache configured for this node, or {@code null} if it is disabled.
+     */
+    public static ClusterEmbeddingCache fromSettings(Settings settings, Client client) {
+        return ENABLED_SETTING.get(settings) ? new ClusterEmbeddingCache(client) : null;
+    }
+
+    public static String id(String model, String text) {
+        return ContentHash.sha256(model, text);
+    }
+
+    public static SystemIndexDescriptor systemIndexDescriptor() {
+        return SystemIndexDescriptor.builder()
+            .setIndexPattern(INDEX_NAME + "*")
+            .setPrimaryIndex(INDEX_NAME)
+            .setDescription("Cluster-wide embedding cache for the " + PluginConstants.PROCESSOR_TYPE + " processor")
+            .setMappings(mappings())
+            .setSettings(Settings.builder()
+                .put(IndexMetadata.SETTING_NUMBER_OF_SHARDS, 1)
+                .put(IndexMetadata.SETTING_AUTO_EXPAND_REPLICAS, "0-1")
+                .put(IndexMetadata.SETTING_INDEX_HIDDEN, true)
+                .build())
+            .setVersionMetaKey("version")
+            .setOrigin(ORIGIN)
+            .setType(SystemIndexDescriptor.Type.INTERNAL_MANAGED)
+            .build();
+    }
+
+    /**
+     * Looks up all ids in one multi-get. Ids that are not cached, or whose lookup failed, are
+     * absent from the result.
+     */
+    public CompletableFuture<Map<String, float[]>> getAll(List<String> ids) {
+        CompletableFuture<Map<String, float[]>> future = new CompletableFuture<>();
+        MultiGetRequest request = new MultiGetRequest();
+        request.realtime(false);
+        for (String id : ids) {
+            request.add(new MultiGetRequest.Item(INDEX_NAME, id).fetchSourceContext(FetchSourceContext.FETCH_SOURCE));
+        }
+        ActionListener<MultiGetResponse> listener = ActionListener.wrap(response -> {
+            Map<String, float[]> found = new HashMap<>();
+            for (MultiGetItemResponse item : response.getResponses()) {
+                if (!item.isFailed() && item.getResponse().isExists()) {
+                    Object encoded = item.getResponse().getSourceAsMap().get(FIELD_VECTOR);
+                    if (encoded instanceof String) {
+                        found.put(item.getId(), decode((String) encoded));
+                    }
+                }
+            }
+            hits.add(found.size());
+            misses.add(ids.size() - found.size());
+            future.complete(found);
+        }, future::completeExceptionally);
+        executeAsSystem(listener, l -> client.multiGet(request, l));
+        return future;
+    }
+
+    /**
+     * Writes the vectors back in the background. Failures are logged and otherwise ignored; the
+     * worst case is that the same text is embedded again elsewhere.
+     */
+    public void putAll(String model, Map<String, float[]> vectors) {
+        if (vectors.isEmpty()) {
+            return;
+        }
+        BulkRequest bulk = new BulkRequest();
+        for (Map.Entry<String, float[]> entry : vectors.entrySet()) {
+            Map<String, Object> source = new HashMap<>();
+            source.put(FIELD_MODEL, model);
+            source.put(FIELD_DIMS, entry.getValue().length);
+            source.put(FIELD_VECTOR, encode(entry.getValue()));
+            bulk.add(new IndexRequest(INDEX_NAME).id(entry.getKey()).opType(DocWriteRequest.OpType.CREATE).source(source));
+        }
+        ActionListener<BulkResponse> listener = ActionListener.wrap(response -> {
+            writes.add(vectors.size());
+            if (response.hasFailures()) {
+                logger.debug("Some embedding cache writes failed: {}", response.buildFailureMessage());
+            }
+        }, e -> logger.warn("Failed to write embeddings to the cluster cache", e));
+        executeAsSystem(listener, l -> client.bulk(bulk, l));
+    }
+
+    private <Response> void executeAsSystem(ActionListener<Response> listener, Consumer<ActionListener<Response>> request) {
+        ThreadContext threadContext = client.threadPool().getThreadContext();
+        ActionListener<Response> restoring = ContextPreservingActionListener.wrapPreservingContext(listener, threadContext);
+        ThreadContext.StoredContext callerContext = threadContext.stashContext();
+        try {
+            threadContext.markAsSystemContext();
+            request.accept(restoring);
+        } finally {
+            callerContext.restore();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+    static String encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    static float[] decode(String encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(encoded)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    private static XContentBuilder mappings() {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder();
+            builder.startObject();
+            builder.startObject("_doc");
+            builder.startObject("_meta");
+            builder.field("version", Version.CURRENT.toString());
+            builder.field(SystemIndexDescriptor.VERSION_META_KEY, MAPPINGS_VERSION);
+            builder.endObject();
+            builder.field("dynamic", "strict");
+            builder.startObject("properties");
+            builder.startObject(FIELD_MODEL).field("type", "keyword").endObject();
+            builder.startObject(FIELD_DIMS).field("type", "integer").field("index", false).endObject();
+            builder.startObject(FIELD_VECTOR).field("type", "binary").endObject();
+            builder.endObject();
+            builder.endObject();
+            builder.endObject();
+            return builder;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to build mappings for " + INDEX_NAME, e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.genericembedding;
+
+import com.genericembedding.action.RateShareAction;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.internal.Client;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Divides each API's rate limits between the nodes that use it.
+ *
+ * {@code max_requests_per_second} and {@code max_tokens_per_minute} describe what the provider
+ * allows the whole account. Every {@code interval}, and whenever nodes join or leave, this node asks
+ * all nodes which APIs they hold limits for and which they sent requests to recently, and computes
+ * its share; its local limiters then run at that fraction of the configured rate. Ingest nodes send
+ * for pipelines and any node sends for the search handlers it coordinates, so every node counts.
+ * Active nodes split the budget evenly, and every idle node that holds the API, as well as every
+ * ingest node, keeps a small slice (a tenth of an active node's) so that it can start sending right
+ * away; the slices come out of the same budget, so all nodes' shares add up to one. Once an idle
+ * node starts, the next refresh counts it as active. Until the first round completes, or if it
+ * fails, limits are split evenly across all nodes.
+ */
+public class ClusterRateShares {
+
+    public static final Setting<Boolean> ENABLED_SETTING =
+        Setting.boolSetting("ai_embed.rate_share.enabled", true, Setting.Property.NodeScope);
+    public static final Setting<TimeValue> INTERVAL_SETTING =
+        Setting.timeSetting("ai_embed.rate_share.interval", TimeValue.timeValueSeconds(10), TimeValue.timeValueSeconds(1), Setting.Property.NodeScope);
+
+    private static final Logger logger = LogManager.getLogger(ClusterRateShares.class);
+    // An API counts as idle on a node after this many intervals without a request
+    private static final int IDLE_INTERVALS = 3;
+    // What an idle node holds of an API's budget, relative to an active node
+    static final double IDLE_WEIGHT = 0.1;
+
+    private final ProviderRegistry registry;
+    private final ClusterService clusterService;
+    private final ThreadPool threadPool;
+    private final Client client;
+    private final boolean enabled;
+    private final TimeValue interval;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    public ClusterRateShares(Settings settings, ProviderRegistry registry, ClusterService clusterService, ThreadPool threadPool, Client client) {
+        this.registry = registry;
+        this.clusterService = clusterService;
+        this.threadPool = threadPool;
+        this.client = client;
+        this.enabled = ENABLED_SETTING.get(settings);
+        this.interval = INTERVAL_SETTING.get(settings);
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        clusterService.addListener(this::onClusterChanged);
+        threadPool.scheduleWithFixedDelay(this::refresh, interval, threadPool.generic());
+    }
+
+    public long getIdleWindowNanos() {
+        return interval.nanos() * IDLE_INTERVALS;
+    }
+
+    private void onClusterChanged(ClusterChangedEvent event) {
+        if (event.nodesChanged()) {
+            threadPool.generic().execute(this::refresh);
+        }
+    }
+
+    void refresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        DiscoveryNodes nodes = clusterService.state().nodes();
+        Set<String> ingestNodes = new HashSet<>(nodes.getIngestNodes().keySet());
+        String localNode = nodes.getLocalNodeId();
+        double evenShare = 1.0 / Math.max(1, nodes.getSize());
+        Set<String> localHeld = registry.heldApis();
+        Set<String> localActive = registry.activeApis(getIdleWindowNanos());
+        // Internal traffic, so it must not run with the privileges of whichever request was last on this thread
+        ThreadContext.StoredContext context = threadPool.getThreadContext().stashContext();
+        try {
+            client.execute(RateShareAction.INSTANCE, new RateShareAction.Request(), ActionListener.runAfter(ActionListener.wrap(
+                response -> {
+                    Map<String, Set<String>> heldByNode = new HashMap<>();
+                    Map<String, Set<String>> activeByNode = new HashMap<>();
+                    for (RateShareAction.NodeResponse node : response.getNodes()) {
+                        heldByNode.put(node.getNode().getId(), node.getHeldApis());
+                        activeByNode.put(node.getNode().getId(), node.getActiveApis());
+                    }
+                    heldByNode.put(localNode, localHeld);
+                    activeByNode.put(localNode, localActive);
+                    registry.applyShares(computeShares(heldByNode, activeByNode, ingestNodes, localNode), evenShare);
+                    logger.debug("Rebalanced rate limits across {} nodes", activeByNode.size());
+                },
+                e -> {
+                    logger.debug("Failed to collect rate limit usage, splitting limits evenly", e);
+                    registry.applyShares(Collections.emptyMap(), evenShare);
+                }
+            ), () -> refreshing.set(false)));
+        } catch (RuntimeException e) {
+            refreshing.set(false);
+            throw e;
+        } finally {
+            context.restore();
+        }
+    }
+
+    /**
+     * This node's share of every API it holds. An API's budget is split between the nodes sending
+     * to it and, at {@link #IDLE_WEIGHT}, the idle nodes that may start: those holding it and all
+     * {@code ingestNodes}, which may get a pipeline for it at any time. Every node derives its share
+     * from the same reports, so the shares of all nodes add up to one.
+     *
+     * @param heldByNode   the APIs each node holds limits for, by node id
+     * @param activeByNode the APIs each node sent requests to recently, by node id
+     */
+    static Map<String, Double> computeShares(Map<String, Set<String>> heldByNode, Map<String, Set<String>> activeByNode,
+                                             Set<String> ingestNodes, String localNode) {
+        Map<String, Double> shares = new HashMap<>();
+        for (String api : heldByNode.getOrDefault(localNode, Collections.emptySet())) {
+            Set<String> active = new HashSet<>();
+            Set<String> idle = new HashSet<>(ingestNodes);
+            heldByNode.forEach((node, apis) -> {
+                if (apis.contains(api)) {
+                    idle.add(node);
+                }
+            });
+            activeByNode.forEach((node, apis) -> {
+                if (apis.contains(api)) {
+                    active.add(node);
+                }
+            });
+            idle.add(localNode);
+            idle.removeAll(active);
+            double weights = active.size() + idle.size() * IDLE_WEIGHT;
+            shares.put(api, (active.contains(localNode) ? 1.0 : IDLE_WEIGHT) / weights);
+        }
+        return shares;
+    }
+}
@@ -0,0 +1,153 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-wide, memory-bounded cache of embedding vectors keyed by a hash of (api_url, model, text).
+ *
+ * Vectors are held as primitive {@code float[]} rather than boxed lists. The cache is split into
+ * independently locked segments, each evicting its least recently used entries once it exceeds
+ * its share of the entry or byte budget. Cached arrays are shared between callers and must not be
+ * modified.
+ */
+public class EmbeddingCache {
+
+    public static final Setting<Integer> MAX_ENTRIES_SETTING =
+        Setting.intSetting("ai_embed.cache.max_entries", 100_000, 0, Setting.Property.NodeScope);
+    public static final Setting<ByteSizeValue> MAX_BYTES_SETTING =
+        Setting.byteSizeSetting("ai_embed.cache.max_bytes", ByteSizeValue.ofMb(64), Setting.Property.NodeScope);
+
+    private static final int SEGMENTS = 16;
+    // Rough per-entry cost of the key string, map node and array header
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+
+    private final Segment[] segments;
+    private final boolean enabled;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public EmbeddingCache(int maxEntries, long maxBytes) {
+        this.enabled = maxEntries > 0 && maxBytes > 0;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxEntries / SEGMENTS), Math.max(1, maxBytes / SEGMENTS));
+        }
+    }
+
+    public static EmbeddingCache fromSettings(Settings settings) {
+        return new EmbeddingCache(MAX_ENTRIES_SETTING.get(settings), MAX_BYTES_SETTING.get(settings).getBytes());
+    }
+
+    public static String key(String apiUrl, String model, String text) {
+        return ContentHash.sha256(apiUrl, model, text);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public float[] get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        float[] vector = segmentFor(key).get(key);
+        if (vector != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return vector;
+    }
+
+    public void put(String key, float[] vector) {
+        if (enabled) {
+            evictions.add(segmentFor(key).put(key, vector));
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private Segment segmentFor(String key) {
+        return segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+    }
+
+    private static long weigh(float[] vector) {
+        return ENTRY_OVERHEAD_BYTES + 4L * vector.length;
+    }
+
+    private static class Segment {
+        private final int maxEntries;
+        private final long maxBytes;
+        private final LinkedHashMap<String, float[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized float[] get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized int put(String key, float[] vector) {
+            float[] previous = entries.put(key, vector);
+            if (previous != null) {
+                bytes -= weigh(previous);
+            }
+            bytes += weigh(vector);
+
+            int evicted = 0;
+            Iterator<Map.Entry<String, float[]>> iterator = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+                Map.Entry<String, float[]> eldest = iterator.next();
+                bytes -= weigh(eldest.getValue());
+                iterator.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized long sizeInBytes() {
+            return bytes;
+        }
+    }
+}
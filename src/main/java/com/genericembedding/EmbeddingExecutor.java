@@ -0,0 +1,94 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs embedding work off the calling thread.
+ *
+ * Inside a node this is backed by the ingest service's generic executor and scheduler, so
+ * network calls and retry delays never hold a write thread. {@link #DIRECT} runs everything
+ * inline on the caller and is used where no node executor is available (tests, callers that
+ * still embed synchronously).
+ */
+public class EmbeddingExecutor {
+
+    public static final EmbeddingExecutor DIRECT = new EmbeddingExecutor(Runnable::run, (delayMs, command) -> {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        command.run();
+    });
+
+    private final Consumer<Runnable> executor;
+    private final BiConsumer<Long, Runnable> scheduler;
+    private final ThreadContext threadContext;
+
+    public EmbeddingExecutor(Consumer<Runnable> executor, BiConsumer<Long, Runnable> scheduler) {
+        this(executor, scheduler, null);
+    }
+
+    public EmbeddingExecutor(Consumer<Runnable> executor, BiConsumer<Long, Runnable> scheduler, ThreadContext threadContext) {
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.threadContext = threadContext;
+    }
+
+    public static EmbeddingExecutor fromParameters(Processor.Parameters parameters) {
+        return new EmbeddingExecutor(
+            parameters.genericExecutor,
+            (delayMs, command) -> parameters.scheduler.apply(delayMs, command),
+            parameters.threadContext
+        );
+    }
+
+    /**
+     * Executor on the node's generic pool, for callers outside of ingest such as the search handlers.
+     */
+    public static EmbeddingExecutor fromThreadPool(ThreadPool threadPool) {
+        return new EmbeddingExecutor(
+            threadPool.generic()::execute,
+            (delayMs, command) -> threadPool.schedule(command, TimeValue.timeValueMillis(delayMs), threadPool.generic()),
+            threadPool.getThreadContext()
+        );
+    }
+
+    public void execute(Runnable command) {
+        executor.accept(command);
+    }
+
+    public void schedule(long delayMs, Runnable command) {
+        if (delayMs <= 0) {
+            execute(command);
+        } else {
+            scheduler.accept(delayMs, command);
+        }
+    }
+
+    /**
+     * Wraps a completion callback so that it runs with the caller's thread context even when it is
+     * invoked from a thread the node does not own, such as the HTTP client's.
+     */
+    public <T> BiConsumer<T, Throwable> preserveContext(BiConsumer<T, Throwable> callback) {
+        if (threadContext == null) {
+            return callback;
+        }
+        Supplier<ThreadContext.StoredContext> restore = threadContext.newRestorableContext(false);
+        return (value, failure) -> {
+            ThreadContext.StoredContext context = restore.get();
+            try {
+                callback.accept(value, failure);
+            } finally {
+                context.restore();
+            }
+        };
+    }
+}
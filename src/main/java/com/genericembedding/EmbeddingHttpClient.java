@@ -0,0 +1,285 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Node-wide HTTP client shared by every embedding provider.
+ *
+ * Wraps a single {@link HttpClient} that negotiates HTTP/2 where the provider supports it and
+ * otherwise keeps HTTP/1.1 connections alive in the JDK's pool, so TCP and TLS handshakes are paid
+ * once per connection rather than once per request. Requests to one host are capped at
+ * {@code max_connections_per_host} in flight; further requests queue without holding a thread
+ * until an earlier one completes. A request holds its slot until its response body has been read,
+ * failed or been abandoned, since the connection is busy until then.
+ *
+ * Idle pooled connections are closed by the JDK after {@code jdk.httpclient.keepalive.timeout}
+ * seconds, 1200 unless the node's JVM options set it.
+ */
+public class EmbeddingHttpClient {
+
+    public static final Setting<Integer> MAX_CONNECTIONS_PER_HOST_SETTING =
+        Setting.intSetting("ai_embed.http.max_connections_per_host", 32, 1, Setting.Property.NodeScope);
+    private final HttpClient client;
+    private final int maxConnectionsPerHost;
+    private final Map<String, HostPermits> hosts = new ConcurrentHashMap<>();
+
+    // Elasticsearch still runs plugins under a security manager, so network access needs doPrivileged
+    @SuppressWarnings("removal")
+    public EmbeddingHttpClient(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.client = AccessController.doPrivileged((PrivilegedAction<HttpClient>) () -> HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build());
+    }
+
+    public static EmbeddingHttpClient fromSettings(Settings settings) {
+        return new EmbeddingHttpClient(MAX_CONNECTIONS_PER_HOST_SETTING.get(settings));
+    }
+
+    /**
+     * Client with default settings for callers that are not wired to a node, such as tests.
+     */
+    public static EmbeddingHttpClient defaultClient() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Sends the request once a per-host slot is free. The returned future completes on one of the
+     * client's threads. The slot is freed once the body has been consumed, so a streamed body must
+     * be read to the end or closed.
+     *
+     * @param executor where a request that had to wait is sent from once a slot frees up, rather
+     *                 than on the thread that freed it, usually one of the client's
+     */
+    @SuppressWarnings("removal")
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler,
+                                                            Executor executor) {
+        HostPermits permits = hosts.computeIfAbsent(request.uri().getAuthority(), host -> new HostPermits(maxConnectionsPerHost));
+        CompletableFuture<HttpResponse<T>> future = new CompletableFuture<>();
+        permits.run(executor, () -> {
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            };
+            HttpResponse.BodyHandler<T> releasing = responseInfo -> new ReleasingSubscriber<>(bodyHandler.apply(responseInfo), release);
+            CompletableFuture<HttpResponse<T>> sent;
+            try {
+                sent = AccessController.doPrivileged(
+                    (PrivilegedAction<CompletableFuture<HttpResponse<T>>>) () -> client.sendAsync(request, releasing));
+            } catch (Exception e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+            sent.whenComplete((response, failure) -> {
+                if (failure != null) {
+                    // Covers failures before a body subscriber existed; the guard makes this a no-op otherwise
+                    release.run();
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(response);
+                }
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Wraps a body handler so that the body fails with an {@link HttpTimeoutException} unless it has
+     * been received in full within {@code timeoutMillis} of the response headers. A request's own
+     * timeout only bounds the wait for the headers. Use a handler that completes once the body has
+     * been read, such as {@link HttpResponse.BodyHandlers#ofByteArray()}; a streamed body is handed
+     * over before it is read. On timeout the body is cancelled, which aborts the exchange and frees
+     * its slot.
+     */
+    public static <T> HttpResponse.BodyHandler<T> withBodyTimeout(HttpResponse.BodyHandler<T> bodyHandler, long timeoutMillis) {
+        return responseInfo -> new DeadlineSubscriber<>(bodyHandler.apply(responseInfo), timeoutMillis);
+    }
+
+    public int getInFlight(String host) {
+        HostPermits permits = hosts.get(host);
+        return permits == null ? 0 : permits.active();
+    }
+
+    private static class DefaultHolder {
+        private static final EmbeddingHttpClient INSTANCE = fromSettings(Settings.EMPTY);
+    }
+
+    /**
+     * Passes the body through and frees the request's slot when the body completes, fails, or is
+     * cancelled because the reader closed it early.
+     */
+    private static class ReleasingSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final Runnable release;
+
+        ReleasingSubscriber(HttpResponse.BodySubscriber<T> delegate, Runnable release) {
+            this.delegate = delegate;
+            this.release = release;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            delegate.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                    release.run();
+                }
+            });
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            delegate.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            release.run();
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            release.run();
+            delegate.onComplete();
+        }
+    }
+
+    private static class DeadlineSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private final CompletableFuture<T> body;
+        private volatile Flow.Subscription subscription;
+
+        DeadlineSubscriber(HttpResponse.BodySubscriber<T> delegate, long timeoutMillis) {
+            this.delegate = delegate;
+            CompletableFuture<T> received = new CompletableFuture<>();
+            delegate.getBody().whenComplete((value, failure) -> {
+                if (failure != null) {
+                    received.completeExceptionally(failure);
+                } else {
+                    received.complete(value);
+                }
+            });
+            this.body = received.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).handle((value, failure) -> {
+                if (failure instanceof TimeoutException) {
+                    cancel();
+                    throw new CompletionException(new HttpTimeoutException("response body not received within " + timeoutMillis + "ms"));
+                }
+                if (failure != null) {
+                    throw failure instanceof CompletionException ? (CompletionException) failure : new CompletionException(failure);
+                }
+                return value;
+            });
+        }
+
+        private void cancel() {
+            Flow.Subscription subscription = this.subscription;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return body;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            delegate.onSubscribe(subscription);
+            if (body.isDone()) {
+                // Timed out before the body started
+                subscription.cancel();
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            delegate.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            delegate.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            delegate.onComplete();
+        }
+    }
+
+    private static class HostPermits {
+        private final int max;
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private int active;
+
+        HostPermits(int max) {
+            this.max = max;
+        }
+
+        void run(Executor executor, Runnable task) {
+            synchronized (this) {
+                if (active >= max) {
+                    waiting.add(() -> executor.execute(task));
+                    return;
+                }
+                active++;
+            }
+            task.run();
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+            }
+            // The slot passes straight to the next waiter, which is sent from its own executor
+            next.run();
+        }
+
+        synchronized int active() {
+            return active;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.xcontent.ToXContentFragment;
+import org.elasticsearch.xcontent.ToXContentObject;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-wide counters of the embedding path, shared by every pipeline's providers and the search
+ * handlers. Counters only ever grow, from node start.
+ *
+ * Provider stats are kept per scope ({@link ProviderRegistry#INGEST} or {@link ProviderRegistry#SEARCH})
+ * and per API, labelled {@code <model>@<api_url>}; pipelines that call the same model at the same
+ * endpoint share an entry.
+ */
+public class EmbeddingStats implements ToXContentObject {
+
+    private final LongAdder duplicateInputs = new LongAdder();
+    private final LongAdder duplicateBytes = new LongAdder();
+    private final Map<String, ProviderStats> ingestProviders = new ConcurrentHashMap<>();
+    private final Map<String, ProviderStats> searchProviders = new ConcurrentHashMap<>();
+    private final SearchStats semanticSearch = new SearchStats();
+    private final SearchStats hybridSearch = new SearchStats();
+
+    /**
+     * Records inputs that were not sent to the provider because an identical text was already part of
+     * the same request.
+     */
+    public void recordDuplicates(int inputs, long bytes) {
+        if (inputs > 0) {
+            duplicateInputs.add(inputs);
+            duplicateBytes.add(bytes);
+        }
+    }
+
+    public long getDuplicateInputCount() {
+        return duplicateInputs.sum();
+    }
+
+    public long getDuplicateBytes() {
+        return duplicateBytes.sum();
+    }
+
+    public ProviderStats provider(String scope, String label) {
+        Map<String, ProviderStats> providers = ProviderRegistry.SEARCH.equals(scope) ? searchProviders : ingestProviders;
+        return providers.computeIfAbsent(label, k -> new ProviderStats());
+    }
+
+    public SearchStats semanticSearch() {
+        return semanticSearch;
+    }
+
+    public SearchStats hybridSearch() {
+        return hybridSearch;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(duplicateInputs.sum(), duplicateBytes.sum(), snapshot(ingestProviders), snapshot(searchProviders),
+            semanticSearch.snapshot(), hybridSearch.snapshot());
+    }
+
+    private static Map<String, ProviderStats.Snapshot> snapshot(Map<String, ProviderStats> providers) {
+        Map<String, ProviderStats.Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, ProviderStats> entry : providers.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        snapshot().toXContent(builder, params);
+        return builder.endObject();
+    }
+
+    /**
+     * A point-in-time copy of all counters. Snapshots of several nodes merge into cluster totals:
+     * counters add up, providers with the same label are combined and latency histograms are merged
+     * bucket by bucket, so cluster percentiles are exact to the histogram's resolution rather than
+     * averages of node percentiles.
+     *
+     * Renders as the {@code ingest} and {@code search} fields of the enclosing object.
+     */
+    public static class Snapshot implements ToXContentFragment, Writeable {
+        private final long duplicateInputs;
+        private final long duplicateBytes;
+        private final Map<String, ProviderStats.Snapshot> ingestProviders;
+        private final Map<String, ProviderStats.Snapshot> searchProviders;
+        private final SearchStats.Snapshot semanticSearch;
+        private final SearchStats.Snapshot hybridSearch;
+
+        Snapshot(long duplicateInputs, long duplicateBytes, Map<String, ProviderStats.Snapshot> ingestProviders,
+                 Map<String, ProviderStats.Snapshot> searchProviders, SearchStats.Snapshot semanticSearch,
+                 SearchStats.Snapshot hybridSearch) {
+            this.duplicateInputs = duplicateInputs;
+            this.duplicateBytes = duplicateBytes;
+            this.ingestProviders = ingestProviders;
+            this.searchProviders = searchProviders;
+            this.semanticSearch = semanticSearch;
+            this.hybridSearch = hybridSearch;
+        }
+
+        public Snapshot(StreamInput in) throws IOException {
+            this.duplicateInputs = in.readVLong();
+            this.duplicateBytes = in.readVLong();
+            this.ingestProviders = new TreeMap<>(in.readMap(StreamInput::readString, ProviderStats.Snapshot::new));
+            this.searchProviders = new TreeMap<>(in.readMap(StreamInput::readString, ProviderStats.Snapshot::new));
+            this.semanticSearch = new SearchStats.Snapshot(in);
+            this.hybridSearch = new SearchStats.Snapshot(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(duplicateInputs);
+            out.writeVLong(duplicateBytes);
+            out.writeMap(ingestProviders, StreamOutput::writeString, (o, provider) -> provider.writeTo(o));
+            out.writeMap(searchProviders, StreamOutput::writeString, (o, provider) -> provider.writeTo(o));
+            semanticSearch.writeTo(out);
+            hybridSearch.writeTo(out);
+        }
+
+        public static Snapshot empty() {
+            return new EmbeddingStats().snapshot();
+        }
+
+        public long getDuplicateInputCount() {
+            return duplicateInputs;
+        }
+
+        public Map<String, ProviderStats.Snapshot> getIngestProviders() {
+            return ingestProviders;
+        }
+
+        public Map<String, ProviderStats.Snapshot> getSearchProviders() {
+            return searchProviders;
+        }
+
+        public SearchStats.Snapshot getSemanticSearch() {
+            return semanticSearch;
+        }
+
+        public SearchStats.Snapshot getHybridSearch() {
+            return hybridSearch;
+        }
+
+        public Snapshot merge(Snapshot other) {
+            return new Snapshot(duplicateInputs + other.duplicateInputs, duplicateBytes + other.duplicateBytes,
+                merge(ingestProviders, other.ingestProviders), merge(searchProviders, other.searchProviders),
+                semanticSearch.merge(other.semanticSearch), hybridSearch.merge(other.hybridSearch));
+        }
+
+        private static Map<String, ProviderStats.Snapshot> merge(Map<String, ProviderStats.Snapshot> providers,
+                                                                 Map<String, ProviderStats.Snapshot> others) {
+            Map<String, ProviderStats.Snapshot> merged = new TreeMap<>(providers);
+            others.forEach((label, snapshot) -> merged.merge(label, snapshot, ProviderStats.Snapshot::merge));
+            return merged;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject("ingest");
+            builder.field("deduplicated_inputs", duplicateInputs);
+            builder.field("deduplicated_bytes", duplicateBytes);
+            builder.field("providers", ingestProviders);
+            builder.endObject();
+            builder.startObject("search");
+            builder.field("providers", searchProviders);
+            builder.field("semantic", semanticSearch);
+            builder.field("hybrid", hybridSearch);
+            return builder.endObject();
+        }
+    }
+}
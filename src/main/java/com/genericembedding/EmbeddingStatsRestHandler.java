@@ -0,0 +1,42 @@
+package com.genericembedding;
+
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.ToXContent;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+
+import java.util.List;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Reports this node's embedding counters and latencies: API calls per provider, de-duplicated inputs,
+ * and the phases of the semantic and hybrid search handlers.
+ */
+public class EmbeddingStatsRestHandler implements RestHandler {
+
+    private final EmbeddingStats stats;
+
+    public EmbeddingStatsRestHandler(EmbeddingStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public List<Route> routes() {
+        return List.of(
+            new Route(GET, "/_ai_embed/_stats")
+        );
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel, NodeClient client) throws Exception {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        stats.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        channel.sendResponse(new RestResponse(RestStatus.OK, builder));
+    }
+}
@@ -0,0 +1,61 @@
+package com.genericembedding;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Approximates BPE token counts without a vocabulary.
+ *
+ * The text is split with the encoding's own pre-tokenization pattern, so every piece is a token
+ * boundary in the real tokenizer too, and each piece is charged by its shape: short words and
+ * numbers of up to three digits are a single token, longer words roughly one token per six
+ * characters, and non-ASCII text one token per code point.
+ */
+public class EstimatingTokenCounter implements TokenCounter {
+
+    private final String encoding;
+    private final Pattern pattern;
+
+    public EstimatingTokenCounter(String encoding) {
+        this.encoding = encoding;
+        this.pattern = BpeTokenCounter.pattern(encoding);
+    }
+
+    @Override
+    public String encoding() {
+        return encoding;
+    }
+
+    @Override
+    public int count(String text) {
+        int tokens = 0;
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            tokens += estimate(text, matcher.start(), matcher.end());
+        }
+        return tokens;
+    }
+
+    private static int estimate(String text, int start, int end) {
+        int letters = 0;
+        int other = 0;
+        int nonAscii = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (!Character.isLowSurrogate(c)) {
+                    nonAscii++;
+                }
+            } else if (Character.isLetterOrDigit(c)) {
+                letters++;
+            } else if (!Character.isWhitespace(c)) {
+                other++;
+            }
+        }
+        if (nonAscii > 0) {
+            return nonAscii + (letters + 5) / 6 + (other + 1) / 2;
+        }
+        int tokens = (letters + 5) / 6 + (other + 1) / 2;
+        return Math.max(1, tokens);
+    }
+}
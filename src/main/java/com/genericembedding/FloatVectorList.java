@@ -0,0 +1,34 @@
+package com.genericembedding;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@code List<Float>} view over a primitive vector.
+ *
+ * Ingest documents only accept lists for array values, so vectors are written as this view rather
+ * than as a copied {@code List<Float>}; elements are boxed one at a time while the document is
+ * serialized instead of being held boxed for the lifetime of the request.
+ */
+public class FloatVectorList extends AbstractList<Float> implements RandomAccess {
+
+    private final float[] values;
+
+    public FloatVectorList(float[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public Float get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    public float[] values() {
+        return values;
+    }
+}
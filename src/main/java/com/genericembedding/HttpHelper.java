@@ -1,24 +1,25 @@
 package com.genericembedding;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.genericembedding.providers.ProviderContext;
+import com.genericembedding.providers.ProviderFactory;
 import com.genericembedding.providers.ProviderResponse;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.security.AccessController;
-import java.security.PrivilegedActionException;
-import java.security.PrivilegedExceptionAction;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import com.genericembedding.providers.ProviderRequest;
 import java.util.stream.Collectors;
@@ -26,28 +27,47 @@ import java.util.stream.Collectors;
 public class HttpHelper {
 
     private static final Logger logger = LogManager.getLogger(HttpHelper.class);
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int MAX_RETRIES = 5;
     private final String apiUrl;
+    private final URI uri;
     private final String model;
     private final Map<String, String> headers;
     private final String requestTemplate;
-    private final String responsePath;
+    private final Integer dimensions;
+    private final ResponsePath responsePath;
     private final int connectTimeoutMillis;
     private final int readTimeoutMillis;
-    private final RateLimiter rateLimiter;
+    private final ApiLimits limits;
+    private final TokenCounter tokenCounter;
     private final BackoffStrategy backoffStrategy;
+    private final EmbeddingExecutor executor;
+    private final EmbeddingHttpClient httpClient;
+    private final ProviderStats stats;
 
-    public HttpHelper(Map<String, Object> config) {
+    /**
+     * @param limits the limits of the API the config calls, shared by every provider calling it
+     */
+    @SuppressWarnings("unchecked")
+    public HttpHelper(Map<String, Object> config, ProviderContext context, ApiLimits limits) {
+        this.executor = context.getExecutor();
+        this.httpClient = context.getHttpClient();
+        this.tokenCounter = context.getTokenCounter();
         this.apiUrl = (String) config.getOrDefault(PluginConstants.CONFIG_API_URL, PluginConstants.DEFAULT_API_URL);
+        this.uri = URI.create(apiUrl);
+        this.stats = context.getStats().provider(context.getScope(), ProviderFactory.cacheModel(config) + "@" + apiUrl);
         this.model = (String) config.getOrDefault(PluginConstants.CONFIG_MODEL, PluginConstants.DEFAULT_MODEL);
         this.headers = (Map<String, String>) config.getOrDefault(PluginConstants.CONFIG_HEADERS, Map.of());
-        this.requestTemplate = (String) config.getOrDefault(PluginConstants.CONFIG_REQUEST_TEMPLATE, PluginConstants.DEFAULT_REQUEST_TEMPLATE);
-        this.responsePath = (String) config.getOrDefault(PluginConstants.CONFIG_RESPONSE_PATH, PluginConstants.DEFAULT_RESPONSE_PATH);
+        Object dimensions = config.get(PluginConstants.CONFIG_DIMENSIONS);
+        this.dimensions = dimensions != null ? ((Number) dimensions).intValue() : null;
+        String requestTemplate = (String) config.getOrDefault(PluginConstants.CONFIG_REQUEST_TEMPLATE, PluginConstants.DEFAULT_REQUEST_TEMPLATE);
+        // Custom templates place {{dimensions}} themselves; the default one only asks for it when it is set
+        this.requestTemplate = this.dimensions != null && PluginConstants.DEFAULT_REQUEST_TEMPLATE.equals(requestTemplate)
+            ? PluginConstants.DEFAULT_REQUEST_TEMPLATE_WITH_DIMENSIONS : requestTemplate;
+        this.responsePath = ResponsePath.compile((String) config.getOrDefault(PluginConstants.CONFIG_RESPONSE_PATH, PluginConstants.DEFAULT_RESPONSE_PATH));
         this.connectTimeoutMillis = (int) parseDurationToMillis((String) config.getOrDefault(PluginConstants.CONFIG_CONNECT_TIMEOUT, PluginConstants.DEFAULT_CONNECT_TIMEOUT));
         this.readTimeoutMillis = (int) parseDurationToMillis((String) config.getOrDefault(PluginConstants.CONFIG_READ_TIMEOUT, PluginConstants.DEFAULT_READ_TIMEOUT));
 
-        int maxRequestsPerSecond = (int) config.getOrDefault(PluginConstants.CONFIG_MAX_REQUESTS_PER_SECOND, PluginConstants.DEFAULT_MAX_REQUESTS_PER_SECOND);
-        this.rateLimiter = new RateLimiter(maxRequestsPerSecond);
+        this.limits = limits;
 
         long initialDelayMs = (long) config.getOrDefault(PluginConstants.CONFIG_BACKOFF_INITIAL_DELAY_MS, PluginConstants.DEFAULT_BACKOFF_INITIAL_DELAY_MS);
         long maxDelayMs = (long) config.getOrDefault(PluginConstants.CONFIG_BACKOFF_MAX_DELAY_MS, PluginConstants.DEFAULT_BACKOFF_MAX_DELAY_MS);
@@ -56,170 +76,181 @@ public class HttpHelper {
     }
 
     public ProviderResponse getEmbeddings(List<ProviderRequest> requests) throws IOException {
-        logger.info("Starting embedding request for {} texts to URL: {}", requests.size(), apiUrl);
-        
         try {
-            rateLimiter.acquire();
+            return getEmbeddingsAsync(requests).get();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            throw new IOException("Rate limiter interrupted", e);
-        }
-
-        // Use doPrivileged to execute network operations with elevated permissions
-        try {
-            return AccessController.doPrivileged((PrivilegedExceptionAction<ProviderResponse>) () -> {
-                logger.info("Executing HTTP request with elevated privileges");
-                return doGetEmbeddings(requests);
-            });
-        } catch (PrivilegedActionException e) {
+            throw new IOException("Interrupted while waiting for embeddings", e);
+        } catch (ExecutionException e) {
             Throwable cause = e.getCause();
-            logger.error("Privileged action failed: {}", cause.getMessage());
             if (cause instanceof IOException) {
                 throw (IOException) cause;
             } else if (cause instanceof RuntimeException) {
                 throw (RuntimeException) cause;
             } else {
-                throw new IOException("Unexpected exception in privileged action", cause);
+                throw new IOException("Unexpected exception while fetching embeddings", cause);
             }
         }
     }
 
-    private ProviderResponse doGetEmbeddings(List<ProviderRequest> requests) throws IOException {
-        int maxRetries = 5;
-        backoffStrategy.reset();
-
-        for (int attempt = 0; attempt < maxRetries; attempt++) {
-            logger.info("=== HTTP REQUEST ATTEMPT {} of {} ===", attempt + 1, maxRetries);
-            URL url = new URL(apiUrl);
-            HttpURLConnection connection = null;
-            try {
-                logger.info("Opening HTTP connection to: {}", url);
-                connection = (HttpURLConnection) url.openConnection();
-                logger.info("Connection opened successfully");
-                
-                logger.info("Setting HTTP method to POST");
-                connection.setRequestMethod("POST");
-                
-                logger.info("Setting Content-Type header");
-                connection.setRequestProperty("Content-Type", "application/json");
-                
-                logger.info("Setting custom headers: {}", headers.size());
-                for (Map.Entry<String, String> entry : headers.entrySet()) {
-                    logger.info("Setting header: {} = {}", entry.getKey(), entry.getValue().substring(0, Math.min(20, entry.getValue().length())) + "...");
-                    connection.setRequestProperty(entry.getKey(), entry.getValue());
-                }
-                
-                logger.info("Enabling output stream");
-                connection.setDoOutput(true);
-                
-                logger.info("Setting timeouts - Connect: {}ms, Read: {}ms", connectTimeoutMillis, readTimeoutMillis);
-                connection.setConnectTimeout(connectTimeoutMillis);
-                connection.setReadTimeout(readTimeoutMillis);
-                
-                logger.info("HTTP connection configuration completed");
-
-                // For OpenAI API, we need to send the input as an array of strings
-                String inputsJson = requests.stream()
-                    .map(req -> "\"" + escapeJson(req.getText()) + "\"")
-                    .collect(Collectors.joining(",", "[", "]"));
-
-                String requestBody = requestTemplate
-                    .replace("\"{{text}}\"", inputsJson)  // Replace with proper array, not string
-                    .replace("{{model}}", escapeJson(model));
+    /**
+     * Fetches embeddings without blocking the caller. The request and any retries run on the
+     * configured {@link EmbeddingExecutor}; backoff delays are scheduled rather than slept.
+     */
+    public CompletableFuture<ProviderResponse> getEmbeddingsAsync(List<ProviderRequest> requests) {
+        logger.info("Starting embedding request for {} texts to URL: {}", requests.size(), apiUrl);
+        CompletableFuture<ProviderResponse> future = new CompletableFuture<>();
+        long startNanos = System.nanoTime();
+        stats.recordRequest(requests.size());
+        executor.execute(() -> attempt(requests, estimateTokens(requests), 0, future));
+        // The call is recorded before the caller sees its outcome
+        CompletableFuture<ProviderResponse> result = new CompletableFuture<>();
+        future.whenComplete((response, failure) -> {
+            stats.recordCompletion(System.nanoTime() - startNanos, failure != null);
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(response);
+            }
+        });
+        return result;
+    }
 
-                logger.info("Generated JSON request body: {}", requestBody);
-                logger.info("Sending request body to API (length: {} bytes)", requestBody.length());
-                logger.info("Request headers: {}", headers);
-                logger.info("Connect timeout: {}ms, Read timeout: {}ms", connectTimeoutMillis, readTimeoutMillis);
-                
-                try (OutputStream os = connection.getOutputStream()) {
-                    byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
-                    os.write(input, 0, input.length);
-                    logger.info("Request body sent successfully");
-                } catch (Exception e) {
-                    logger.error("Failed to send request body: {}", e.getMessage());
-                    logger.error("Full stack trace:", e);
-                    throw e;
-                }
+    private long estimateTokens(List<ProviderRequest> requests) {
+        if (!limits.tokens().isEnabled()) {
+            return 0;
+        }
+        long tokens = 0;
+        for (ProviderRequest request : requests) {
+            tokens += tokenCounter.count(request.getText());
+        }
+        return tokens;
+    }
 
-                logger.info("Getting response code from API...");
-                int responseCode = connection.getResponseCode();
-                logger.info("Received HTTP response code: {}", responseCode);
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    logger.info("Successfully received embeddings from API");
-                    try (InputStream is = connection.getInputStream()) {
-                        JsonNode rootNode = MAPPER.readTree(is);
-                        logger.info("Received response from OpenAI API: {}", rootNode.toString());
-                        JsonNode dataNode = findNodeByPath(rootNode, "data");
+    private void attempt(List<ProviderRequest> requests, long estimatedTokens, int attempt, CompletableFuture<ProviderResponse> future) {
+        // Both budgets are reserved up front; the request goes out once the later of the two allows it
+        limits.markUsed();
+        long waitNanos = Math.max(limits.requests().tryReserve(), limits.tokens().tryReserve(estimatedTokens));
+        if (waitNanos > 0) {
+            long delayMs = TimeUnit.NANOSECONDS.toMillis(waitNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+            logger.debug("Rate limited, sending attempt {} in {}ms", attempt + 1, delayMs);
+            stats.recordRateLimitWait(waitNanos);
+            executor.schedule(delayMs, () -> send(requests, estimatedTokens, attempt, future));
+        } else {
+            send(requests, estimatedTokens, attempt, future);
+        }
+    }
 
-                        if (dataNode != null && dataNode.isArray()) {
-                            List<List<Float>> allEmbeddings = new ArrayList<>();
-                            for (JsonNode itemNode : (ArrayNode) dataNode) {
-                                // For OpenAI API, the embedding is directly in the "embedding" field of each item
-                                JsonNode embeddingNode = itemNode.get("embedding");
-                                if (embeddingNode != null && embeddingNode.isArray()) {
-                                    List<Float> embedding = new ArrayList<>();
-                                    for (JsonNode node : (ArrayNode) embeddingNode) {
-                                        embedding.add(node.floatValue());
-                                    }
-                                    allEmbeddings.add(embedding);
-                                    logger.info("Successfully parsed embedding with {} dimensions", embedding.size());
-                                } else {
-                                    logger.error("Embedding node not found or not an array in item: {}", itemNode);
-                                    throw new IOException(PluginConstants.ERROR_INVALID_EMBEDDING_RESPONSE + "embedding field not found or invalid for item.");
-                                }
-                            }
-                            
-                            // Extract usage information if available
-                            Map<String, Object> usage = null;
-                            JsonNode usageNode = rootNode.get("usage");
-                            if (usageNode != null) {
-                                usage = new java.util.HashMap<>();
-                                if (usageNode.has("prompt_tokens")) {
-                                    usage.put("prompt_tokens", usageNode.get("prompt_tokens").asInt());
-                                }
-                                if (usageNode.has("total_tokens")) {
-                                    usage.put("total_tokens", usageNode.get("total_tokens").asInt());
-                                }
-                                logger.info("Extracted usage information: {}", usage);
-                            }
-                            
-                            return new ProviderResponse(allEmbeddings, usage);
-                        } else {
-                            throw new IOException(PluginConstants.ERROR_INVALID_EMBEDDING_RESPONSE + "data array not found or invalid.");
-                        }
+    private void send(List<ProviderRequest> requests, long estimatedTokens, int attempt, CompletableFuture<ProviderResponse> future) {
+        logger.info("=== HTTP REQUEST ATTEMPT {} of {} ===", attempt + 1, MAX_RETRIES);
+        HttpRequest request;
+        try {
+            request = buildRequest(requests);
+        } catch (Exception e) {
+            limits.tokens().adjust(-estimatedTokens);
+            future.completeExceptionally(e);
+            return;
+        }
+        // The body is received without holding a thread and has readTimeout to arrive once the headers have
+        HttpResponse.BodyHandler<byte[]> bodyHandler = EmbeddingHttpClient.withBodyTimeout(HttpResponse.BodyHandlers.ofByteArray(), readTimeoutMillis);
+        // Responses complete on the HTTP client's threads; parsing and everything downstream runs
+        // back on our executor with the original thread context
+        httpClient.sendAsync(request, bodyHandler, executor::execute)
+            .whenComplete(executor.preserveContext((response, failure) -> executor.execute(() -> {
+                try {
+                    if (failure != null) {
+                        throw failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
                     }
-                } else if (responseCode == 429 || responseCode >= 500) {
-                    if (attempt < maxRetries - 1) {
-                        long delay = backoffStrategy.nextDelay();
-                        try {
-                            Thread.sleep(delay);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            throw new IOException("Backoff interrupted", e);
-                        }
-                        continue;
+                    ProviderResponse parsed = handleResponse(response);
+                    reconcileTokens(estimatedTokens, parsed);
+                    if (parsed.hasUsage()) {
+                        stats.recordUsage(parsed.getUsage());
+                    }
+                    future.complete(parsed);
+                } catch (RetryableResponseException e) {
+                    // Rejected requests are not billed, so their tokens go back into the budget
+                    limits.tokens().adjust(-estimatedTokens);
+                    if (attempt < MAX_RETRIES - 1) {
+                        long delay = backoffStrategy.delayFor(attempt);
+                        logger.info("Retryable response code {}, retrying in {}ms", e.responseCode, delay);
+                        stats.recordRetry(e.responseCode);
+                        executor.schedule(delay, () -> attempt(requests, estimatedTokens, attempt + 1, future));
                     } else {
-                        String errorResponse;
-                        try (InputStream es = connection.getErrorStream()) {
-                            errorResponse = es != null ? new String(es.readAllBytes(), StandardCharsets.UTF_8) : "No error stream";
+                        if (e.responseCode == 429) {
+                            stats.recordThrottled();
                         }
-                        throw new IOException(PluginConstants.ERROR_API_REQUEST_FAILED + responseCode + ": " + errorResponse);
+                        future.completeExceptionally(new IOException(PluginConstants.ERROR_API_REQUEST_FAILED + e.responseCode + ": " + e.errorResponse));
                     }
-                } else {
-                    String errorResponse;
-                    try (InputStream es = connection.getErrorStream()) {
-                        errorResponse = es != null ? new String(es.readAllBytes(), StandardCharsets.UTF_8) : "No error stream";
-                    }
-                    throw new IOException(PluginConstants.ERROR_API_REQUEST_FAILED + responseCode + ": " + errorResponse);
-                }
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
+                } catch (HttpTimeoutException e) {
+                    future.completeExceptionally(new IOException("Embedding request to " + apiUrl + " timed out", e));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
                 }
-            }
+            })));
+    }
+
+    /**
+     * Settles the token budget against what the provider reports it actually billed.
+     */
+    private void reconcileTokens(long estimatedTokens, ProviderResponse response) {
+        if (!limits.tokens().isEnabled() || !response.hasUsage()) {
+            return;
+        }
+        Object totalTokens = response.getUsage().get("total_tokens");
+        if (totalTokens instanceof Number) {
+            long actual = ((Number) totalTokens).longValue();
+            logger.debug("Estimated {} tokens, provider reported {}", estimatedTokens, actual);
+            limits.tokens().adjust(actual - estimatedTokens);
+        }
+    }
+
+    private HttpRequest buildRequest(List<ProviderRequest> requests) {
+        // For OpenAI API, we need to send the input as an array of strings
+        String inputsJson = requests.stream()
+            .map(req -> "\"" + escapeJson(req.getText()) + "\"")
+            .collect(Collectors.joining(",", "[", "]"));
+
+        String requestBody = requestTemplate
+            .replace("\"{{text}}\"", inputsJson)  // Replace with proper array, not string
+            .replace("{{model}}", escapeJson(model))
+            .replace("{{dimensions}}", dimensions != null ? dimensions.toString() : "null");
+
+        logger.info("Generated JSON request body: {}", requestBody);
+        logger.info("Sending request body to API (length: {} bytes)", requestBody.length());
+        logger.info("Connect timeout: {}ms, Read timeout: {}ms", connectTimeoutMillis, readTimeoutMillis);
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+            // The shared client cannot carry per-provider connect timeouts, so both bound the wait for the
+            // response headers; the body has its own deadline, see send()
+            .timeout(Duration.ofMillis((long) connectTimeoutMillis + readTimeoutMillis))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(requestBody, StandardCharsets.UTF_8));
+        if ("http".equalsIgnoreCase(uri.getScheme())) {
+            // HTTP/2 is negotiated through TLS; cleartext upgrade probes only cost plain-HTTP servers connections
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        logger.info("Setting custom headers: {}", headers.size());
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            logger.info("Setting header: {} = {}", entry.getKey(), entry.getValue().substring(0, Math.min(20, entry.getValue().length())) + "...");
+            builder.header(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    private ProviderResponse handleResponse(HttpResponse<byte[]> response) throws IOException {
+        int responseCode = response.statusCode();
+        logger.info("Received HTTP response code: {} ({})", responseCode, response.version());
+        if (responseCode == 200) {
+            logger.info("Successfully received embeddings from API");
+            ProviderResponse parsed = responsePath.parse(new ByteArrayInputStream(response.body()));
+            logger.info("Parsed {} embeddings from response path [{}], usage: {}", parsed.getVectors().size(), responsePath, parsed.getUsage());
+            return parsed;
+        }
+        String errorResponse = new String(response.body(), StandardCharsets.UTF_8);
+        if (responseCode == 429 || responseCode >= 500) {
+            throw new RetryableResponseException(responseCode, errorResponse);
         }
-        throw new IOException("Max retries exceeded");
+        throw new IOException(PluginConstants.ERROR_API_REQUEST_FAILED + responseCode + ": " + errorResponse);
     }
 
     private String escapeJson(String value) {
@@ -245,24 +276,18 @@ public class HttpHelper {
         }
     }
 
-    private JsonNode findNodeByPath(JsonNode root, String path) {
-        String[] pathParts = path.split("\\.");
-        JsonNode currentNode = root;
-        for (String part : pathParts) {
-            if (currentNode == null) {
-                return null;
-            }
-            if (part.matches("\\d+")) {
-                int index = Integer.parseInt(part);
-                if (currentNode.isArray() && index < currentNode.size()) {
-                    currentNode = currentNode.get(index);
-                } else {
-                    return null;
-                }
-            } else {
-                currentNode = currentNode.get(part);
-            }
+    /**
+     * Signals a 429 or 5xx response that should be retried after a backoff delay.
+     */
+    private static class RetryableResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int responseCode;
+        private final String errorResponse;
+
+        RetryableResponseException(int responseCode, String errorResponse) {
+            super(PluginConstants.ERROR_API_REQUEST_FAILED + responseCode + ": " + errorResponse);
+            this.responseCode = responseCode;
+            this.errorResponse = errorResponse;
         }
-        return currentNode;
     }
 }
@@ -0,0 +1,167 @@
+package com.genericembedding;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Merges the keyword and vector hit lists of a hybrid search that ran as two searches.
+ *
+ * Works on document keys and scores alone, so fusing never touches a hit's {@code _source}. Each
+ * fused document records its position in either list, from which the caller finds the original hit
+ * and scores.
+ * <ul>
+ *   <li>{@code sum}: weighted sum of the raw scores</li>
+ *   <li>{@code rrf}: reciprocal rank fusion, {@code weight / (rank_constant + rank)} summed over both
+ *       lists with 1-based ranks; ignores the score scales entirely</li>
+ *   <li>{@code linear}: weighted sum of the scores after min-max normalizing each list to [0, 1]</li>
+ * </ul>
+ */
+public final class HybridFusion {
+
+    public enum Method {
+        SUM, RRF, LINEAR;
+
+        public static Method parse(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("semantic_search.fusion must be one of [sum, rrf, linear] but was [" + value + "]");
+            }
+        }
+    }
+
+    public static final int DEFAULT_RANK_CONSTANT = 60;
+
+    private final Method method;
+    private final float regularWeight;
+    private final float semanticWeight;
+    private final int rankConstant;
+
+    public HybridFusion(Method method, float regularWeight, float semanticWeight, int rankConstant) {
+        if (rankConstant < 1) {
+            throw new IllegalArgumentException("semantic_search.rank_constant must be greater than 0");
+        }
+        this.method = method;
+        this.regularWeight = regularWeight;
+        this.semanticWeight = semanticWeight;
+        this.rankConstant = rankConstant;
+    }
+
+    /**
+     * @param regularKeys    keys identifying the documents of the keyword search, in rank order
+     * @param semanticKeys   keys identifying the documents of the vector search, in rank order
+     * @param topK           the most documents to return
+     */
+    public Result fuse(String[] regularKeys, float[] regularScores, String[] semanticKeys, float[] semanticScores, int topK) {
+        int capacity = regularKeys.length + semanticKeys.length;
+        int[] regularRank = new int[capacity];
+        int[] semanticRank = new int[capacity];
+        float[] scores = new float[capacity];
+        Arrays.fill(regularRank, -1);
+        Arrays.fill(semanticRank, -1);
+
+        float[] regularContributions = contributions(regularScores);
+        float[] semanticContributions = contributions(semanticScores);
+        Map<String, Integer> slots = new HashMap<>(capacity * 4 / 3 + 1);
+        int size = 0;
+        for (int i = 0; i < regularKeys.length; i++) {
+            if (slots.putIfAbsent(regularKeys[i], size) == null) {
+                regularRank[size] = i;
+                scores[size++] = regularWeight * regularContributions[i];
+            }
+        }
+        for (int i = 0; i < semanticKeys.length; i++) {
+            Integer existing = slots.putIfAbsent(semanticKeys[i], size);
+            int slot = existing != null ? existing : size++;
+            semanticRank[slot] = i;
+            scores[slot] += semanticWeight * semanticContributions[i];
+        }
+
+        // Sorts slots by descending score, earlier slots first on ties, without boxing: the high half of
+        // each key orders by score and the low half carries the slot
+        long[] order = new long[size];
+        for (int slot = 0; slot < size; slot++) {
+            order[slot] = ((long) sortableDescending(scores[slot]) << 32) | slot;
+        }
+        Arrays.sort(order);
+
+        int returned = Math.min(topK, size);
+        Result result = new Result(returned);
+        for (int i = 0; i < returned; i++) {
+            int slot = (int) order[i];
+            result.regularRank[i] = regularRank[slot];
+            result.semanticRank[i] = semanticRank[slot];
+            result.scores[i] = scores[slot];
+        }
+        return result;
+    }
+
+    private float[] contributions(float[] scores) {
+        float[] contributions = new float[scores.length];
+        switch (method) {
+            case RRF:
+                for (int rank = 0; rank < scores.length; rank++) {
+                    contributions[rank] = 1f / (rankConstant + rank + 1);
+                }
+                return contributions;
+            case LINEAR:
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (float score : scores) {
+                    min = Math.min(min, score);
+                    max = Math.max(max, score);
+                }
+                for (int rank = 0; rank < scores.length; rank++) {
+                    contributions[rank] = max > min ? (scores[rank] - min) / (max - min) : 1f;
+                }
+                return contributions;
+            case SUM:
+            default:
+                return scores;
+        }
+    }
+
+    private static int sortableDescending(float score) {
+        int bits = Float.floatToIntBits(-score);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    /**
+     * The fused documents in rank order.
+     */
+    public static final class Result {
+        private final int[] regularRank;
+        private final int[] semanticRank;
+        private final float[] scores;
+
+        private Result(int size) {
+            this.regularRank = new int[size];
+            this.semanticRank = new int[size];
+            this.scores = new float[size];
+        }
+
+        public int size() {
+            return scores.length;
+        }
+
+        /**
+         * Position of the i-th document in the keyword hits, or -1 if the keyword search did not find it.
+         */
+        public int regularRank(int i) {
+            return regularRank[i];
+        }
+
+        /**
+         * Position of the i-th document in the vector hits, or -1 if the vector search did not find it.
+         */
+        public int semanticRank(int i) {
+            return semanticRank[i];
+        }
+
+        public float score(int i) {
+            return scores[i];
+        }
+    }
+}
@@ -2,31 +2,39 @@ package com.genericembedding;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.genericembedding.providers.EmbeddingProvider;
-import com.genericembedding.providers.ProviderFactory;
-import com.genericembedding.providers.ProviderRequest;
-import com.genericembedding.providers.ProviderResponse;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.Iterators;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ChunkedToXContent;
+import org.elasticsearch.core.Releasable;
+import org.elasticsearch.core.Releasables;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.ChunkedRestResponseBody;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.lookup.Source;
+import org.elasticsearch.xcontent.ToXContent;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentFactory;
 
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
 
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 
@@ -34,10 +42,23 @@ public class HybridSearchRestHandler implements RestHandler {
     
     private static final Logger logger = LogManager.getLogger(HybridSearchRestHandler.class);
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    static final String STRATEGY_COMBINED = "combined";
+    static final String STRATEGY_SEPARATE = "separate";
+    static final String REGULAR_QUERY_NAME = "_hybrid_regular";
+    // Share of a hit's score below which the knn section is taken not to have contributed
+    private static final float SCORE_EPSILON = 1e-5f;
     private final Settings settings;
+    private final QueryEmbedder queryEmbedder;
+    private final SearchStats stats;
 
-    public HybridSearchRestHandler(Settings settings) {
+    public HybridSearchRestHandler(Settings settings, QueryEmbedder queryEmbedder) {
+        this(settings, queryEmbedder, new SearchStats());
+    }
+
+    public HybridSearchRestHandler(Settings settings, QueryEmbedder queryEmbedder, SearchStats stats) {
         this.settings = settings;
+        this.queryEmbedder = queryEmbedder;
+        this.stats = stats;
     }
 
     @Override
@@ -48,7 +69,8 @@ public class HybridSearchRestHandler implements RestHandler {
     }
 
     @Override
-    public void handleRequest(RestRequest request, RestChannel channel, NodeClient client) throws Exception {
+    public void handleRequest(RestRequest request, RestChannel restChannel, NodeClient client) throws Exception {
+        RestChannel channel = new StatsRestChannel(restChannel, stats);
         logger.info("=== HYBRID SEARCH REQUEST RECEIVED ===");
         
         String index = request.param("index");
@@ -82,16 +104,15 @@ public class HybridSearchRestHandler implements RestHandler {
                 return;
             }
             
-            // Extract parameters
-            String vectorField = semanticSearch.has("field") ? 
-                semanticSearch.get("field").asText() : "full_case_text_vector";
-            double boost = semanticSearch.has("boost") ? 
-                semanticSearch.get("boost").asDouble() : 1.0;
+            // Extract parameters; k defaults to enough neighbours to fill the requested page
             int topK = semanticSearch.has("top_k") ? 
                 semanticSearch.get("top_k").asInt() : 
                 (requestJson.has("size") ? requestJson.get("size").asInt() : 10);
+            int from = requestJson.has("from") ? requestJson.get("from").asInt() : 0;
+            VectorSearch vectorSearch = VectorSearch.parse(semanticSearch, from + topK);
             
-            logger.info("Hybrid search parameters - field: {}, boost: {}, top_k: {}", vectorField, boost, topK);
+            logger.info("Hybrid search parameters - field: {}, mode: {}, k: {}, top_k: {}", vectorSearch.getField(),
+                vectorSearch.isExact() ? VectorSearch.MODE_EXACT : VectorSearch.MODE_KNN, vectorSearch.getK(), topK);
             
             // Extract query text from the regular query
             String queryText = extractQueryText(requestJson.get("query"));
@@ -102,26 +123,73 @@ public class HybridSearchRestHandler implements RestHandler {
             
             logger.info("Extracted query text: {}", queryText);
             
+            // One request carrying both the lexical query and the knn section, unless the vector search
+            // needs a query or rescorer of its own; then the two searches run separately and are merged here
+            String strategy = semanticSearch.has("strategy") ? semanticSearch.get("strategy").asText() : STRATEGY_COMBINED;
+            if (!STRATEGY_COMBINED.equals(strategy) && !STRATEGY_SEPARATE.equals(strategy)) {
+                sendErrorResponse(channel, "semantic_search.strategy must be [" + STRATEGY_COMBINED + "] or [" + STRATEGY_SEPARATE + "]",
+                    RestStatus.BAD_REQUEST);
+                return;
+            }
+            if (STRATEGY_COMBINED.equals(strategy) && !vectorSearch.isExact() && !vectorSearch.isRescore()) {
+                float queryBoost = semanticSearch.has("query_boost") ? (float) semanticSearch.get("query_boost").asDouble() : 1.0f;
+                CompletableFuture<SearchResponse> combinedFuture =
+                    performCombinedSearch(client, index, requestJson, queryText, vectorSearch, topK, queryBoost, request);
+                combinedFuture.whenComplete((response, failure) -> {
+                    // The response is released once its hits have been streamed
+                    Releasable responses = Releasables.releaseOnce(() -> release(combinedFuture));
+                    try {
+                        if (failure != null) {
+                            sendFailure(channel, failure);
+                            return;
+                        }
+                        sendChunked(channel, combinedResponseBody(response), responses);
+                    } catch (Exception e) {
+                        responses.close();
+                        logger.error("Error processing hybrid search results", e);
+                        try {
+                            sendErrorResponse(channel, "Error processing hybrid search results: " + e.getMessage(), RestStatus.INTERNAL_SERVER_ERROR);
+                        } catch (IOException ioException) {
+                            logger.error("Failed to send error response", ioException);
+                        }
+                    }
+                });
+                return;
+            }
+            
+            HybridFusion.Method fusionMethod = HybridFusion.Method.parse(semanticSearch.has("fusion") ? semanticSearch.get("fusion").asText() : "sum");
+            HybridFusion fusion = new HybridFusion(fusionMethod,
+                semanticSearch.has("query_boost") ? (float) semanticSearch.get("query_boost").asDouble() : 1.0f,
+                // With sum the vector search's scores already carry the boost
+                fusionMethod != HybridFusion.Method.SUM && semanticSearch.has("boost") ? (float) semanticSearch.get("boost").asDouble() : 1.0f,
+                semanticSearch.has("rank_constant") ? semanticSearch.get("rank_constant").asInt() : HybridFusion.DEFAULT_RANK_CONSTANT);
+            
             // Perform both searches concurrently
             CompletableFuture<SearchResponse> regularSearchFuture = performRegularSearch(client, index, requestJson, topK);
-            CompletableFuture<SearchResponse> semanticSearchFuture = performSemanticSearch(client, index, queryText, vectorField, boost, topK, request);
+            CompletableFuture<SearchResponse> semanticSearchFuture = performSemanticSearch(client, index, queryText, vectorSearch, topK, request);
             
             // Wait for both searches to complete
-            CompletableFuture.allOf(regularSearchFuture, semanticSearchFuture).thenAccept(v -> {
+            CompletableFuture.allOf(regularSearchFuture, semanticSearchFuture).whenComplete((v, failure) -> {
+                Releasable responses = Releasables.releaseOnce(() -> release(regularSearchFuture, semanticSearchFuture));
                 try {
-                    SearchResponse regularResponse = regularSearchFuture.get();
-                    SearchResponse semanticResponse = semanticSearchFuture.get();
+                    if (failure != null) {
+                        responses.close();
+                        sendFailure(channel, failure);
+                        return;
+                    }
+                    SearchResponse regularResponse = regularSearchFuture.join();
+                    SearchResponse semanticResponse = semanticSearchFuture.join();
+                    SearchHit[] regularHits = regularResponse.getHits().getHits();
+                    SearchHit[] semanticHits = semanticResponse.getHits().getHits();
                     
                     // Combine results
-                    List<SearchHit> combinedHits = combineSearchResults(regularResponse, semanticResponse, topK);
-                    
-                    // Build hybrid response
-                    XContentBuilder builder = XContentFactory.jsonBuilder();
-                    buildHybridResponse(builder, combinedHits, regularResponse, semanticResponse);
+                    HybridFusion.Result fused = combineSearchResults(regularHits, semanticHits, fusion, topK);
                     
-                    channel.sendResponse(new org.elasticsearch.rest.RestResponse(RestStatus.OK, builder));
+                    // Stream the hybrid response; both responses are released once it has been written
+                    sendChunked(channel, hybridResponseBody(regularHits, semanticHits, fused, regularResponse, semanticResponse), responses);
                     
                 } catch (Exception e) {
+                    responses.close();
                     logger.error("Error processing hybrid search results", e);
                     try {
                         sendErrorResponse(channel, "Error processing hybrid search results: " + e.getMessage(), RestStatus.INTERNAL_SERVER_ERROR);
@@ -129,14 +197,6 @@ public class HybridSearchRestHandler implements RestHandler {
                         logger.error("Failed to send error response", ioException);
                     }
                 }
-            }).exceptionally(throwable -> {
-                logger.error("Hybrid search failed", throwable);
-                try {
-                    sendErrorResponse(channel, "Hybrid search failed: " + throwable.getMessage(), RestStatus.INTERNAL_SERVER_ERROR);
-                } catch (IOException e) {
-                    logger.error("Failed to send error response", e);
-                }
-                return null;
             });
             
         } catch (Exception e) {
@@ -145,6 +205,81 @@ public class HybridSearchRestHandler implements RestHandler {
         }
     }
     
+    private Void sendFailure(RestChannel channel, Throwable throwable) {
+        logger.error("Hybrid search failed", throwable);
+        try {
+            sendErrorResponse(channel, "Hybrid search failed: " + throwable.getMessage(), failureStatus(throwable));
+        } catch (IOException e) {
+            logger.error("Failed to send error response", e);
+        }
+        return null;
+    }
+
+    /**
+     * The status for a failed search: 400 when the request itself is invalid, such as a query vector
+     * that does not fit the field's mapping, as {@code _semantic_search} answers it.
+     */
+    static RestStatus failureStatus(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        return ExceptionsHelper.status(cause);
+    }
+    
+    /**
+     * Releases the responses of the searches that succeeded, once their hits have been written.
+     */
+    @SafeVarargs
+    private static void release(CompletableFuture<SearchResponse>... futures) {
+        for (CompletableFuture<SearchResponse> future : futures) {
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                future.join().decRef();
+            }
+        }
+    }
+    
+    private CompletableFuture<SearchResponse> performCombinedSearch(NodeClient client, String index, JsonNode requestJson, String queryText,
+                                                                    VectorSearch vectorSearch, int topK, float queryBoost, RestRequest request) {
+        return vectorSearch.checkMapping(client, index, embedQuery(queryText, request, vectorSearch))
+            .thenCompose(queryVector -> {
+                CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+                try {
+                    SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+                    // ES adds the knn score to the query score. The query is named so that each hit reports
+                    // its lexical score, and whatever remains of the hit's score came from the knn section
+                    String queryJson = MAPPER.writeValueAsString(requestJson.get("query"));
+                    sourceBuilder.query(QueryBuilders.boolQuery()
+                        .should(QueryBuilders.wrapperQuery(queryJson))
+                        .queryName(REGULAR_QUERY_NAME)
+                        .boost(queryBoost));
+                    vectorSearch.apply(sourceBuilder, queryVector);
+                    sourceBuilder.size(topK);
+                    if (requestJson.has("from")) {
+                        sourceBuilder.from(requestJson.get("from").asInt());
+                    }
+                    applySourceFilter(sourceBuilder, requestJson);
+                    
+                    logger.info("Executing combined hybrid search with {} dimensions query vector", queryVector.length);
+                    search(client, new SearchRequest(index).source(sourceBuilder), new ActionListener<SearchResponse>() {
+                        @Override
+                        public void onResponse(SearchResponse searchResponse) {
+                            logger.info("Combined hybrid search completed with {} hits", searchResponse.getHits().getTotalHits().value);
+                            // Hits are written after this listener returns, from their pooled source bytes
+                            searchResponse.incRef();
+                            future.complete(searchResponse);
+                        }
+                        
+                        @Override
+                        public void onFailure(Exception e) {
+                            logger.error("Combined hybrid search failed", e);
+                            future.completeExceptionally(e);
+                        }
+                    });
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            });
+    }
+    
     private CompletableFuture<SearchResponse> performRegularSearch(NodeClient client, String index, JsonNode requestJson, int topK) {
         CompletableFuture<SearchResponse> future = new CompletableFuture<>();
         
@@ -165,76 +300,23 @@ public class HybridSearchRestHandler implements RestHandler {
             
             // Use wrapper query for the regular query
             String queryJson = MAPPER.writeValueAsString(regularRequest.get("query"));
-            sourceBuilder.query(org.elasticsearch.index.query.QueryBuilders.wrapperQuery(queryJson));
+            sourceBuilder.query(QueryBuilders.wrapperQuery(queryJson));
             sourceBuilder.size(topK);
             
             // Add other parameters
             if (regularRequest.has("from")) {
                 sourceBuilder.from(regularRequest.get("from").asInt());
             }
-            // Handle _source field filtering with proper validation
-            try {
-                if (regularRequest.has("_source")) {
-                    JsonNode sourceNode = regularRequest.get("_source");
-                    if (sourceNode.isTextual()) {
-                        sourceBuilder.fetchSource(sourceNode.asText(), null);
-                    } else if (sourceNode.isArray()) {
-                        String[] includes = new String[sourceNode.size()];
-                        for (int i = 0; i < sourceNode.size(); i++) {
-                            includes[i] = sourceNode.get(i).asText();
-                        }
-                        sourceBuilder.fetchSource(includes, null);
-                    } else if (sourceNode.isObject()) {
-                        // Handle _source object with includes/excludes
-                        JsonNode includesNode = sourceNode.get("includes");
-                        JsonNode excludesNode = sourceNode.get("excludes");
-                        
-                        String[] includes = null;
-                        String[] excludes = null;
-                        
-                        if (includesNode != null) {
-                            if (includesNode.isArray()) {
-                                includes = new String[includesNode.size()];
-                                for (int i = 0; i < includesNode.size(); i++) {
-                                    includes[i] = includesNode.get(i).asText();
-                                }
-                            } else if (includesNode.isTextual()) {
-                                includes = new String[]{includesNode.asText()};
-                            }
-                        }
-                        
-                        if (excludesNode != null) {
-                            if (excludesNode.isArray()) {
-                                excludes = new String[excludesNode.size()];
-                                for (int i = 0; i < excludesNode.size(); i++) {
-                                    excludes[i] = excludesNode.get(i).asText();
-                                }
-                            } else if (excludesNode.isTextual()) {
-                                excludes = new String[]{excludesNode.asText()};
-                            }
-                        }
-                        
-                        sourceBuilder.fetchSource(includes, excludes);
-                    } else if (sourceNode.isBoolean() && !sourceNode.asBoolean()) {
-                        // _source: false means no source
-                        sourceBuilder.fetchSource(false);
-                    }
-                } else {
-                    // Exclude vector fields by default to avoid large payloads
-                    sourceBuilder.fetchSource(null, new String[]{"*_vector", "embedding_usage", "embedding_error"});
-                }
-            } catch (Exception e) {
-                logger.warn("Invalid _source configuration, using defaults: {}", e.getMessage());
-                sourceBuilder.fetchSource(null, new String[]{"*_vector", "embedding_usage", "embedding_error"});
-            }
+            applySourceFilter(sourceBuilder, regularRequest);
             
             searchRequest.source(sourceBuilder);
             
             logger.info("Executing regular search");
-            client.search(searchRequest, new org.elasticsearch.action.ActionListener<SearchResponse>() {
+            search(client, searchRequest, new ActionListener<SearchResponse>() {
                 @Override
                 public void onResponse(SearchResponse searchResponse) {
                     logger.info("Regular search completed with {} hits", searchResponse.getHits().getTotalHits().value);
+                    searchResponse.incRef();
                     future.complete(searchResponse);
                 }
                 
@@ -252,45 +334,24 @@ public class HybridSearchRestHandler implements RestHandler {
         return future;
     }
     
-    private CompletableFuture<SearchResponse> performSemanticSearch(NodeClient client, String index, String queryText, String vectorField, double boost, int topK, RestRequest request) {
+    private CompletableFuture<SearchResponse> performSemanticSearch(NodeClient client, String index, String queryText, VectorSearch vectorSearch, int topK, RestRequest request) {
+        // The regular search is already running; this one is sent as soon as the query vector arrives
+        // and the field mapping has been checked
+        return vectorSearch.checkMapping(client, index, embedQuery(queryText, request, vectorSearch))
+            .thenCompose(queryVector -> searchByVector(client, index, queryVector, vectorSearch, topK, request));
+    }
+    
+    private CompletableFuture<SearchResponse> searchByVector(NodeClient client, String index, float[] queryVector, VectorSearch vectorSearch, int topK, RestRequest request) {
         CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        String vectorField = vectorSearch.getField();
         
         try {
-            // Generate embedding for the query
-            List<Float> queryVector = generateEmbedding(queryText, request);
-            logger.info("Generated query vector with {} dimensions for semantic search", queryVector.size());
-            
-            // Create script_score query
-            ObjectNode fullQuery = MAPPER.createObjectNode();
-            ObjectNode scriptScoreJson = MAPPER.createObjectNode();
-            ObjectNode queryJson = MAPPER.createObjectNode();
-            ObjectNode scriptJson = MAPPER.createObjectNode();
-            ObjectNode paramsJson = MAPPER.createObjectNode();
-            
-            // Build the inner query (match_all)
-            queryJson.set("match_all", MAPPER.createObjectNode());
-            
-            // Build the script with null check for missing vectors
-            scriptJson.put("source", String.format("doc['%s'].size() == 0 ? 0 : cosineSimilarity(params.query_vector, '%s') * %f + 1.0", vectorField, vectorField, boost));
-            
-            // Add the query vector as array
-            com.fasterxml.jackson.databind.node.ArrayNode vectorArray = MAPPER.createArrayNode();
-            for (Float value : queryVector) {
-                vectorArray.add(value);
-            }
-            paramsJson.set("query_vector", vectorArray);
-            scriptJson.set("params", paramsJson);
-            
-            // Assemble the script_score query
-            scriptScoreJson.set("query", queryJson);
-            scriptScoreJson.set("script", scriptJson);
-            fullQuery.set("script_score", scriptScoreJson);
+            logger.info("Generated query vector with {} dimensions for semantic search", queryVector.length);
             
             SearchRequest searchRequest = new SearchRequest(index);
             SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
             
-            String scriptScoreQueryString = MAPPER.writeValueAsString(fullQuery);
-            sourceBuilder.query(org.elasticsearch.index.query.QueryBuilders.wrapperQuery(scriptScoreQueryString));
+            vectorSearch.apply(sourceBuilder, queryVector);
             sourceBuilder.size(topK);
             
             // Apply same _source filtering as regular search
@@ -341,20 +402,21 @@ public class HybridSearchRestHandler implements RestHandler {
                     }
                 } else {
                     // Exclude vector fields by default
-                    sourceBuilder.fetchSource(null, new String[]{vectorField, "embedding_usage", "embedding_error"});
+                    sourceBuilder.fetchSource(null, new String[]{vectorField, vectorField + "_float", "embedding_usage", "embedding_error"});
                 }
             } catch (Exception e) {
                 logger.warn("Invalid _source configuration for semantic search, using defaults: {}", e.getMessage());
-                sourceBuilder.fetchSource(null, new String[]{vectorField, "embedding_usage", "embedding_error"});
+                sourceBuilder.fetchSource(null, new String[]{vectorField, vectorField + "_float", "embedding_usage", "embedding_error"});
             }
             
             searchRequest.source(sourceBuilder);
             
             logger.info("Executing semantic search");
-            client.search(searchRequest, new org.elasticsearch.action.ActionListener<SearchResponse>() {
+            search(client, searchRequest, new ActionListener<SearchResponse>() {
                 @Override
                 public void onResponse(SearchResponse searchResponse) {
                     logger.info("Semantic search completed with {} hits", searchResponse.getHits().getTotalHits().value);
+                    searchResponse.incRef();
                     future.complete(searchResponse);
                 }
                 
@@ -379,109 +441,251 @@ public class HybridSearchRestHandler implements RestHandler {
         return future;
     }
     
-    private List<SearchHit> combineSearchResults(SearchResponse regularResponse, SearchResponse semanticResponse, int topK) {
-        logger.info("Combining search results - regular: {}, semantic: {}", 
-                   regularResponse.getHits().getHits().length, 
-                   semanticResponse.getHits().getHits().length);
-        
-        Map<String, SearchHit> combinedHits = new LinkedHashMap<>();
-        
-        // Add regular search results first (higher priority)
-        for (SearchHit hit : regularResponse.getHits().getHits()) {
-            if (hit != null && hit.getId() != null && hit.getSourceAsMap() != null) {
-                hit.getSourceAsMap().put("search_type", "regular");
-                hit.getSourceAsMap().put("regular_score", hit.getScore());
-                combinedHits.put(hit.getId(), hit);
-            }
+    private HybridFusion.Result combineSearchResults(SearchHit[] regularHits, SearchHit[] semanticHits, HybridFusion fusion, int topK) {
+        logger.info("Combining search results - regular: {}, semantic: {}", regularHits.length, semanticHits.length);
+        return fusion.fuse(keys(regularHits), scores(regularHits), keys(semanticHits), scores(semanticHits), topK);
+    }
+    
+    private static String[] keys(SearchHit[] hits) {
+        String[] keys = new String[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            // Index names cannot contain '/', so the key is unambiguous across indices
+            keys[i] = hits[i].getIndex() + "/" + hits[i].getId();
         }
-        
-        // Add semantic search results, merging if already exists
-        for (SearchHit hit : semanticResponse.getHits().getHits()) {
-            if (hit != null && hit.getId() != null && hit.getSourceAsMap() != null) {
-                String id = hit.getId();
-                if (combinedHits.containsKey(id)) {
-                    // Merge scores for documents found in both searches
-                    SearchHit existingHit = combinedHits.get(id);
-                    if (existingHit != null && existingHit.getSourceAsMap() != null) {
-                        existingHit.getSourceAsMap().put("search_type", "hybrid");
-                        existingHit.getSourceAsMap().put("semantic_score", hit.getScore());
-                        existingHit.getSourceAsMap().put("combined_score", existingHit.getScore() + hit.getScore());
-                        // Update the hit score to combined score
-                        existingHit.score(existingHit.getScore() + hit.getScore());
-                    }
-                } else {
-                    // Add semantic-only results
-                    hit.getSourceAsMap().put("search_type", "semantic");
-                    hit.getSourceAsMap().put("semantic_score", hit.getScore());
-                    combinedHits.put(id, hit);
-                }
-            }
+        return keys;
+    }
+    
+    private static float[] scores(SearchHit[] hits) {
+        float[] scores = new float[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            scores[i] = hits[i].getScore();
         }
-        
-        // Sort by combined score and return top K
-        List<SearchHit> sortedHits = new ArrayList<>(combinedHits.values());
-        sortedHits.sort((a, b) -> Float.compare(b.getScore(), a.getScore()));
-        
-        return sortedHits.subList(0, Math.min(topK, sortedHits.size()));
+        return scores;
     }
     
-    private void buildHybridResponse(XContentBuilder builder, List<SearchHit> combinedHits, SearchResponse regularResponse, SearchResponse semanticResponse) throws IOException {
-        builder.startObject();
-        
-        // Response metadata
-        builder.field("took", Math.max(regularResponse.getTook().millis(), semanticResponse.getTook().millis()));
-        builder.field("timed_out", regularResponse.isTimedOut() || semanticResponse.isTimedOut());
-        
-        // Shards info
-        builder.startObject("_shards");
-        builder.field("total", regularResponse.getTotalShards());
-        builder.field("successful", Math.min(regularResponse.getSuccessfulShards(), semanticResponse.getSuccessfulShards()));
-        builder.field("skipped", Math.max(regularResponse.getSkippedShards(), semanticResponse.getSkippedShards()));
-        builder.field("failed", Math.max(regularResponse.getFailedShards(), semanticResponse.getFailedShards()));
-        builder.endObject();
-        
-        // Hits
-        builder.startObject("hits");
-        builder.field("total", Map.of("value", combinedHits.size(), "relation", "eq"));
-        builder.field("max_score", combinedHits.isEmpty() ? null : combinedHits.get(0).getScore());
+    /**
+     * The merged response, written one hit per chunk as the channel asks for more.
+     */
+    private ChunkedToXContent hybridResponseBody(SearchHit[] regularHits, SearchHit[] semanticHits, HybridFusion.Result fused,
+                                                 SearchResponse regularResponse, SearchResponse semanticResponse) {
+        int hybridMatches = 0;
+        for (int i = 0; i < fused.size(); i++) {
+            hybridMatches += fused.regularRank(i) >= 0 && fused.semanticRank(i) >= 0 ? 1 : 0;
+        }
+        int matches = hybridMatches;
         
-        builder.startArray("hits");
-        for (SearchHit hit : combinedHits) {
+        ToXContent header = (builder, params) -> {
             builder.startObject();
-            builder.field("_index", hit.getIndex());
-            builder.field("_id", hit.getId());
-            builder.field("_score", hit.getScore());
             
-            // Add search type metadata at hit level
-            String searchType = (String) hit.getSourceAsMap().get("search_type");
-            builder.field("_search_type", searchType != null ? searchType : "unknown");
+            // Response metadata
+            builder.field("took", Math.max(regularResponse.getTook().millis(), semanticResponse.getTook().millis()));
+            builder.field("timed_out", regularResponse.isTimedOut() || semanticResponse.isTimedOut());
             
-            // Add individual scores if available
-            if (hit.getSourceAsMap().containsKey("regular_score")) {
-                builder.field("_regular_score", hit.getSourceAsMap().get("regular_score"));
-            }
-            if (hit.getSourceAsMap().containsKey("semantic_score")) {
-                builder.field("_semantic_score", hit.getSourceAsMap().get("semantic_score"));
-            }
-            if (hit.getSourceAsMap().containsKey("combined_score")) {
-                builder.field("_combined_score", hit.getSourceAsMap().get("combined_score"));
-            }
-            
-            builder.field("_source", hit.getSourceAsMap());
+            // Shards info
+            builder.startObject("_shards");
+            builder.field("total", regularResponse.getTotalShards());
+            builder.field("successful", Math.min(regularResponse.getSuccessfulShards(), semanticResponse.getSuccessfulShards()));
+            builder.field("skipped", Math.max(regularResponse.getSkippedShards(), semanticResponse.getSkippedShards()));
+            builder.field("failed", Math.max(regularResponse.getFailedShards(), semanticResponse.getFailedShards()));
             builder.endObject();
-        }
+            
+            return startHits(builder, fused.size(), fused.size() == 0 ? null : fused.score(0));
+        };
+        IntFunction<ToXContent> hit = i -> (builder, params) -> {
+            int regularRank = fused.regularRank(i);
+            int semanticRank = fused.semanticRank(i);
+            return writeHit(builder, regularRank >= 0 ? regularHits[regularRank] : semanticHits[semanticRank], fused.score(i),
+                regularRank >= 0 ? regularHits[regularRank].getScore() : Float.NaN,
+                semanticRank >= 0 ? semanticHits[semanticRank].getScore() : Float.NaN);
+        };
+        ToXContent footer = (builder, params) ->
+            endHits(builder, regularHits.length, semanticHits.length, fused.size(), matches);
+        
+        return params -> Iterators.concat(Iterators.single(header), Iterators.forRange(0, fused.size(), hit), Iterators.single(footer));
+    }
+    
+    private static XContentBuilder startHits(XContentBuilder builder, int total, Float maxScore) throws IOException {
+        builder.startObject("hits");
+        builder.field("total", Map.of("value", total, "relation", "eq"));
+        builder.field("max_score", maxScore);
+        return builder.startArray("hits");
+    }
+    
+    private static XContentBuilder endHits(XContentBuilder builder, int regularHits, int semanticHits, int combinedHits, int hybridMatches)
+            throws IOException {
         builder.endArray();
         builder.endObject();
         
         // Search type breakdown
         builder.startObject("search_breakdown");
-        builder.field("regular_hits", regularResponse.getHits().getHits().length);
-        builder.field("semantic_hits", semanticResponse.getHits().getHits().length);
-        builder.field("combined_hits", combinedHits.size());
-        builder.field("hybrid_matches", (int) combinedHits.stream().filter(hit -> "hybrid".equals(hit.getSourceAsMap().get("search_type"))).count());
+        builder.field("regular_hits", regularHits);
+        builder.field("semantic_hits", semanticHits);
+        builder.field("combined_hits", combinedHits);
+        builder.field("hybrid_matches", hybridMatches);
         builder.endObject();
         
-        builder.endObject();
+        return builder.endObject();
+    }
+    
+    /**
+     * Streams {@code body} to the client, closing {@code release} once it has been written or could not be sent.
+     * Callers that also close it on their own error paths pass it through {@link Releasables#releaseOnce}.
+     */
+    private void sendChunked(RestChannel channel, ChunkedToXContent body, Releasable release) throws IOException {
+        try {
+            channel.sendResponse(RestResponse.chunked(RestStatus.OK, ChunkedRestResponseBody.fromXContent(body, ToXContent.EMPTY_PARAMS, channel), release));
+        } catch (Exception e) {
+            release.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Writes one hit with its search type and scores; {@code NaN} marks a search that did not find it.
+     * The hit's {@code _source} is copied as the bytes the shard returned, without parsing it.
+     */
+    private static XContentBuilder writeHit(XContentBuilder builder, SearchHit hit, float score, float regularScore, float semanticScore)
+            throws IOException {
+        boolean regular = !Float.isNaN(regularScore);
+        boolean semantic = !Float.isNaN(semanticScore);
+        
+        builder.startObject();
+        builder.field("_index", hit.getIndex());
+        builder.field("_id", hit.getId());
+        builder.field("_score", score);
+        builder.field("_search_type", regular && semantic ? "hybrid" : regular ? "regular" : "semantic");
+        if (regular) {
+            builder.field("_regular_score", regularScore);
+        }
+        if (semantic) {
+            builder.field("_semantic_score", semanticScore);
+        }
+        if (regular && semantic) {
+            builder.field("_combined_score", score);
+        }
+        if (hit.hasSource()) {
+            // Indexed documents keep their content type, so a source may need converting to the response's
+            BytesReference source = hit.getSourceRef();
+            builder.rawField("_source", source.streamInput(), Source.fromBytes(source).sourceContentType());
+        }
+        return builder.endObject();
+    }
+    
+    private void applySourceFilter(SearchSourceBuilder sourceBuilder, JsonNode requestJson) {
+        // Handle _source field filtering with proper validation
+        try {
+            if (requestJson.has("_source")) {
+                JsonNode sourceNode = requestJson.get("_source");
+                if (sourceNode.isTextual()) {
+                    sourceBuilder.fetchSource(sourceNode.asText(), null);
+                } else if (sourceNode.isArray()) {
+                    String[] includes = new String[sourceNode.size()];
+                    for (int i = 0; i < sourceNode.size(); i++) {
+                        includes[i] = sourceNode.get(i).asText();
+                    }
+                    sourceBuilder.fetchSource(includes, null);
+                } else if (sourceNode.isObject()) {
+                    // Handle _source object with includes/excludes
+                    JsonNode includesNode = sourceNode.get("includes");
+                    JsonNode excludesNode = sourceNode.get("excludes");
+                    
+                    String[] includes = null;
+                    String[] excludes = null;
+                    
+                    if (includesNode != null) {
+                        if (includesNode.isArray()) {
+                            includes = new String[includesNode.size()];
+                            for (int i = 0; i < includesNode.size(); i++) {
+                                includes[i] = includesNode.get(i).asText();
+                            }
+                        } else if (includesNode.isTextual()) {
+                            includes = new String[]{includesNode.asText()};
+                        }
+                    }
+                    
+                    if (excludesNode != null) {
+                        if (excludesNode.isArray()) {
+                            excludes = new String[excludesNode.size()];
+                            for (int i = 0; i < excludesNode.size(); i++) {
+                                excludes[i] = excludesNode.get(i).asText();
+                            }
+                        } else if (excludesNode.isTextual()) {
+                            excludes = new String[]{excludesNode.asText()};
+                        }
+                    }
+                    
+                    sourceBuilder.fetchSource(includes, excludes);
+                } else if (sourceNode.isBoolean() && !sourceNode.asBoolean()) {
+                    // _source: false means no source
+                    sourceBuilder.fetchSource(false);
+                }
+            } else {
+                // Exclude vector fields by default to avoid large payloads
+                sourceBuilder.fetchSource(null, new String[]{"*_vector", "*_vector_float", "embedding_usage", "embedding_error"});
+            }
+        } catch (Exception e) {
+            logger.warn("Invalid _source configuration, using defaults: {}", e.getMessage());
+            sourceBuilder.fetchSource(null, new String[]{"*_vector", "*_vector_float", "embedding_usage", "embedding_error"});
+        }
+    }
+    
+    /**
+     * The response of the combined strategy. Each hit's lexical score is the score of the named
+     * regular query and the rest of its score came from the knn section; a remainder within
+     * {@link #SCORE_EPSILON} of the hit's score is rounding, not a vector match.
+     */
+    static ChunkedToXContent combinedResponseBody(SearchResponse response) {
+        SearchHit[] hits = response.getHits().getHits();
+        float[] regularScores = new float[hits.length];
+        float[] semanticScores = new float[hits.length];
+        int regularHits = 0;
+        int semanticHits = 0;
+        int hybridMatches = 0;
+        for (int i = 0; i < hits.length; i++) {
+            Float regularScore = hits[i].getMatchedQueryScore(REGULAR_QUERY_NAME);
+            float semanticScore = hits[i].getScore() - (regularScore != null ? regularScore : 0f);
+            boolean semantic = regularScore == null || semanticScore > SCORE_EPSILON * Math.max(1f, hits[i].getScore());
+            regularScores[i] = regularScore != null ? regularScore : Float.NaN;
+            semanticScores[i] = semantic ? semanticScore : Float.NaN;
+            regularHits += regularScore != null ? 1 : 0;
+            semanticHits += semantic ? 1 : 0;
+            hybridMatches += regularScore != null && semantic ? 1 : 0;
+        }
+        int regular = regularHits;
+        int semantic = semanticHits;
+        int matches = hybridMatches;
+        
+        ToXContent header = (builder, params) -> {
+            builder.startObject();
+            builder.field("took", response.getTook().millis());
+            builder.field("timed_out", response.isTimedOut());
+            
+            builder.startObject("_shards");
+            builder.field("total", response.getTotalShards());
+            builder.field("successful", response.getSuccessfulShards());
+            builder.field("skipped", response.getSkippedShards());
+            builder.field("failed", response.getFailedShards());
+            builder.endObject();
+            
+            return startHits(builder, hits.length, hits.length == 0 ? null : hits[0].getScore());
+        };
+        IntFunction<ToXContent> hit = i -> (builder, params) ->
+            writeHit(builder, hits[i], hits[i].getScore(), regularScores[i], semanticScores[i]);
+        ToXContent footer = (builder, params) -> endHits(builder, regular, semantic, hits.length, matches);
+        
+        return params -> Iterators.concat(Iterators.single(header), Iterators.forRange(0, hits.length, hit), Iterators.single(footer));
+    }
+    
+    private CompletableFuture<float[]> embedQuery(String queryText, RestRequest request, VectorSearch vectorSearch) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<float[]> queryVector = queryEmbedder.embed(queryText, request.header("Authorization"), vectorSearch.getDimensions());
+        queryVector.whenComplete((vector, failure) -> stats.recordEmbed(System.nanoTime() - startNanos));
+        return queryVector;
+    }
+    
+    private void search(NodeClient client, SearchRequest searchRequest, ActionListener<SearchResponse> listener) {
+        long startNanos = System.nanoTime();
+        client.search(searchRequest, ActionListener.runBefore(listener, () -> stats.recordSearch(System.nanoTime() - startNanos)));
     }
     
     private void sendErrorResponse(RestChannel channel, String message, RestStatus status) throws IOException {
@@ -534,53 +738,4 @@ public class HybridSearchRestHandler implements RestHandler {
         
         return null;
     }
-    
-    private List<Float> generateEmbedding(String queryText, RestRequest request) throws Exception {
-        logger.info("Generating embedding for query text");
-        
-        // Get API key from Authorization header first, then fallback to environment/settings
-        String apiKey = request.header("Authorization");
-        if (apiKey != null && apiKey.startsWith("Bearer ")) {
-            apiKey = apiKey.substring(7); // Remove "Bearer " prefix
-        } else {
-            // Fallback to environment variable
-            apiKey = System.getenv("OPENAI_API_KEY");
-            if (apiKey == null) {
-                // Try to get from cluster settings
-                apiKey = settings.get("semantic_search.openai.api_key");
-            }
-        }
-        
-        if (apiKey == null || apiKey.trim().isEmpty()) {
-            throw new RuntimeException("API key not found. Please provide it via Authorization header (Bearer token), OPENAI_API_KEY environment variable, or semantic_search.openai.api_key setting");
-        }
-        
-        Map<String, Object> config = new HashMap<>();
-        config.put(PluginConstants.CONFIG_API_URL, PluginConstants.DEFAULT_API_URL);
-        config.put(PluginConstants.CONFIG_MODEL, PluginConstants.DEFAULT_MODEL);
-        config.put(PluginConstants.CONFIG_PROVIDER, PluginConstants.PROVIDER_TYPE_OPENAI);
-        
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Authorization", "Bearer " + apiKey);
-        config.put(PluginConstants.CONFIG_HEADERS, headers);
-        
-        // Use doPrivileged to execute network operations with elevated permissions
-        try {
-            return java.security.AccessController.doPrivileged((java.security.PrivilegedExceptionAction<List<Float>>) () -> {
-                logger.info("Executing embedding generation with elevated privileges");
-                EmbeddingProvider provider = ProviderFactory.create(config);
-                ProviderRequest providerRequest = new ProviderRequest(queryText);
-                ProviderResponse response = provider.embed(Collections.singletonList(providerRequest));
-                return response.getVectors().get(0);
-            });
-        } catch (java.security.PrivilegedActionException e) {
-            Throwable cause = e.getCause();
-            logger.error("Privileged action failed: {}", cause.getMessage());
-            if (cause instanceof Exception) {
-                throw (Exception) cause;
-            } else {
-                throw new Exception("Unexpected exception in privileged action", cause);
-            }
-        }
-    }
 }
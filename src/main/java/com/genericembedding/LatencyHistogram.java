@@ -0,0 +1,195 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.xcontent.ToXContentObject;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size latency histogram in the style of HdrHistogram, recording microseconds.
+ *
+ * Values below {@value #SUB_BUCKETS} land in buckets of their own; above that every power of two is
+ * split into {@value #SUB_BUCKETS} equal buckets, so a reported percentile is within about 3% of the
+ * true value anywhere from a microsecond to {@link #MAX_VALUE_MICROS} (about 38 hours). Larger values are
+ * counted in the last bucket. Recording is a handful of wait-free atomic increments; nothing is
+ * allocated and no lock is taken, so it can sit on every request path.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int MAGNITUDES = 32;
+    static final int BUCKETS = SUB_BUCKETS + MAGNITUDES * SUB_BUCKETS;
+    static final long MAX_VALUE_MICROS = (1L << (SUB_BUCKET_BITS + MAGNITUDES)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(micros, MAX_VALUE_MICROS));
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        // The bucket counts are the reference; count and sum may run slightly ahead of them under load
+        return new Snapshot(copy, total, sum.sum(), max.get());
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * The largest value that falls into {@code bucket}.
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * A point-in-time copy of a histogram. Snapshots of the same shape add up, so those of several
+     * histograms or nodes can be merged before computing percentiles. On the wire only the non-empty
+     * buckets are sent, as (index, count) pairs of variable-length integers; a typical latency
+     * distribution occupies a few dozen of the 1056 buckets.
+     */
+    public static class Snapshot implements ToXContentObject, Writeable {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public Snapshot(StreamInput in) throws IOException {
+            this.counts = new long[BUCKETS];
+            int buckets = in.readVInt();
+            for (int i = 0; i < buckets; i++) {
+                int bucket = in.readVInt();
+                if (bucket < 0 || bucket >= BUCKETS) {
+                    throw new IOException("Histogram bucket [" + bucket + "] out of range");
+                }
+                counts[bucket] = in.readVLong();
+            }
+            this.count = in.readVLong();
+            this.sum = in.readVLong();
+            this.max = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            int buckets = 0;
+            for (long bucketCount : counts) {
+                buckets += bucketCount != 0 ? 1 : 0;
+            }
+            out.writeVInt(buckets);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    out.writeVInt(i);
+                    out.writeVLong(counts[i]);
+                }
+            }
+            out.writeVLong(count);
+            out.writeVLong(sum);
+            out.writeVLong(max);
+        }
+
+        public static Snapshot empty() {
+            return new Snapshot(new long[BUCKETS], 0, 0, 0);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMaxMicros() {
+            return max;
+        }
+
+        public double getMeanMicros() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * The value below which {@code percentile} percent of the recorded values fall, in microseconds.
+         */
+        public long percentileMicros(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        public Snapshot merge(Snapshot other) {
+            long[] merged = Arrays.copyOf(counts, BUCKETS);
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] += other.counts[i];
+            }
+            return new Snapshot(merged, count + other.count, sum + other.sum, Math.max(max, other.max));
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("count", count);
+            builder.field("mean", millis(getMeanMicros()));
+            builder.field("p50", millis(percentileMicros(50)));
+            builder.field("p90", millis(percentileMicros(90)));
+            builder.field("p99", millis(percentileMicros(99)));
+            builder.field("p999", millis(percentileMicros(99.9)));
+            builder.field("max", millis(max));
+            return builder.endObject();
+        }
+
+        private static double millis(double micros) {
+            return Math.round(micros) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.genericembedding;
+
+import com.genericembedding.action.EmbeddingStatsAction;
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+import java.util.List;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Reports the embedding stats of every node, or of the nodes in {@code node_id}, together with their
+ * cluster-wide totals.
+ */
+public class NodesEmbeddingStatsRestHandler implements RestHandler {
+
+    @Override
+    public List<Route> routes() {
+        return List.of(
+            new Route(GET, "/_ai_embed/_nodes/stats"),
+            new Route(GET, "/_ai_embed/_nodes/{node_id}/stats")
+        );
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel, NodeClient client) throws Exception {
+        EmbeddingStatsAction.Request statsRequest = new EmbeddingStatsAction.Request(Strings.splitStringByCommaToArray(request.param("node_id")));
+        statsRequest.timeout(request.param("timeout"));
+        client.execute(EmbeddingStatsAction.INSTANCE, statsRequest, new RestActions.NodesResponseRestListener<>(channel));
+    }
+}
@@ -0,0 +1,416 @@
+package com.genericembedding;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk embedding store that survives node restarts.
+ *
+ * Vectors are appended to a single memory-mapped file under the node's data path and located
+ * through an in-memory index keyed by a hash of (model, text) that is rebuilt by scanning the file
+ * on startup. Each record is
+ * {@code [int length][short keyLength][key][int dims][float * dims][int crc32]}, and the length is
+ * written last, so a torn append fails its checksum and is discarded on recovery.
+ *
+ * When the file reaches its size cap, appends that do not fit are dropped and a compaction is
+ * started on the compaction executor, off the threads that append. It copies the most recently
+ * appended half into the next generation's file, {@code embeddings-<generation>.dat}, which is
+ * renamed into place once complete and then swapped in. A file is never replaced or deleted while it
+ * is mapped, which Windows does not allow: the superseded generation is deleted after its channel is
+ * closed, or on the next start if its mapping is still alive. Reads return views over the mapping and
+ * never copy vector data onto the heap; views handed out before a compaction stay valid.
+ */
+public class PersistentEmbeddingStore implements Closeable {
+
+    public static final Setting<Boolean> ENABLED_SETTING =
+        Setting.boolSetting("ai_embed.persistent_cache.enabled", false, Setting.Property.NodeScope);
+    public static final Setting<ByteSizeValue> MAX_SIZE_SETTING = Setting.byteSizeSetting(
+        "ai_embed.persistent_cache.max_size",
+        ByteSizeValue.ofGb(1),
+        ByteSizeValue.ofMb(1),
+        ByteSizeValue.ofBytes(Integer.MAX_VALUE),
+        Setting.Property.NodeScope
+    );
+
+    private static final Logger logger = LogManager.getLogger(PersistentEmbeddingStore.class);
+    private static final String FILE_PREFIX = "embeddings-";
+    private static final String FILE_SUFFIX = ".dat";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x41454D42;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final int capacity;
+    private final Executor compactionExecutor;
+    private final Object writeLock = new Object();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private volatile State state;
+    private boolean closed;
+
+    /**
+     * A store that compacts on the appending thread, for callers that are not wired to a node.
+     */
+    public PersistentEmbeddingStore(Path directory, long maxSizeInBytes) throws IOException {
+        this(directory, maxSizeInBytes, Runnable::run);
+    }
+
+    public PersistentEmbeddingStore(Path directory, long maxSizeInBytes, Executor compactionExecutor) throws IOException {
+        this.directory = directory;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, maxSizeInBytes);
+        this.compactionExecutor = compactionExecutor;
+        Files.createDirectories(directory);
+        this.state = openLatest();
+        logger.info("Opened persistent embedding store at [{}] with {} entries", state.file, state.index.size());
+    }
+
+    /**
+     * Returns the store configured for this node, or {@code null} if it is disabled.
+     */
+    public static PersistentEmbeddingStore fromSettings(Settings settings, Path[] dataPaths, Executor compactionExecutor) throws IOException {
+        if (!ENABLED_SETTING.get(settings) || dataPaths.length == 0) {
+            return null;
+        }
+        return new PersistentEmbeddingStore(dataPaths[0].resolve(PluginConstants.PROCESSOR_TYPE), MAX_SIZE_SETTING.get(settings).getBytes(),
+            compactionExecutor);
+    }
+
+    public static String key(String model, String text) {
+        return ContentHash.sha256(model, text);
+    }
+
+    /**
+     * Returns a read-only view of the stored vector, or {@code null} if the key is unknown.
+     */
+    public FloatBuffer get(String key) {
+        State current = state;
+        Integer offset = current.index.get(key);
+        if (offset == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        ByteBuffer record = current.buffer.duplicate();
+        int position = offset + 4;
+        int keyLength = record.getShort(position);
+        position += 2 + keyLength;
+        int dims = record.getInt(position);
+        position += 4;
+        record.position(position).limit(position + dims * Float.BYTES);
+        return record.slice().asFloatBuffer().asReadOnlyBuffer();
+    }
+
+    public void put(String key, float[] vector) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = recordBytes(keyBytes.length, vector.length);
+        if (HEADER_BYTES + recordBytes + 4 > capacity) {
+            return;
+        }
+        synchronized (writeLock) {
+            State current = state;
+            if (closed || current.index.containsKey(key)) {
+                return;
+            }
+            if (current.end + recordBytes + 4 <= capacity) {
+                int offset = current.end;
+                writeRecord(current.buffer, offset, keyBytes, vector);
+                current.end = offset + recordBytes;
+                current.buffer.putInt(current.end, 0);
+                current.index.put(key, offset);
+                return;
+            }
+        }
+        // Full: this vector is not stored, and the next ones are once the compaction has made room
+        if (compacting.compareAndSet(false, true)) {
+            compactionExecutor.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Failed to compact persistent embedding store", e);
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    public int size() {
+        return state.index.size();
+    }
+
+    public long sizeInBytes() {
+        return state.end;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getCompactionCount() {
+        return compactions.sum();
+    }
+
+    Path file() {
+        return state.file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            closed = true;
+            state.buffer.force();
+            state.channel.close();
+        }
+    }
+
+    /**
+     * Opens the newest generation and removes the files of older ones and unfinished compactions.
+     */
+    private State openLatest() throws IOException {
+        long latest = 0;
+        List<Path> stale = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*")) {
+            for (Path file : files) {
+                long generation = generation(file);
+                if (generation < 0) {
+                    stale.add(file);
+                } else if (generation > latest) {
+                    stale.add(file(latest));
+                    latest = generation;
+                } else if (generation < latest) {
+                    stale.add(file);
+                }
+            }
+        }
+        for (Path file : stale) {
+            deleteSuperseded(file);
+        }
+        return open(file(latest), latest);
+    }
+
+    private Path file(long generation) {
+        return directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX);
+    }
+
+    /**
+     * The generation in a store file's name, or -1 for a leftover temporary file.
+     */
+    private static long generation(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteSuperseded(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Still mapped by views handed out earlier; removed on the next start
+            logger.debug("Could not delete superseded embedding store file [{}]", file);
+        }
+    }
+
+    private State open(Path file, long generation) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        State opened = new State(file, generation, channel, buffer);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(HEADER_BYTES, 0);
+            opened.end = HEADER_BYTES;
+            return opened;
+        }
+
+        int position = HEADER_BYTES;
+        while (position + 4 <= capacity) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || (long) position + 4 + length > capacity || !checksumMatches(buffer, position, length)) {
+                break;
+            }
+            opened.index.put(readKey(buffer, position), position);
+            position += 4 + length;
+        }
+        if (position + 4 <= capacity) {
+            // Discards whatever is left of a torn append
+            buffer.putInt(position, 0);
+        }
+        opened.end = position;
+        return opened;
+    }
+
+    /**
+     * Rewrites the newest entries, up to half of the capacity, into the next generation's file and
+     * swaps it in. Records appended while the file was being written are carried over if they fit.
+     */
+    private void compact() throws IOException {
+        State current = state;
+        int snapshotEnd = current.end;
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : current.index.entrySet()) {
+            if (entry.getValue() < snapshotEnd) {
+                entries.add(entry);
+            }
+        }
+        entries.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+
+        List<Integer> kept = new ArrayList<>();
+        long keptBytes = HEADER_BYTES;
+        for (Map.Entry<String, Integer> entry : entries) {
+            int length = 4 + current.buffer.getInt(entry.getValue());
+            if (keptBytes + length > capacity / 2) {
+                break;
+            }
+            kept.add(entry.getValue());
+            keptBytes += length;
+        }
+        kept.sort(Integer::compare);
+
+        long generation = current.generation + 1;
+        Path file = file(generation);
+        Path tmp = directory.resolve(file.getFileName() + TMP_SUFFIX);
+        Files.deleteIfExists(tmp);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header);
+            for (int offset : kept) {
+                ByteBuffer record = current.buffer.duplicate();
+                record.position(offset).limit(offset + 4 + current.buffer.getInt(offset));
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            channel.force(true);
+        }
+        // Nothing maps the new file yet, so it can be renamed into place on every platform
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        State compacted = open(file, generation);
+
+        synchronized (writeLock) {
+            if (closed) {
+                compacted.channel.close();
+                return;
+            }
+            for (int position = snapshotEnd; position < current.end; position += 4 + current.buffer.getInt(position)) {
+                int length = 4 + current.buffer.getInt(position);
+                if (compacted.end + length + 4 > capacity) {
+                    break;
+                }
+                ByteBuffer record = current.buffer.duplicate();
+                record.position(position).limit(position + length);
+                ByteBuffer target = compacted.buffer.duplicate();
+                target.position(compacted.end);
+                target.put(record);
+                compacted.index.put(readKey(compacted.buffer, compacted.end), compacted.end);
+                compacted.end += length;
+            }
+            compacted.buffer.putInt(compacted.end, 0);
+            state = compacted;
+            current.channel.close();
+        }
+        deleteSuperseded(current.file);
+        compactions.increment();
+        logger.info("Compacted persistent embedding store from {} to {} entries", entries.size(), compacted.index.size());
+    }
+
+    private static String readKey(ByteBuffer buffer, int offset) {
+        byte[] keyBytes = new byte[buffer.getShort(offset + 4)];
+        ByteBuffer keyView = buffer.duplicate();
+        keyView.position(offset + 6);
+        keyView.get(keyBytes);
+        return new String(keyBytes, StandardCharsets.UTF_8);
+    }
+
+    private static int recordBytes(int keyLength, int dims) {
+        return 4 + 2 + keyLength + 4 + dims * Float.BYTES + 4;
+    }
+
+    private static void writeRecord(ByteBuffer buffer, int offset, byte[] keyBytes, float[] vector) {
+        int position = offset + 4;
+        buffer.putShort(position, (short) keyBytes.length);
+        position += 2;
+        ByteBuffer keyView = buffer.duplicate();
+        keyView.position(position);
+        keyView.put(keyBytes);
+        position += keyBytes.length;
+        buffer.putInt(position, vector.length);
+        position += 4;
+        ByteBuffer floats = buffer.duplicate();
+        floats.position(position);
+        floats.asFloatBuffer().put(vector);
+        position += vector.length * Float.BYTES;
+        int length = position + 4 - (offset + 4);
+        buffer.putInt(position, checksum(buffer, offset + 4, length - 4));
+        // The length goes in last; until then the record is invisible to recovery
+        buffer.putInt(offset, length);
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer, int offset, int length) {
+        if (length < 4 + 2 + 4) {
+            return false;
+        }
+        return checksum(buffer, offset + 4, length - 4) == buffer.getInt(offset + length);
+    }
+
+    private static int checksum(ByteBuffer buffer, int from, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(from).limit(from + length);
+        CRC32 crc = new CRC32();
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    private static class State {
+        private final Path file;
+        private final long generation;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final Map<String, Integer> index = new ConcurrentHashMap<>();
+        private volatile int end;
+
+        State(Path file, long generation, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.generation = generation;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -10,13 +10,17 @@ public final class PluginConstants {
     public static final String DEFAULT_API_URL = "https://api.openai.com/v1/embeddings";
     public static final String DEFAULT_MODEL = "text-embedding-3-small";
     public static final String DEFAULT_REQUEST_TEMPLATE = "{\"input\": \"{{text}}\", \"model\": \"{{model}}\"}";
-    public static final String DEFAULT_RESPONSE_PATH = "data.0.embedding";
+    public static final String DEFAULT_REQUEST_TEMPLATE_WITH_DIMENSIONS = "{\"input\": \"{{text}}\", \"model\": \"{{model}}\", \"dimensions\": {{dimensions}}}";
+    public static final String DEFAULT_RESPONSE_PATH = "data.*.embedding";
     public static final String DEFAULT_CONNECT_TIMEOUT = "5s";
     public static final String DEFAULT_READ_TIMEOUT = "10s";
     public static final int DEFAULT_MAX_REQUESTS_PER_SECOND = 10;
     public static final long DEFAULT_BACKOFF_INITIAL_DELAY_MS = 1000L;
     public static final long DEFAULT_BACKOFF_MAX_DELAY_MS = 30000L;
     public static final double DEFAULT_BACKOFF_MULTIPLIER = 2.0;
+    public static final int DEFAULT_BATCH_MAX_INPUTS = 512;
+    public static final long DEFAULT_BATCH_MAX_BYTES = 512 * 1024L;
+    public static final long DEFAULT_BATCH_LINGER_MS = 10L;
 
     // Provider Types
     public static final String PROVIDER_TYPE_GENERIC = "generic";
@@ -33,9 +37,22 @@ public final class PluginConstants {
     public static final String CONFIG_READ_TIMEOUT = "read_timeout";
     public static final String CONFIG_PROVIDER = "provider";
     public static final String CONFIG_MAX_REQUESTS_PER_SECOND = "max_requests_per_second";
+    public static final String CONFIG_RATE_LIMIT_BURST = "rate_limit_burst";
+    public static final String CONFIG_MAX_TOKENS_PER_MINUTE = "max_tokens_per_minute";
     public static final String CONFIG_BACKOFF_INITIAL_DELAY_MS = "backoff_initial_delay_ms";
     public static final String CONFIG_BACKOFF_MAX_DELAY_MS = "backoff_max_delay_ms";
     public static final String CONFIG_BACKOFF_MULTIPLIER = "backoff_multiplier";
+    public static final String CONFIG_BATCH_MAX_INPUTS = "batch_max_inputs";
+    public static final String CONFIG_BATCH_MAX_BYTES = "batch_max_bytes";
+    public static final String CONFIG_BATCH_LINGER_MS = "batch_linger_ms";
+    public static final String CONFIG_CHUNK_SIZE = "chunk_size";
+    public static final String CONFIG_CHUNK_OVERLAP = "chunk_overlap";
+    public static final String CONFIG_FINGERPRINT = "fingerprint";
+    public static final String CONFIG_QUANTIZATION = "quantization";
+    public static final String CONFIG_QUANTIZATION_RANGE = "quantization_range";
+    public static final String CONFIG_KEEP_FLOAT_VECTOR = "keep_float_vector";
+    public static final String CONFIG_DIMENSIONS = "dimensions";
+    public static final String CONFIG_NORMALIZE = "normalize";
 
 
     public static final String ERROR_SOURCE_FIELDS_MISSING = "required property [" + CONFIG_SOURCE_FIELDS + "] is missing for processor [" + PROCESSOR_TYPE + "]";
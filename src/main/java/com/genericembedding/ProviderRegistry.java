@@ -0,0 +1,244 @@
+package com.genericembedding;
+
+import com.genericembedding.providers.EmbeddingProvider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Node-wide registry of embedding providers.
+ *
+ * Providers are deduplicated at two levels. Everything that talks to one API, identified by
+ * (endpoint, model, credential), shares a single {@link ApiLimits}, so the request and token budgets
+ * are enforced per API key rather than per pipeline. Processors whose complete provider config is
+ * identical share the provider itself, including its batcher. Connection pools and caches are
+ * node-wide already and are reached through whichever provider is returned.
+ *
+ * Ingest providers are held for as long as a stored pipeline references their config; see
+ * {@link #retain(Collection)}. Those built for pipelines that are never stored, such as the inline
+ * pipelines of {@code _simulate}, and search providers are released once they have not been
+ * acquired for a while (see {@link #releaseIdle(String, long)}), since every simulated config and
+ * every distinct credential sent to the search handlers gets one. They are rebuilt on demand.
+ */
+public class ProviderRegistry {
+
+    public static final String INGEST = "ingest";
+    public static final String SEARCH = "search";
+
+    private static final Logger logger = LogManager.getLogger(ProviderRegistry.class);
+    private static final String[] CREDENTIAL_HEADERS = { "authorization", "api-key", "x-api-key" };
+
+    private final Map<String, ApiLimits> apis = new ConcurrentHashMap<>();
+    private final Map<String, String> apiLabels = new ConcurrentHashMap<>();
+    private final Map<String, Registration> providers = new ConcurrentHashMap<>();
+    private volatile Set<String> storedIngestProviders = Collections.emptySet();
+    private volatile Map<String, Double> shares = Collections.emptyMap();
+    private volatile double defaultShare = 1.0;
+    private final LongSupplier clock;
+
+    public ProviderRegistry() {
+        this(System::nanoTime);
+    }
+
+    ProviderRegistry(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the provider registered for {@code config} in {@code scope}, building it with the
+     * shared limits of its API if there is none yet.
+     */
+    public EmbeddingProvider acquire(String scope, Map<String, Object> config, Function<ApiLimits, EmbeddingProvider> builder) {
+        String api = apiKey(config);
+        ApiLimits limits = apis.computeIfAbsent(api, k -> {
+            logger.info("Registering API limits for [{}] model [{}]",
+                config.get(PluginConstants.CONFIG_API_URL), config.get(PluginConstants.CONFIG_MODEL));
+            ApiLimits created = ApiLimits.fromConfig(config);
+            created.setShare(shares.getOrDefault(k, defaultShare));
+            apiLabels.put(k, config.get(PluginConstants.CONFIG_MODEL) + "@" + config.get(PluginConstants.CONFIG_API_URL));
+            return created;
+        });
+        String key = providerKey(scope, config);
+        Registration registration = providers.computeIfAbsent(key, k -> new Registration(scope, api, builder.apply(limits)));
+        registration.lastAcquiredNanos = clock.getAsLong();
+        return registration.provider;
+    }
+
+    /**
+     * Releases the providers of {@code scope} that have not been acquired within the last
+     * {@code idleNanos}, and the limits of APIs that no provider uses any more. Ingest providers
+     * that a stored pipeline references are kept however long ago they were built.
+     */
+    public void releaseIdle(String scope, long idleNanos) {
+        long now = clock.getAsLong();
+        Set<String> stored = storedIngestProviders;
+        boolean released = providers.entrySet().removeIf(entry -> {
+            Registration registration = entry.getValue();
+            boolean idle = scope.equals(registration.scope) && now - registration.lastAcquiredNanos >= idleNanos
+                && (SEARCH.equals(scope) || !stored.contains(entry.getKey()));
+            if (idle) {
+                logger.debug("Released idle {} embedding provider", registration.scope);
+            }
+            return idle;
+        });
+        if (released) {
+            Set<String> usedApis = new HashSet<>();
+            for (Registration registration : providers.values()) {
+                usedApis.add(registration.api);
+            }
+            apis.keySet().retainAll(usedApis);
+            apiLabels.keySet().retainAll(usedApis);
+        }
+    }
+
+    /**
+     * Releases every ingest provider whose config is not among {@code liveConfigs}, the provider
+     * configs of all stored pipelines, and every API that none of them uses any more.
+     */
+    public void retain(Collection<Map<String, Object>> liveConfigs) {
+        Set<String> liveProviders = new HashSet<>();
+        Set<String> liveApis = new HashSet<>();
+        for (Map<String, Object> config : liveConfigs) {
+            liveProviders.add(providerKey(INGEST, config));
+            liveApis.add(apiKey(config));
+        }
+        storedIngestProviders = liveProviders;
+        providers.entrySet().removeIf(entry -> {
+            Registration registration = entry.getValue();
+            boolean live = INGEST.equals(registration.scope) ? liveProviders.contains(entry.getKey()) : liveApis.contains(registration.api);
+            if (!live) {
+                logger.info("Released {} embedding provider no longer referenced by any pipeline", registration.scope);
+            }
+            return !live;
+        });
+        Set<String> usedApis = new HashSet<>(liveApis);
+        for (Registration registration : providers.values()) {
+            usedApis.add(registration.api);
+        }
+        apis.keySet().retainAll(usedApis);
+        apiLabels.keySet().retainAll(usedApis);
+    }
+
+    /**
+     * The limits of every API this node holds, by registry key.
+     */
+    public Map<String, ApiLimits> apis() {
+        return Collections.unmodifiableMap(apis);
+    }
+
+    /**
+     * Names the API behind a registry key as {@code <model>@<api_url>}, without its credential.
+     */
+    public String apiLabel(String key) {
+        return apiLabels.getOrDefault(key, key);
+    }
+
+    /**
+     * Keys of the APIs this node holds limits for.
+     */
+    public Set<String> heldApis() {
+        return new HashSet<>(apis.keySet());
+    }
+
+    /**
+     * Keys of the APIs this node has sent requests to within the last {@code windowNanos}.
+     */
+    public Set<String> activeApis(long windowNanos) {
+        Set<String> active = new HashSet<>();
+        apis.forEach((key, limits) -> {
+            if (limits.isActive(windowNanos)) {
+                active.add(key);
+            }
+        });
+        return active;
+    }
+
+    /**
+     * Sets this node's share of each API's limits, keyed as in {@link #activeApis(long)}. APIs
+     * without an entry get {@code defaultShare}.
+     */
+    public void applyShares(Map<String, Double> shares, double defaultShare) {
+        this.shares = shares;
+        this.defaultShare = defaultShare;
+        apis.forEach((key, limits) -> limits.setShare(shares.getOrDefault(key, defaultShare)));
+    }
+
+    public int providerCount() {
+        return providers.size();
+    }
+
+    public int apiCount() {
+        return apis.size();
+    }
+
+    static String apiKey(Map<String, Object> config) {
+        return ContentHash.sha256(
+            String.valueOf(config.get(PluginConstants.CONFIG_API_URL)),
+            String.valueOf(config.get(PluginConstants.CONFIG_MODEL)),
+            credential(config)
+        );
+    }
+
+    private static String providerKey(String scope, Map<String, Object> config) {
+        return ContentHash.sha256(scope, canonical(config));
+    }
+
+    private static String credential(Map<String, Object> config) {
+        Object headers = config.get(PluginConstants.CONFIG_HEADERS);
+        if (headers instanceof Map) {
+            for (Map.Entry<?, ?> header : ((Map<?, ?>) headers).entrySet()) {
+                String name = String.valueOf(header.getKey()).toLowerCase(Locale.ROOT);
+                for (String credentialHeader : CREDENTIAL_HEADERS) {
+                    if (credentialHeader.equals(name)) {
+                        return String.valueOf(header.getValue());
+                    }
+                }
+            }
+        }
+        return "";
+    }
+
+    // Map iteration order is not part of a config's identity
+    private static String canonical(Object value) {
+        if (value instanceof Map) {
+            Map<String, String> sorted = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (entry.getValue() != null) {
+                    sorted.put(String.valueOf(entry.getKey()), canonical(entry.getValue()));
+                }
+            }
+            return sorted.toString();
+        } else if (value instanceof List) {
+            StringBuilder builder = new StringBuilder("[");
+            for (Object element : (List<?>) value) {
+                builder.append(canonical(element)).append(',');
+            }
+            return builder.append(']').toString();
+        }
+        return value instanceof String ? "\"" + value + "\"" : String.valueOf(value);
+    }
+
+    private static class Registration {
+        private final String scope;
+        private final String api;
+        private final EmbeddingProvider provider;
+        private volatile long lastAcquiredNanos;
+
+        Registration(String scope, String api, EmbeddingProvider provider) {
+            this.scope = scope;
+            this.api = api;
+            this.provider = provider;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.xcontent.ToXContentObject;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the API calls made by one embedding provider, recorded by its {@link HttpHelper}.
+ *
+ * A request is one call of the provider, however many attempts it took; {@code latency} covers it
+ * from submission to completion, including rate-limit waits and retries.
+ */
+public class ProviderStats implements ToXContentObject {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder inputs = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder rateLimitWaitNanos = new LongAdder();
+    private final Map<String, LongAdder> tokens = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public void recordRequest(int inputCount) {
+        requests.increment();
+        inputs.add(inputCount);
+    }
+
+    /**
+     * Records a response code that will be retried; 429s are also counted as throttled.
+     */
+    public void recordRetry(int responseCode) {
+        retries.increment();
+        if (responseCode == 429) {
+            throttled.increment();
+        }
+    }
+
+    /**
+     * Records a 429 that was not retried because the attempts ran out.
+     */
+    public void recordThrottled() {
+        throttled.increment();
+    }
+
+    public void recordRateLimitWait(long nanos) {
+        rateLimited.increment();
+        rateLimitWaitNanos.add(nanos);
+    }
+
+    /**
+     * Adds up the numeric entries of a provider's {@code usage} report, such as {@code total_tokens}.
+     */
+    public void recordUsage(Map<String, Object> usage) {
+        for (Map.Entry<String, Object> entry : usage.entrySet()) {
+            if (entry.getValue() instanceof Number) {
+                tokens.computeIfAbsent(entry.getKey(), k -> new LongAdder()).add(((Number) entry.getValue()).longValue());
+            }
+        }
+    }
+
+    public void recordCompletion(long nanos, boolean failed) {
+        latency.recordNanos(nanos);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getInputCount() {
+        return inputs.sum();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    public long getTokens(String usageKey) {
+        LongAdder adder = tokens.get(usageKey);
+        return adder != null ? adder.sum() : 0;
+    }
+
+    public LatencyHistogram.Snapshot getLatency() {
+        return latency.snapshot();
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Long> tokenCounts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : tokens.entrySet()) {
+            tokenCounts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return new Snapshot(requests.sum(), inputs.sum(), retries.sum(), throttled.sum(), errors.sum(),
+            rateLimited.sum(), rateLimitWaitNanos.sum(), tokenCounts, latency.snapshot());
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        return snapshot().toXContent(builder, params);
+    }
+
+    /**
+     * A point-in-time copy of the counters, which can be sent to another node and added to the
+     * snapshots of other nodes.
+     */
+    public static class Snapshot implements ToXContentObject, Writeable {
+        private final long requests;
+        private final long inputs;
+        private final long retries;
+        private final long throttled;
+        private final long errors;
+        private final long rateLimited;
+        private final long rateLimitWaitNanos;
+        private final Map<String, Long> tokens;
+        private final LatencyHistogram.Snapshot latency;
+
+        Snapshot(long requests, long inputs, long retries, long throttled, long errors, long rateLimited,
+                 long rateLimitWaitNanos, Map<String, Long> tokens, LatencyHistogram.Snapshot latency) {
+            this.requests = requests;
+            this.inputs = inputs;
+            this.retries = retries;
+            this.throttled = throttled;
+            this.errors = errors;
+            this.rateLimited = rateLimited;
+            this.rateLimitWaitNanos = rateLimitWaitNanos;
+            this.tokens = tokens;
+            this.latency = latency;
+        }
+
+        public Snapshot(StreamInput in) throws IOException {
+            this.requests = in.readVLong();
+            this.inputs = in.readVLong();
+            this.retries = in.readVLong();
+            this.throttled = in.readVLong();
+            this.errors = in.readVLong();
+            this.rateLimited = in.readVLong();
+            this.rateLimitWaitNanos = in.readVLong();
+            this.tokens = new TreeMap<>(in.readMap(StreamInput::readString, StreamInput::readVLong));
+            this.latency = new LatencyHistogram.Snapshot(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(requests);
+            out.writeVLong(inputs);
+            out.writeVLong(retries);
+            out.writeVLong(throttled);
+            out.writeVLong(errors);
+            out.writeVLong(rateLimited);
+            out.writeVLong(rateLimitWaitNanos);
+            out.writeMap(tokens, StreamOutput::writeString, StreamOutput::writeVLong);
+            latency.writeTo(out);
+        }
+
+        public long getRequestCount() {
+            return requests;
+        }
+
+        public long getThrottledCount() {
+            return throttled;
+        }
+
+        public long getErrorCount() {
+            return errors;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        public Snapshot merge(Snapshot other) {
+            Map<String, Long> mergedTokens = new TreeMap<>(tokens);
+            other.tokens.forEach((key, count) -> mergedTokens.merge(key, count, Long::sum));
+            return new Snapshot(requests + other.requests, inputs + other.inputs, retries + other.retries,
+                throttled + other.throttled, errors + other.errors, rateLimited + other.rateLimited,
+                rateLimitWaitNanos + other.rateLimitWaitNanos, mergedTokens, latency.merge(other.latency));
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("requests", requests);
+            builder.field("inputs", inputs);
+            builder.field("tokens", tokens);
+            builder.field("retries", retries);
+            builder.field("throttled", throttled);
+            builder.field("errors", errors);
+            builder.field("rate_limited", rateLimited);
+            builder.field("rate_limit_wait_millis", TimeUnit.NANOSECONDS.toMillis(rateLimitWaitNanos));
+            builder.field("latency_millis", latency);
+            return builder.endObject();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.genericembedding;
+
+import org.elasticsearch.client.internal.node.NodeClient;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+
+import java.util.List;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * Reports how well the search handlers' query-vector cache is doing on this node.
+ */
+public class QueryCacheStatsRestHandler implements RestHandler {
+
+    private final QueryEmbeddingCache queryCache;
+
+    public QueryCacheStatsRestHandler(QueryEmbeddingCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    @Override
+    public List<Route> routes() {
+        return List.of(
+            new Route(GET, "/_ai_embed/query_cache/_stats")
+        );
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel, NodeClient client) throws Exception {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        builder.field("size", queryCache.size());
+        builder.field("hits", queryCache.getHitCount());
+        builder.field("misses", queryCache.getMissCount());
+        builder.field("coalesced", queryCache.getCoalescedCount());
+        builder.field("hit_rate", queryCache.getHitRate());
+        builder.endObject();
+        channel.sendResponse(new RestResponse(RestStatus.OK, builder));
+    }
+}
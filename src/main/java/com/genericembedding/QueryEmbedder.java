@@ -0,0 +1,125 @@
+package com.genericembedding;
+
+import com.genericembedding.providers.EmbeddingProvider;
+import com.genericembedding.providers.ProviderContext;
+import com.genericembedding.providers.ProviderFactory;
+import com.genericembedding.providers.ProviderRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Embeds the query text of a search request for the search handlers.
+ *
+ * Nothing here blocks: the API call goes out through the shared HTTP client and any rate limit
+ * or retry delay is scheduled on the node's executor, so the returned future completes on one of
+ * those threads. It always completes with the thread context of the request that asked for it,
+ * even when the vector came from a call another request started.
+ *
+ * Each distinct credential gets its own search provider and limits in the {@link ProviderRegistry};
+ * those that have not been used for {@code ai_embed.search.provider_idle_timeout} are released.
+ */
+public class QueryEmbedder {
+
+    public static final Setting<TimeValue> PROVIDER_IDLE_TIMEOUT_SETTING = Setting.timeSetting("ai_embed.search.provider_idle_timeout",
+        TimeValue.timeValueMinutes(10), TimeValue.timeValueSeconds(1), Setting.Property.NodeScope);
+
+    private static final Logger logger = LogManager.getLogger(QueryEmbedder.class);
+
+    private final Settings settings;
+    private final ProviderContext providers;
+    private final EmbeddingExecutor executor;
+    private final ProviderRegistry providerRegistry;
+    private final QueryEmbeddingCache queryCache;
+
+    /**
+     * @param providers the node services the search providers are built on, for the
+     *                  {@link ProviderRegistry#SEARCH} scope and without the ingest-only persistent and cluster caches
+     */
+    public QueryEmbedder(Settings settings, ProviderContext providers, ProviderRegistry providerRegistry, QueryEmbeddingCache queryCache) {
+        this.settings = settings;
+        this.providers = providers;
+        this.executor = providers.getExecutor();
+        this.providerRegistry = providerRegistry;
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Starts releasing search providers that have been idle for the configured timeout.
+     */
+    public void start(ThreadPool threadPool) {
+        TimeValue idleTimeout = PROVIDER_IDLE_TIMEOUT_SETTING.get(settings);
+        threadPool.scheduleWithFixedDelay(() -> providerRegistry.releaseIdle(ProviderRegistry.SEARCH, idleTimeout.nanos()),
+            idleTimeout, threadPool.generic());
+    }
+
+    public CompletableFuture<float[]> embed(String queryText, String authorization) {
+        return embed(queryText, authorization, null);
+    }
+
+    /**
+     * @param authorization the request's {@code Authorization} header, if any
+     * @param dimensions    the number of dimensions to ask the model for, or {@code null} for its default
+     */
+    public CompletableFuture<float[]> embed(String queryText, String authorization, Integer dimensions) {
+        logger.info("Generating embedding for query text");
+
+        // Get API key from Authorization header first, then fallback to environment/settings
+        String apiKey = authorization;
+        if (apiKey != null && apiKey.startsWith("Bearer ")) {
+            apiKey = apiKey.substring(7); // Remove "Bearer " prefix
+        } else {
+            // Fallback to environment variable
+            apiKey = System.getenv("OPENAI_API_KEY");
+            if (apiKey == null) {
+                // Try to get from cluster settings
+                apiKey = settings.get("semantic_search.openai.api_key");
+            }
+        }
+
+        if (apiKey == null || apiKey.trim().isEmpty()) {
+            return CompletableFuture.failedFuture(new RuntimeException("API key not found. Please provide it via Authorization header (Bearer token), OPENAI_API_KEY environment variable, or semantic_search.openai.api_key setting"));
+        }
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(PluginConstants.CONFIG_API_URL, PluginConstants.DEFAULT_API_URL);
+        config.put(PluginConstants.CONFIG_MODEL, PluginConstants.DEFAULT_MODEL);
+        config.put(PluginConstants.CONFIG_PROVIDER, PluginConstants.PROVIDER_TYPE_OPENAI);
+        if (dimensions != null) {
+            config.put(PluginConstants.CONFIG_DIMENSIONS, dimensions);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "Bearer " + apiKey);
+        config.put(PluginConstants.CONFIG_HEADERS, headers);
+
+        CompletableFuture<float[]> vector;
+        try {
+            EmbeddingProvider provider = providerRegistry.acquire(ProviderRegistry.SEARCH, config, limits -> ProviderFactory.create(config, providers, limits));
+            vector = queryCache.get(PluginConstants.DEFAULT_API_URL, ProviderFactory.cacheModel(config), apiKey, queryText,
+                () -> provider.embedAsync(Collections.singletonList(new ProviderRequest(queryText)))
+                    .thenApply(response -> response.getVectors().get(0)));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<float[]> result = new CompletableFuture<>();
+        vector.whenComplete(executor.preserveContext((value, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+            } else {
+                result.complete(value);
+            }
+        }));
+        return result;
+    }
+}
@@ -0,0 +1,170 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.TimeValue;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Node-wide cache of query vectors for the search handlers.
+ *
+ * Entries are keyed by a hash of (api_url, model, credential, normalized query text), where
+ * normalization trims the text, collapses runs of whitespace and applies Unicode NFC, and expire
+ * {@code ttl} after they were loaded. Concurrent lookups of a query that is not cached yet share one
+ * in-flight provider call instead of each sending their own, and share its failure too: retrying
+ * per caller would multiply the calls to an API that is already throttling them. Since the
+ * credential is part of the key, only callers using the same key share a vector or a failure.
+ * Cached arrays are shared between callers and must not be modified.
+ */
+public class QueryEmbeddingCache {
+
+    public static final Setting<Integer> MAX_ENTRIES_SETTING =
+        Setting.intSetting("ai_embed.query_cache.max_entries", 10_000, 0, Setting.Property.NodeScope);
+    public static final Setting<TimeValue> TTL_SETTING =
+        Setting.timeSetting("ai_embed.query_cache.ttl", TimeValue.timeValueMinutes(10), TimeValue.timeValueSeconds(1), Setting.Property.NodeScope);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Map<String, CachedVector> entries;
+    private final Map<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public QueryEmbeddingCache(int maxEntries, TimeValue ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+
+    QueryEmbeddingCache(int maxEntries, TimeValue ttl, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.nanos();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, CachedVector>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedVector> eldest) {
+                return size() > QueryEmbeddingCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static QueryEmbeddingCache fromSettings(Settings settings) {
+        return new QueryEmbeddingCache(MAX_ENTRIES_SETTING.get(settings), TTL_SETTING.get(settings));
+    }
+
+    public static String normalize(String text) {
+        return Normalizer.normalize(WHITESPACE.matcher(text.trim()).replaceAll(" "), Normalizer.Form.NFC);
+    }
+
+    /**
+     * Returns the vector for {@code text}, from the cache if present and otherwise from
+     * {@code loader}. While a load for the key is in flight, {@code loader} is not called and the
+     * result of that load is returned.
+     *
+     * @param credential the API key the vector is loaded with, or {@code null}; only its hash is kept
+     */
+    public CompletableFuture<float[]> get(String apiUrl, String model, String credential, String text,
+                                          Supplier<CompletableFuture<float[]>> loader) {
+        String key = ContentHash.sha256(apiUrl, model, credential != null ? credential : "", normalize(text));
+        float[] cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<float[]> created = new CompletableFuture<>();
+        CompletableFuture<float[]> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        misses.increment();
+
+        CompletableFuture<float[]> loaded;
+        try {
+            loaded = loader.get();
+        } catch (Exception e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+        loaded.whenComplete((vector, failure) -> {
+            // Cached before the in-flight entry goes, so there is no window in which a caller misses both
+            if (failure == null) {
+                store(key, vector);
+            }
+            inFlight.remove(key, created);
+            if (failure != null) {
+                created.completeExceptionally(failure);
+            } else {
+                created.complete(vector);
+            }
+        });
+        return created;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Lookups that joined a provider call already in flight for the same query.
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Share of lookups that did not need a provider call of their own.
+     */
+    public double getHitRate() {
+        long saved = getHitCount() + getCoalescedCount();
+        long total = saved + getMissCount();
+        return total == 0 ? 0 : (double) saved / total;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized float[] lookup(String key) {
+        CachedVector entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() - entry.loadedNanos >= ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.vector;
+    }
+
+    private synchronized void store(String key, float[] vector) {
+        if (maxEntries > 0) {
+            entries.put(key, new CachedVector(vector, clock.getAsLong()));
+        }
+    }
+
+    private static class CachedVector {
+        private final float[] vector;
+        private final long loadedNanos;
+
+        CachedVector(float[] vector, long loadedNanos) {
+            this.vector = vector;
+            this.loadedNanos = loadedNanos;
+        }
+    }
+}
@@ -2,38 +2,136 @@ package com.genericembedding;
 
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
+/**
+ * Lock-free request rate limiter based on the generic cell rate algorithm (GCRA).
+ *
+ * The whole state is one theoretical arrival time: the instant at which the bucket would be empty
+ * again if no further requests arrived. Each reservation advances it by one emission interval with a
+ * single compare-and-set, so concurrent callers can never overshoot the configured rate. Up to
+ * {@code burst} requests are admitted back to back; after that they are spaced one interval apart,
+ * which refills capacity continuously rather than once per second.
+ *
+ * A reservation may also cover several permits at once, which is how token-per-minute budgets are
+ * charged; {@link #adjust(long)} settles the difference once the real cost is known.
+ */
 public class RateLimiter {
-    private final int maxRequestsPerSecond;
-    private final AtomicLong lastRequestTime = new AtomicLong(0);
-    private final AtomicLong requestCount = new AtomicLong(0);
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final LongSupplier clock;
+    private final AtomicLong theoreticalArrival;
 
     public RateLimiter(int maxRequestsPerSecond) {
-        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this(maxRequestsPerSecond, maxRequestsPerSecond);
     }
 
-    public void acquire() throws InterruptedException {
-        if (maxRequestsPerSecond <= 0) {
+    public RateLimiter(int maxRequestsPerSecond, int burst) {
+        this(maxRequestsPerSecond, burst, System::nanoTime);
+    }
+
+    RateLimiter(int maxRequestsPerSecond, int burst, LongSupplier clock) {
+        this(maxRequestsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecond : 0, burst, clock);
+    }
+
+    private RateLimiter(long intervalNanos, long burst, LongSupplier clock) {
+        this.intervalNanos = intervalNanos;
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+        this.clock = clock;
+        this.theoreticalArrival = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Limiter for a per-minute budget such as tokens per minute, allowing a full minute's budget
+     * as burst. Disabled when {@code permitsPerMinute} is not positive.
+     */
+    public static RateLimiter perMinute(long permitsPerMinute) {
+        return perMinute(permitsPerMinute, System::nanoTime);
+    }
+
+    static RateLimiter perMinute(long permitsPerMinute, LongSupplier clock) {
+        long intervalNanos = permitsPerMinute > 0 ? Math.max(1, TimeUnit.MINUTES.toNanos(1) / permitsPerMinute) : 0;
+        return new RateLimiter(intervalNanos, permitsPerMinute, clock);
+    }
+
+    /**
+     * Limiter for a fractional rate, such as one node's share of a cluster-wide budget. Disabled
+     * when {@code permitsPerSecond} is not positive.
+     */
+    public static RateLimiter perSecond(double permitsPerSecond, long burst) {
+        return perSecond(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    static RateLimiter perSecond(double permitsPerSecond, long burst, LongSupplier clock) {
+        long intervalNanos = permitsPerSecond > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond)) : 0;
+        return new RateLimiter(intervalNanos, burst, clock);
+    }
+
+    /**
+     * Takes over the permits still outstanding on {@code previous}, the limiter this one replaces at
+     * a different rate, so that a change of rate does not come with a fresh burst.
+     */
+    public void carryOver(RateLimiter previous) {
+        if (intervalNanos == 0 || previous.intervalNanos == 0) {
             return;
         }
+        long now = clock.getAsLong();
+        double outstanding = (double) Math.max(0, previous.theoreticalArrival.get() - now) / previous.intervalNanos;
+        theoreticalArrival.set(now + (long) Math.ceil(outstanding * intervalNanos));
+    }
+
+    public boolean isEnabled() {
+        return intervalNanos > 0;
+    }
 
-        long currentTime = System.currentTimeMillis();
-        long lastTime = lastRequestTime.get();
-        long currentCount = requestCount.get();
+    /**
+     * Reserves one request and returns how many nanoseconds the caller has to wait before sending
+     * it, {@code 0} if it may go immediately. Never blocks; the reservation is kept either way, so
+     * the caller is expected to schedule the request after the returned delay.
+     */
+    public long tryReserve() {
+        return tryReserve(1);
+    }
+
+    /**
+     * Reserves {@code permits} at once. A reservation larger than the burst is charged as a full
+     * burst so that it can still go through once the limiter is idle.
+     */
+    public long tryReserve(long permits) {
+        if (intervalNanos == 0 || permits <= 0) {
+            return 0;
+        }
+        long cost = Math.min(burstNanos, permits * intervalNanos);
+        long now;
+        long next;
+        long current;
+        do {
+            now = clock.getAsLong();
+            current = theoreticalArrival.get();
+            next = Math.max(current, now) + cost;
+        } while (!theoreticalArrival.compareAndSet(current, next));
+        return Math.max(0, next - burstNanos - now);
+    }
 
-        if (currentTime - lastTime >= 1000) {
-            lastRequestTime.set(currentTime);
-            requestCount.set(1);
+    /**
+     * Charges ({@code permits > 0}) or refunds ({@code permits < 0}) permits after the fact, e.g.
+     * when the actual cost of a request turns out to differ from what was reserved.
+     */
+    public void adjust(long permits) {
+        if (intervalNanos == 0 || permits == 0) {
             return;
         }
+        long delta = Math.max(-burstNanos, Math.min(burstNanos, permits * intervalNanos));
+        theoreticalArrival.addAndGet(delta);
+    }
 
-        if (currentCount >= maxRequestsPerSecond) {
-            long waitTime = 1000 - (currentTime - lastTime);
-            Thread.sleep(waitTime);
-            lastRequestTime.set(System.currentTimeMillis());
-            requestCount.set(1);
-        } else {
-            requestCount.incrementAndGet();
+    /**
+     * Blocking variant of {@link #tryReserve()} for callers that have nothing else to do.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = tryReserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
         }
     }
 }
@@ -0,0 +1,247 @@
+package com.genericembedding;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.genericembedding.providers.ProviderResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled {@code response_path} that pulls embeddings out of a provider response in one streaming
+ * pass.
+ *
+ * A path is a dot-separated list of segments: object field names, array indices ({@code 0}) or
+ * {@code *} to match every element of an array. Every value the path reaches must be an array of
+ * numbers and becomes one vector, in document order. Paths written for a single input, such as
+ * {@code data.0.embedding}, contain no wildcard; their first array index is treated as the input
+ * position so they keep working when several texts are sent in one request.
+ *
+ * When the elements matched by the first wildcard are objects carrying a numeric {@code index}
+ * field (as OpenAI-style responses do), vectors are placed by that index rather than by response
+ * order. A top-level {@code usage} object is read in the same pass. Everything else is skipped
+ * without being materialized.
+ */
+public class ResponsePath {
+
+    // The caller owns the stream, e.g. to drain it so the connection can be reused
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    private static final String WILDCARD = "*";
+    private static final int INITIAL_DIMS = 256;
+
+    private final String path;
+    private final Segment[] segments;
+    private final int slotDepth;
+
+    private ResponsePath(String path, Segment[] segments) {
+        this.path = path;
+        this.segments = segments;
+        int depth = -1;
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].wildcard) {
+                depth = i;
+                break;
+            }
+        }
+        this.slotDepth = depth;
+    }
+
+    public static ResponsePath compile(String path) {
+        if (path == null || path.trim().isEmpty()) {
+            throw new IllegalArgumentException("[" + PluginConstants.CONFIG_RESPONSE_PATH + "] must not be empty");
+        }
+        String[] parts = path.trim().split("\\.", -1);
+        Segment[] segments = new Segment[parts.length];
+        boolean hasWildcard = false;
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if (part.isEmpty()) {
+                throw new IllegalArgumentException("[" + PluginConstants.CONFIG_RESPONSE_PATH + "] [" + path + "] contains an empty segment");
+            }
+            if (WILDCARD.equals(part)) {
+                segments[i] = Segment.wildcard();
+                hasWildcard = true;
+            } else if (part.chars().allMatch(Character::isDigit)) {
+                segments[i] = Segment.index(Integer.parseInt(part));
+            } else {
+                segments[i] = Segment.field(part);
+            }
+        }
+        if (!hasWildcard) {
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].index >= 0) {
+                    segments[i] = Segment.wildcard();
+                    break;
+                }
+            }
+        }
+        return new ResponsePath(path, segments);
+    }
+
+    public ProviderResponse parse(InputStream in) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            Matches matches = new Matches();
+            if (parser.nextToken() == null) {
+                throw new IOException(PluginConstants.ERROR_INVALID_EMBEDDING_RESPONSE + "empty response.");
+            }
+            walk(parser, 0, matches, null);
+            return matches.toResponse();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    private void walk(JsonParser parser, int depth, Matches matches, Slot slot) throws IOException {
+        if (depth == segments.length) {
+            matches.add(slot, readVector(parser, matches.lastDims));
+            return;
+        }
+        Segment segment = segments[depth];
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (name.equals(segment.field)) {
+                    walk(parser, depth + 1, matches, slot);
+                } else if (depth == 0 && "usage".equals(name) && value == JsonToken.START_OBJECT) {
+                    matches.usage = readUsage(parser);
+                } else if (slot != null && depth == slotDepth + 1 && "index".equals(name) && value == JsonToken.VALUE_NUMBER_INT) {
+                    slot.index = parser.getIntValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int position = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (segment.wildcard) {
+                    walk(parser, depth + 1, matches, depth == slotDepth ? matches.newSlot() : slot);
+                } else if (segment.index == position) {
+                    walk(parser, depth + 1, matches, slot);
+                } else {
+                    parser.skipChildren();
+                }
+                position++;
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private float[] readVector(JsonParser parser, int expectedDims) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IOException(PluginConstants.ERROR_INVALID_EMBEDDING_RESPONSE + "value at [" + path + "] is not an array.");
+        }
+        // Vectors from one response share a dimension, so later ones are decoded without resizing
+        float[] buffer = new float[expectedDims > 0 ? expectedDims : INITIAL_DIMS];
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                throw new IOException(PluginConstants.ERROR_INVALID_EMBEDDING_RESPONSE + "value at [" + path + "] is not an array of numbers.");
+            }
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[size++] = parser.getFloatValue();
+        }
+        return size == buffer.length ? buffer : Arrays.copyOf(buffer, size);
+    }
+
+    private static Map<String, Object> readUsage(JsonParser parser) throws IOException {
+        Map<String, Object> usage = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NUMBER_INT && ("prompt_tokens".equals(name) || "total_tokens".equals(name))) {
+                usage.put(name, parser.getIntValue());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return usage;
+    }
+
+    private class Matches {
+        private final List<Slot> slots = new ArrayList<>();
+        private final List<float[]> vectors = new ArrayList<>();
+        private final List<Slot> owners = new ArrayList<>();
+        private Map<String, Object> usage;
+        private int lastDims;
+
+        Slot newSlot() {
+            Slot slot = new Slot();
+            slots.add(slot);
+            return slot;
+        }
+
+        void add(Slot slot, float[] vector) {
+            vectors.add(vector);
+            owners.add(slot);
+            lastDims = vector.length;
+        }
+
+        ProviderResponse toResponse() throws IOException {
+            if (vectors.isEmpty()) {
+                throw new IOException(PluginConstants.ERROR_INVALID_EMBEDDING_RESPONSE + "no embeddings found at [" + path + "].");
+            }
+            boolean indexed = true;
+            for (Slot owner : owners) {
+                if (owner == null || owner.index < 0) {
+                    indexed = false;
+                    break;
+                }
+            }
+            if (!indexed || owners.size() != slots.size()) {
+                return new ProviderResponse(vectors, usage);
+            }
+            float[][] ordered = new float[vectors.size()][];
+            for (int i = 0; i < vectors.size(); i++) {
+                int index = owners.get(i).index;
+                if (index >= ordered.length || ordered[index] != null) {
+                    throw new IOException(PluginConstants.ERROR_INVALID_EMBEDDING_RESPONSE + "invalid or duplicate index " + index + ".");
+                }
+                ordered[index] = vectors.get(i);
+            }
+            return new ProviderResponse(Arrays.asList(ordered), usage);
+        }
+    }
+
+    private static class Slot {
+        private int index = -1;
+    }
+
+    private static class Segment {
+        private final String field;
+        private final int index;
+        private final boolean wildcard;
+
+        private Segment(String field, int index, boolean wildcard) {
+            this.field = field;
+            this.index = index;
+            this.wildcard = wildcard;
+        }
+
+        static Segment field(String name) {
+            return new Segment(name, -1, false);
+        }
+
+        static Segment index(int index) {
+            return new Segment(null, index, false);
+        }
+
+        static Segment wildcard() {
+            return new Segment(null, -1, true);
+        }
+    }
+}
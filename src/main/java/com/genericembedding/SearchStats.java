@@ -0,0 +1,121 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.xcontent.ToXContentObject;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one search handler: how long embedding the query and running the search took, and how
+ * long requests took end to end.
+ */
+public class SearchStats implements ToXContentObject {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram embed = new LatencyHistogram();
+    private final LatencyHistogram search = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    public void recordEmbed(long nanos) {
+        embed.recordNanos(nanos);
+    }
+
+    public void recordSearch(long nanos) {
+        search.recordNanos(nanos);
+    }
+
+    /**
+     * Records a finished request; {@code startNanos} is when it arrived.
+     */
+    public void recordRequest(long startNanos, boolean failed) {
+        requests.increment();
+        total.recordNanos(System.nanoTime() - startNanos);
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(requests.sum(), errors.sum(), embed.snapshot(), search.snapshot(), total.snapshot());
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        return snapshot().toXContent(builder, params);
+    }
+
+    /**
+     * A point-in-time copy of the counters, which can be sent to another node and added to the
+     * snapshots of other nodes.
+     */
+    public static class Snapshot implements ToXContentObject, Writeable {
+        private final long requests;
+        private final long errors;
+        private final LatencyHistogram.Snapshot embed;
+        private final LatencyHistogram.Snapshot search;
+        private final LatencyHistogram.Snapshot total;
+
+        Snapshot(long requests, long errors, LatencyHistogram.Snapshot embed, LatencyHistogram.Snapshot search,
+                 LatencyHistogram.Snapshot total) {
+            this.requests = requests;
+            this.errors = errors;
+            this.embed = embed;
+            this.search = search;
+            this.total = total;
+        }
+
+        public Snapshot(StreamInput in) throws IOException {
+            this.requests = in.readVLong();
+            this.errors = in.readVLong();
+            this.embed = new LatencyHistogram.Snapshot(in);
+            this.search = new LatencyHistogram.Snapshot(in);
+            this.total = new LatencyHistogram.Snapshot(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(requests);
+            out.writeVLong(errors);
+            embed.writeTo(out);
+            search.writeTo(out);
+            total.writeTo(out);
+        }
+
+        public long getRequestCount() {
+            return requests;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return total;
+        }
+
+        public Snapshot merge(Snapshot other) {
+            return new Snapshot(requests + other.requests, errors + other.errors, embed.merge(other.embed),
+                search.merge(other.search), total.merge(other.total));
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("requests", requests);
+            builder.field("errors", errors);
+            builder.field("embed_latency_millis", embed);
+            builder.field("search_latency_millis", search);
+            builder.field("latency_millis", total);
+            return builder.endObject();
+        }
+    }
+}
@@ -3,30 +3,30 @@ package com.genericembedding;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.genericembedding.providers.EmbeddingProvider;
-import com.genericembedding.providers.ProviderFactory;
-import com.genericembedding.providers.ProviderRequest;
-import com.genericembedding.providers.ProviderResponse;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.internal.node.NodeClient;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.core.Releasable;
+import org.elasticsearch.core.Releasables;
 import org.elasticsearch.core.RestApiVersion;
+import org.elasticsearch.rest.ChunkedRestResponseBody;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestHandler;
 import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.xcontent.ToXContent;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentFactory;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.elasticsearch.rest.RestRequest.Method.POST;
 
@@ -35,9 +35,17 @@ public class SemanticSearchRestHandler implements RestHandler {
     private static final Logger logger = LogManager.getLogger(SemanticSearchRestHandler.class);
     private static final ObjectMapper MAPPER = new ObjectMapper();
     private final Settings settings;
+    private final QueryEmbedder queryEmbedder;
+    private final SearchStats stats;
 
-    public SemanticSearchRestHandler(Settings settings) {
+    public SemanticSearchRestHandler(Settings settings, QueryEmbedder queryEmbedder) {
+        this(settings, queryEmbedder, new SearchStats());
+    }
+
+    public SemanticSearchRestHandler(Settings settings, QueryEmbedder queryEmbedder, SearchStats stats) {
         this.settings = settings;
+        this.queryEmbedder = queryEmbedder;
+        this.stats = stats;
     }
 
     @Override
@@ -48,7 +56,8 @@ public class SemanticSearchRestHandler implements RestHandler {
     }
 
     @Override
-    public void handleRequest(RestRequest request, RestChannel channel, NodeClient client) throws Exception {
+    public void handleRequest(RestRequest request, RestChannel restChannel, NodeClient client) throws Exception {
+        RestChannel channel = new StatsRestChannel(restChannel, stats);
         logger.info("=== SEMANTIC SEARCH REQUEST RECEIVED ===");
         
         String index = request.param("index");
@@ -82,13 +91,13 @@ public class SemanticSearchRestHandler implements RestHandler {
                 return;
             }
             
-            // Extract parameters
-            String vectorField = semanticSearch.has("field") ? 
-                semanticSearch.get("field").asText() : "full_case_text_vector";
-            double boost = semanticSearch.has("boost") ? 
-                semanticSearch.get("boost").asDouble() : 1.0;
+            // Extract parameters; k defaults to enough neighbours to fill the requested page
+            int size = requestJson.has("size") ? requestJson.get("size").asInt() : 10;
+            int from = requestJson.has("from") ? requestJson.get("from").asInt() : 0;
+            VectorSearch vectorSearch = VectorSearch.parse(semanticSearch, from + size);
             
-            logger.info("Semantic search parameters - field: {}, boost: {}", vectorField, boost);
+            logger.info("Semantic search parameters - field: {}, mode: {}, k: {}, num_candidates: {}", vectorSearch.getField(),
+                vectorSearch.isExact() ? VectorSearch.MODE_EXACT : VectorSearch.MODE_KNN, vectorSearch.getK(), vectorSearch.getNumCandidates());
             
             // Extract query text from the regular query
             String queryText = extractQueryText(requestJson.get("query"));
@@ -99,172 +108,163 @@ public class SemanticSearchRestHandler implements RestHandler {
             
             logger.info("Extracted query text: {}", queryText);
             
-            // Generate embedding for the query
-            List<Float> queryVector = generateEmbedding(queryText, request);
-            logger.info("Generated query vector with {} dimensions", queryVector.size());
-            
-            // Create the script_score query
-            ObjectNode newQuery = createScriptScoreQuery(queryVector, vectorField, boost);
-            
-            // Create new request without semantic_search section
-            ObjectNode newRequest = MAPPER.createObjectNode();
-            requestJson.fields().forEachRemaining(entry -> {
-                if (!"semantic_search".equals(entry.getKey()) && !"query".equals(entry.getKey())) {
-                    newRequest.set(entry.getKey(), entry.getValue());
+            // The search is sent from the embedding callback, so no thread waits on the embedding API;
+            // the field mapping is checked while the query is being embedded
+            vectorSearch.checkMapping(client, index, embedQuery(queryText, request, vectorSearch)).whenComplete((queryVector, failure) -> {
+                try {
+                    if (failure != null) {
+                        logger.error("Error processing semantic search: {}", failure.getMessage(), failure);
+                        sendErrorResponse(channel, "Error processing semantic search: " + failure.getMessage(), RestStatus.BAD_REQUEST);
+                        return;
+                    }
+                    logger.info("Generated query vector with {} dimensions", queryVector.length);
+                    executeSemanticSearch(client, channel, index, requestJson, vectorSearch, queryVector);
+                } catch (Exception e) {
+                    logger.error("Error processing semantic search: {}", e.getMessage(), e);
+                    try {
+                        sendErrorResponse(channel, "Error processing semantic search: " + e.getMessage(), RestStatus.BAD_REQUEST);
+                    } catch (IOException ioException) {
+                        logger.error("Failed to send error response", ioException);
+                    }
                 }
             });
             
-            // Set the new query
-            newRequest.set("query", newQuery);
-            
-            // Create SearchRequest with the converted query
-            SearchRequest searchRequest = new SearchRequest(index);
-            SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
-            
-            // Create the script_score query JSON manually and use wrapper query
-            // The wrapper query expects the full query structure with the query type as the root
-            ObjectNode fullQuery = MAPPER.createObjectNode();
-            ObjectNode scriptScoreJson = MAPPER.createObjectNode();
-            ObjectNode queryJson = MAPPER.createObjectNode();
-            ObjectNode scriptJson = MAPPER.createObjectNode();
-            ObjectNode paramsJson = MAPPER.createObjectNode();
-            
-            // Build the inner query (match_all)
-            queryJson.set("match_all", MAPPER.createObjectNode());
-            
-            // Build the script with null check for missing vectors
-            scriptJson.put("source", String.format("doc['%s'].size() == 0 ? 0 : cosineSimilarity(params.query_vector, '%s') * %f + 1.0", vectorField, vectorField, boost));
-            
-            // Add the query vector as array
-            com.fasterxml.jackson.databind.node.ArrayNode vectorArray = MAPPER.createArrayNode();
-            for (Float value : queryVector) {
-                vectorArray.add(value);
-            }
-            paramsJson.set("query_vector", vectorArray);
-            scriptJson.set("params", paramsJson);
-            
-            // Assemble the script_score query
-            scriptScoreJson.set("query", queryJson);
-            scriptScoreJson.set("script", scriptJson);
-            
-            // Wrap in the script_score query type
-            fullQuery.set("script_score", scriptScoreJson);
-            
-            String scriptScoreQueryString = MAPPER.writeValueAsString(fullQuery);
-            logger.info("Created script_score query: {}", scriptScoreQueryString);
-            
-            sourceBuilder.query(org.elasticsearch.index.query.QueryBuilders.wrapperQuery(scriptScoreQueryString));
-            
-            // Add other parameters from the original request
-            if (newRequest.has("size")) {
-                sourceBuilder.size(newRequest.get("size").asInt());
-            }
-            if (newRequest.has("from")) {
-                sourceBuilder.from(newRequest.get("from").asInt());
+        } catch (Exception e) {
+            logger.error("Error processing semantic search: {}", e.getMessage(), e);
+            sendErrorResponse(channel, "Error processing semantic search: " + e.getMessage(), RestStatus.BAD_REQUEST);
+        }
+    }
+    
+    private void executeSemanticSearch(NodeClient client, RestChannel channel, String index, JsonNode requestJson, VectorSearch vectorSearch,
+                                       float[] queryVector) throws IOException {
+        // Create new request without semantic_search section; the query is replaced by the vector search
+        ObjectNode newRequest = MAPPER.createObjectNode();
+        requestJson.fields().forEachRemaining(entry -> {
+            if (!"semantic_search".equals(entry.getKey()) && !"query".equals(entry.getKey())) {
+                newRequest.set(entry.getKey(), entry.getValue());
             }
-            
-            // Enhanced _source handling with proper validation
-            try {
-                if (requestJson.has("_source")) {
-                    JsonNode sourceNode = requestJson.get("_source");
-                    if (sourceNode.isTextual()) {
-                        sourceBuilder.fetchSource(sourceNode.asText(), null);
-                    } else if (sourceNode.isArray()) {
-                        String[] includes = new String[sourceNode.size()];
-                        for (int i = 0; i < sourceNode.size(); i++) {
-                            includes[i] = sourceNode.get(i).asText();
-                        }
-                        sourceBuilder.fetchSource(includes, null);
-                    } else if (sourceNode.isObject()) {
-                        // Handle _source object with includes/excludes
-                        JsonNode includesNode = sourceNode.get("includes");
-                        JsonNode excludesNode = sourceNode.get("excludes");
-                        
-                        String[] includes = null;
-                        String[] excludes = null;
-                        
-                        if (includesNode != null) {
-                            if (includesNode.isArray()) {
-                                includes = new String[includesNode.size()];
-                                for (int i = 0; i < includesNode.size(); i++) {
-                                    includes[i] = includesNode.get(i).asText();
-                                }
-                            } else if (includesNode.isTextual()) {
-                                includes = new String[]{includesNode.asText()};
+        });
+        
+        SearchRequest searchRequest = new SearchRequest(index);
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
+        vectorSearch.apply(sourceBuilder, queryVector);
+        logger.info("Created {} vector search on field {}", vectorSearch.isExact() ? "exact script_score" : "knn", vectorSearch.getField());
+        
+        // Add other parameters from the original request
+        if (newRequest.has("size")) {
+            sourceBuilder.size(newRequest.get("size").asInt());
+        }
+        if (newRequest.has("from")) {
+            sourceBuilder.from(newRequest.get("from").asInt());
+        }
+        
+        // Enhanced _source handling with proper validation
+        try {
+            if (requestJson.has("_source")) {
+                JsonNode sourceNode = requestJson.get("_source");
+                if (sourceNode.isTextual()) {
+                    sourceBuilder.fetchSource(sourceNode.asText(), null);
+                } else if (sourceNode.isArray()) {
+                    String[] includes = new String[sourceNode.size()];
+                    for (int i = 0; i < sourceNode.size(); i++) {
+                        includes[i] = sourceNode.get(i).asText();
+                    }
+                    sourceBuilder.fetchSource(includes, null);
+                } else if (sourceNode.isObject()) {
+                    // Handle _source object with includes/excludes
+                    JsonNode includesNode = sourceNode.get("includes");
+                    JsonNode excludesNode = sourceNode.get("excludes");
+                    
+                    String[] includes = null;
+                    String[] excludes = null;
+                    
+                    if (includesNode != null) {
+                        if (includesNode.isArray()) {
+                            includes = new String[includesNode.size()];
+                            for (int i = 0; i < includesNode.size(); i++) {
+                                includes[i] = includesNode.get(i).asText();
                             }
+                        } else if (includesNode.isTextual()) {
+                            includes = new String[]{includesNode.asText()};
                         }
-                        
-                        if (excludesNode != null) {
-                            if (excludesNode.isArray()) {
-                                excludes = new String[excludesNode.size()];
-                                for (int i = 0; i < excludesNode.size(); i++) {
-                                    excludes[i] = excludesNode.get(i).asText();
-                                }
-                            } else if (excludesNode.isTextual()) {
-                                excludes = new String[]{excludesNode.asText()};
+                    }
+                    
+                    if (excludesNode != null) {
+                        if (excludesNode.isArray()) {
+                            excludes = new String[excludesNode.size()];
+                            for (int i = 0; i < excludesNode.size(); i++) {
+                                excludes[i] = excludesNode.get(i).asText();
                             }
+                        } else if (excludesNode.isTextual()) {
+                            excludes = new String[]{excludesNode.asText()};
                         }
-                        
-                        sourceBuilder.fetchSource(includes, excludes);
-                    } else if (sourceNode.isBoolean() && !sourceNode.asBoolean()) {
-                        // _source: false means no source
-                        sourceBuilder.fetchSource(false);
                     }
-                } else {
-                    // Exclude vector fields by default to avoid large payloads
-                    sourceBuilder.fetchSource(null, new String[]{"*_vector", "embedding_usage", "embedding_error"});
+                    
+                    sourceBuilder.fetchSource(includes, excludes);
+                } else if (sourceNode.isBoolean() && !sourceNode.asBoolean()) {
+                    // _source: false means no source
+                    sourceBuilder.fetchSource(false);
                 }
-            } catch (Exception e) {
-                logger.warn("Invalid _source configuration, using defaults: {}", e.getMessage());
-                sourceBuilder.fetchSource(null, new String[]{"*_vector", "embedding_usage", "embedding_error"});
+            } else {
+                // Exclude vector fields by default to avoid large payloads
+                sourceBuilder.fetchSource(null, new String[]{"*_vector", "*_vector_float", "embedding_usage", "embedding_error"});
             }
-            
-            searchRequest.source(sourceBuilder);
-            
-            logger.info("Executing semantic search request");
-            
-            // Execute the search and handle response
-            client.search(searchRequest, new org.elasticsearch.action.ActionListener<SearchResponse>() {
-                @Override
-                public void onResponse(SearchResponse searchResponse) {
-                    try {
-                        XContentBuilder builder = XContentFactory.jsonBuilder();
-                        searchResponse.toXContentChunked(org.elasticsearch.xcontent.ToXContent.EMPTY_PARAMS).forEachRemaining(xcontent -> {
-                            try {
-                                xcontent.toXContent(builder, org.elasticsearch.xcontent.ToXContent.EMPTY_PARAMS);
-                            } catch (IOException e) {
-                                throw new RuntimeException(e);
-                            }
-                        });
-                        channel.sendResponse(new org.elasticsearch.rest.RestResponse(RestStatus.OK, builder));
-                    } catch (Exception e) {
-                        logger.error("Error building response", e);
-                        onFailure(e);
-                    }
+        } catch (Exception e) {
+            logger.warn("Invalid _source configuration, using defaults: {}", e.getMessage());
+            sourceBuilder.fetchSource(null, new String[]{"*_vector", "*_vector_float", "embedding_usage", "embedding_error"});
+        }
+        
+        searchRequest.source(sourceBuilder);
+        
+        logger.info("Executing semantic search request");
+        
+        // Execute the search and handle response
+        search(client, searchRequest, new org.elasticsearch.action.ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(SearchResponse searchResponse) {
+                // Streamed a chunk at a time as the channel drains, so a large page of hits is never
+                // serialized whole; the response stays retained until the last chunk has been written
+                searchResponse.incRef();
+                Releasable release = Releasables.releaseOnce(searchResponse::decRef);
+                try {
+                    channel.sendResponse(RestResponse.chunked(RestStatus.OK,
+                        ChunkedRestResponseBody.fromXContent(searchResponse, ToXContent.EMPTY_PARAMS, channel), release));
+                } catch (Exception e) {
+                    release.close();
+                    logger.error("Error building response", e);
+                    onFailure(e);
                 }
-                
-                @Override
-                public void onFailure(Exception e) {
-                    logger.error("Search execution failed", e);
-                    try {
-                        String errorMessage = "Search execution failed: " + e.getMessage();
-                        
-                        // Check for specific vector field mapping error
-                        if (e.getMessage() != null && e.getMessage().contains("No field found for") && e.getMessage().contains("_vector")) {
-                            errorMessage = "Vector field not found in index mapping. Please ensure the index has vector fields created by the embedding pipeline. " + e.getMessage();
-                        }
-                        
-                        sendErrorResponse(channel, errorMessage, RestStatus.BAD_REQUEST);
-                    } catch (IOException ioException) {
-                        logger.error("Failed to send error response", ioException);
+            }
+            
+            @Override
+            public void onFailure(Exception e) {
+                logger.error("Search execution failed", e);
+                try {
+                    String errorMessage = "Search execution failed: " + e.getMessage();
+                    
+                    // Check for specific vector field mapping error
+                    if (e.getMessage() != null && e.getMessage().contains("No field found for") && e.getMessage().contains("_vector")) {
+                        errorMessage = "Vector field not found in index mapping. Please ensure the index has vector fields created by the embedding pipeline. " + e.getMessage();
                     }
+                    
+                    sendErrorResponse(channel, errorMessage, RestStatus.BAD_REQUEST);
+                } catch (IOException ioException) {
+                    logger.error("Failed to send error response", ioException);
                 }
-            });
-            
-        } catch (Exception e) {
-            logger.error("Error processing semantic search: {}", e.getMessage(), e);
-            sendErrorResponse(channel, "Error processing semantic search: " + e.getMessage(), RestStatus.BAD_REQUEST);
-        }
+            }
+        });
+    }
+    
+    private CompletableFuture<float[]> embedQuery(String queryText, RestRequest request, VectorSearch vectorSearch) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<float[]> queryVector = queryEmbedder.embed(queryText, request.header("Authorization"), vectorSearch.getDimensions());
+        queryVector.whenComplete((vector, failure) -> stats.recordEmbed(System.nanoTime() - startNanos));
+        return queryVector;
+    }
+    
+    private void search(NodeClient client, SearchRequest searchRequest, ActionListener<SearchResponse> listener) {
+        long startNanos = System.nanoTime();
+        client.search(searchRequest, ActionListener.runBefore(listener, () -> stats.recordSearch(System.nanoTime() - startNanos)));
     }
     
     private void sendErrorResponse(RestChannel channel, String message, RestStatus status) throws IOException {
@@ -318,79 +318,4 @@ public class SemanticSearchRestHandler implements RestHandler {
         
         return null;
     }
-    
-    private List<Float> generateEmbedding(String queryText, RestRequest request) throws Exception {
-        logger.info("Generating embedding for query text");
-        
-        // Get API key from Authorization header first, then fallback to environment/settings
-        String apiKey = request.header("Authorization");
-        if (apiKey != null && apiKey.startsWith("Bearer ")) {
-            apiKey = apiKey.substring(7); // Remove "Bearer " prefix
-        } else {
-            // Fallback to environment variable
-            apiKey = System.getenv("OPENAI_API_KEY");
-            if (apiKey == null) {
-                // Try to get from cluster settings
-                apiKey = settings.get("semantic_search.openai.api_key");
-            }
-        }
-        
-        if (apiKey == null || apiKey.trim().isEmpty()) {
-            throw new RuntimeException("API key not found. Please provide it via Authorization header (Bearer token), OPENAI_API_KEY environment variable, or semantic_search.openai.api_key setting");
-        }
-        
-        Map<String, Object> config = new HashMap<>();
-        config.put(PluginConstants.CONFIG_API_URL, PluginConstants.DEFAULT_API_URL);
-        config.put(PluginConstants.CONFIG_MODEL, PluginConstants.DEFAULT_MODEL);
-        config.put(PluginConstants.CONFIG_PROVIDER, PluginConstants.PROVIDER_TYPE_OPENAI);
-        
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Authorization", "Bearer " + apiKey);
-        config.put(PluginConstants.CONFIG_HEADERS, headers);
-        
-        // Use doPrivileged to execute network operations with elevated permissions
-        try {
-            return java.security.AccessController.doPrivileged((java.security.PrivilegedExceptionAction<List<Float>>) () -> {
-                logger.info("Executing embedding generation with elevated privileges");
-                EmbeddingProvider provider = ProviderFactory.create(config);
-                ProviderRequest providerRequest = new ProviderRequest(queryText);
-                ProviderResponse response = provider.embed(Collections.singletonList(providerRequest));
-                return response.getVectors().get(0);
-            });
-        } catch (java.security.PrivilegedActionException e) {
-            Throwable cause = e.getCause();
-            logger.error("Privileged action failed: {}", cause.getMessage());
-            if (cause instanceof Exception) {
-                throw (Exception) cause;
-            } else {
-                throw new Exception("Unexpected exception in privileged action", cause);
-            }
-        }
-    }
-    
-    private ObjectNode createScriptScoreQuery(List<Float> queryVector, String vectorField, double boost) {
-        ObjectNode scriptScoreQuery = MAPPER.createObjectNode();
-        ObjectNode scriptScore = MAPPER.createObjectNode();
-        ObjectNode query = MAPPER.createObjectNode();
-        ObjectNode script = MAPPER.createObjectNode();
-        ObjectNode params = MAPPER.createObjectNode();
-        
-        // Build script_score query
-        query.set("match_all", MAPPER.createObjectNode());
-        script.put("source", String.format("doc['%s'].size() == 0 ? 0 : cosineSimilarity(params.query_vector, '%s') * %f + 1.0", vectorField, vectorField, boost));
-        
-        // Manually create the array node to avoid Jackson serialization issues
-        com.fasterxml.jackson.databind.node.ArrayNode vectorArray = MAPPER.createArrayNode();
-        for (Float value : queryVector) {
-            vectorArray.add(value);
-        }
-        params.set("query_vector", vectorArray);
-        script.set("params", params);
-        
-        scriptScore.set("query", query);
-        scriptScore.set("script", script);
-        scriptScoreQuery.set("script_score", scriptScore);
-        
-        return scriptScoreQuery;
-    }
 }
@@ -0,0 +1,79 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.io.stream.BytesStream;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records a search request in its {@link SearchStats} when the handler sends the response, whichever
+ * of its success or error paths that is. Responses with a 4xx or 5xx status count as errors.
+ */
+class StatsRestChannel implements RestChannel {
+
+    private final RestChannel delegate;
+    private final SearchStats stats;
+    private final long startNanos = System.nanoTime();
+
+    StatsRestChannel(RestChannel delegate, SearchStats stats) {
+        this.delegate = delegate;
+        this.stats = stats;
+    }
+
+    @Override
+    public void sendResponse(RestResponse response) {
+        stats.recordRequest(startNanos, response.status().getStatus() >= 400);
+        delegate.sendResponse(response);
+    }
+
+    @Override
+    public XContentBuilder newBuilder() throws IOException {
+        return delegate.newBuilder();
+    }
+
+    @Override
+    public XContentBuilder newErrorBuilder() throws IOException {
+        return delegate.newErrorBuilder();
+    }
+
+    @Override
+    public XContentBuilder newBuilder(XContentType xContentType, boolean useFiltering) throws IOException {
+        return delegate.newBuilder(xContentType, useFiltering);
+    }
+
+    @Override
+    public XContentBuilder newBuilder(XContentType xContentType, XContentType responseContentType, boolean useFiltering) throws IOException {
+        return delegate.newBuilder(xContentType, responseContentType, useFiltering);
+    }
+
+    @Override
+    public XContentBuilder newBuilder(XContentType xContentType, XContentType responseContentType, boolean useFiltering,
+                                      OutputStream out) throws IOException {
+        return delegate.newBuilder(xContentType, responseContentType, useFiltering, out);
+    }
+
+    @Override
+    public BytesStream bytesOutput() {
+        return delegate.bytesOutput();
+    }
+
+    @Override
+    public void releaseOutputBuffer() {
+        delegate.releaseOutputBuffer();
+    }
+
+    @Override
+    public RestRequest request() {
+        return delegate.request();
+    }
+
+    @Override
+    public boolean detailedErrorsEnabled() {
+        return delegate.detailedErrorsEnabled();
+    }
+}
@@ -0,0 +1,70 @@
+package com.genericembedding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits long text into overlapping passages of at most {@code chunkSize} tokens.
+ *
+ * Passages are cut on the encoding's pre-tokenization boundaries, so words are never split and
+ * every passage is measured with the same {@link TokenCounter} that paces requests. A single
+ * pre-token longer than the chunk size becomes a passage of its own.
+ */
+public class TextChunker {
+
+    private final TokenCounter tokenCounter;
+    private final Pattern pattern;
+    private final int chunkSize;
+    private final int overlap;
+
+    public TextChunker(TokenCounter tokenCounter, int chunkSize, int overlap) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("[" + PluginConstants.CONFIG_CHUNK_SIZE + "] must be positive but was [" + chunkSize + "]");
+        }
+        if (overlap < 0 || overlap >= chunkSize) {
+            throw new IllegalArgumentException("[" + PluginConstants.CONFIG_CHUNK_OVERLAP + "] must be at least 0 and less than ["
+                + PluginConstants.CONFIG_CHUNK_SIZE + "] but was [" + overlap + "]");
+        }
+        this.tokenCounter = tokenCounter;
+        this.pattern = BpeTokenCounter.pattern(tokenCounter.encoding());
+        this.chunkSize = chunkSize;
+        this.overlap = overlap;
+    }
+
+    /**
+     * Returns the {@code [start, end)} character ranges of the passages, in order.
+     */
+    public List<int[]> chunk(String text) {
+        List<int[]> pieces = new ArrayList<>();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            pieces.add(new int[]{matcher.start(), matcher.end(), tokenCounter.count(matcher.group())});
+        }
+
+        List<int[]> chunks = new ArrayList<>();
+        int first = 0;
+        while (first < pieces.size()) {
+            int end = first;
+            int tokens = 0;
+            while (end < pieces.size() && (end == first || tokens + pieces.get(end)[2] <= chunkSize)) {
+                tokens += pieces.get(end)[2];
+                end++;
+            }
+            chunks.add(new int[]{pieces.get(first)[0], pieces.get(end - 1)[1]});
+            if (end == pieces.size()) {
+                break;
+            }
+            // Step back over up to `overlap` tokens, but always move forward by at least one piece
+            int next = end;
+            int overlapTokens = 0;
+            while (next > first + 1 && overlapTokens + pieces.get(next - 1)[2] <= overlap) {
+                overlapTokens += pieces.get(next - 1)[2];
+                next--;
+            }
+            first = next;
+        }
+        return chunks;
+    }
+}
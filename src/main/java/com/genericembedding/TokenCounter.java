@@ -0,0 +1,67 @@
+package com.genericembedding;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Counts the tokens a provider will bill for a text, without calling the provider.
+ *
+ * If a tiktoken vocabulary for {@code ai_embed.tokenizer.encoding} is present in the node's config
+ * directory ({@code config/ai_embed/<encoding>.tiktoken}) the count is exact. The plugin does not
+ * ship one, so unless it is installed separately counts are estimates based on the same
+ * pre-tokenization. A node that sets the encoding explicitly asks for exact counts and fails to
+ * start if the vocabulary is missing or cannot be read. Either way it is only used to pace
+ * requests against a tokens-per-minute budget, which is settled against the provider's reported
+ * usage afterwards.
+ */
+public interface TokenCounter {
+
+    Setting<String> ENCODING_SETTING = Setting.simpleString(
+        "ai_embed.tokenizer.encoding",
+        BpeTokenCounter.CL100K_BASE,
+        value -> {
+            if (!BpeTokenCounter.CL100K_BASE.equals(value) && !BpeTokenCounter.O200K_BASE.equals(value)) {
+                throw new IllegalArgumentException("[ai_embed.tokenizer.encoding] must be one of ["
+                    + BpeTokenCounter.CL100K_BASE + ", " + BpeTokenCounter.O200K_BASE + "] but was [" + value + "]");
+            }
+        },
+        Setting.Property.NodeScope
+    );
+
+    int count(String text);
+
+    /**
+     * Name of the encoding whose pre-tokenization this counter follows.
+     */
+    String encoding();
+
+    static TokenCounter fromSettings(Settings settings, Path configDir) {
+        Logger logger = LogManager.getLogger(TokenCounter.class);
+        String encoding = ENCODING_SETTING.get(settings);
+        Path vocabulary = configDir.resolve(PluginConstants.PROCESSOR_TYPE).resolve(encoding + ".tiktoken");
+        boolean required = ENCODING_SETTING.exists(settings);
+        if (Files.exists(vocabulary)) {
+            try {
+                TokenCounter counter = BpeTokenCounter.load(encoding, vocabulary);
+                logger.info("Loaded [{}] tokenizer vocabulary from [{}]", encoding, vocabulary);
+                return counter;
+            } catch (IOException | RuntimeException e) {
+                if (required) {
+                    throw new IllegalStateException("Failed to load the [" + encoding + "] tokenizer vocabulary from [" + vocabulary + "]", e);
+                }
+                logger.warn("Failed to load tokenizer vocabulary from [" + vocabulary + "], estimating token counts instead", e);
+            }
+        } else if (required) {
+            throw new IllegalStateException("[" + ENCODING_SETTING.getKey() + "] is set to [" + encoding
+                + "] but there is no tokenizer vocabulary at [" + vocabulary + "]");
+        }
+        logger.info("No tokenizer vocabulary at [{}], estimating [{}] token counts", vocabulary, encoding);
+        return new EstimatingTokenCounter(encoding);
+    }
+}
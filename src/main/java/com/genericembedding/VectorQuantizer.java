@@ -0,0 +1,65 @@
+package com.genericembedding;
+
+/**
+ * Turns float embeddings into the compact forms {@code dense_vector} can store.
+ *
+ * {@code int8} scales every component into [-127, 127] for {@code element_type: byte} fields, a 4x
+ * saving. The scale comes either from each vector's own largest component ({@code range} unset), which
+ * keeps cosine similarity intact, or from a fixed {@code range} shared by all vectors, which keeps
+ * vectors comparable for {@code dot_product} and {@code l2_norm}; components beyond the range are
+ * clipped.
+ *
+ * Sign-bit quantization is not offered: {@code element_type: bit} only exists in Elasticsearch
+ * releases newer than the one this plugin is built for.
+ */
+public class VectorQuantizer {
+
+    public static final String INT8 = "int8";
+
+    private final String type;
+    private final Float range;
+
+    public VectorQuantizer(String type, Float range) {
+        if (!INT8.equals(type)) {
+            throw new IllegalArgumentException("quantization must be [none] or [" + INT8 + "] but was [" + type + "]");
+        }
+        if (range != null && !(range > 0)) {
+            throw new IllegalArgumentException("quantization_range must be a positive number");
+        }
+        this.type = type;
+        this.range = range;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Identifies the output of this quantizer, for fingerprints.
+     */
+    public String key() {
+        return type + ":" + (range != null ? range : "per_vector");
+    }
+
+    public byte[] quantize(float[] vector) {
+        return int8(vector, range);
+    }
+
+    static byte[] int8(float[] vector, Float range) {
+        float max = range != null ? range : 0f;
+        if (range == null) {
+            for (float value : vector) {
+                max = Math.max(max, Math.abs(value));
+            }
+        }
+        byte[] quantized = new byte[vector.length];
+        if (max == 0f) {
+            return quantized;
+        }
+        float scale = 127f / max;
+        for (int i = 0; i < vector.length; i++) {
+            quantized[i] = (byte) Math.max(-127, Math.min(127, Math.rint(vector[i] * scale)));
+        }
+        return quantized;
+    }
+}
@@ -0,0 +1,298 @@
+package com.genericembedding;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsRequest;
+import org.elasticsearch.action.admin.indices.mapping.get.GetFieldMappingsResponse;
+import org.elasticsearch.client.internal.Client;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.rescore.QueryRescorerBuilder;
+import org.elasticsearch.search.vectors.KnnSearchBuilder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The vector part of a semantic or hybrid search, read from the request's {@code semantic_search} section.
+ *
+ * By default this is a native approximate {@code knn} search on the HNSW graph of an indexed
+ * {@code dense_vector} field, so its cost follows {@code num_candidates} rather than the size of
+ * the index. The brute-force {@code script_score} over every document is only used when asked for:
+ * {@code "mode": "exact"} scores all documents with it, for fields mapped with {@code "index": false},
+ * and {@code "rescore": true} re-scores just the approximate top {@code k} with it.
+ *
+ * Fields mapped with {@code element_type: byte} are searched with the query vector
+ * quantized the way {@link VectorQuantizer} quantized the documents; rescoring can then use the
+ * float vectors kept next to them through {@code rescore_field}. Fields with {@code dot_product}
+ * similarity hold unit-length vectors, so the query is normalized for them too and exact scoring of
+ * float vectors uses {@code dotProduct}, which skips the norm computations of {@code cosineSimilarity}.
+ * Quantized vectors are always scored with {@code cosineSimilarity}: their raw dot product is an
+ * unscaled integer sum that can push the script score below zero, which Elasticsearch rejects.
+ */
+public class VectorSearch {
+
+    public static final String MODE_KNN = "knn";
+    public static final String MODE_EXACT = "exact";
+    public static final String DEFAULT_FIELD = "full_case_text_vector";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String field;
+    private final double boost;
+    private final boolean exact;
+    private final int k;
+    private final int numCandidates;
+    private final Float similarity;
+    private final boolean rescore;
+    private final String rescoreField;
+    private final Float quantizationRange;
+    private final Integer dimensions;
+    // Set from the mapping before apply() is called
+    private volatile String elementType = "float";
+    private volatile boolean dotProduct;
+
+    VectorSearch(String field, double boost, boolean exact, int k, int numCandidates, Float similarity, boolean rescore) {
+        this(field, boost, exact, k, numCandidates, similarity, rescore, field, null, null);
+    }
+
+    VectorSearch(String field, double boost, boolean exact, int k, int numCandidates, Float similarity, boolean rescore,
+                 String rescoreField, Float quantizationRange, Integer dimensions) {
+        this.field = field;
+        this.boost = boost;
+        this.exact = exact;
+        this.k = k;
+        this.numCandidates = numCandidates;
+        this.similarity = similarity;
+        this.rescore = rescore;
+        this.rescoreField = rescoreField;
+        this.quantizationRange = quantizationRange;
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * @param defaultK {@code k} when the request does not set it, i.e. the number of hits the caller returns
+     * @throws IllegalArgumentException if an option has an invalid value
+     */
+    public static VectorSearch parse(JsonNode semanticSearch, int defaultK) {
+        String field = semanticSearch.has("field") ? semanticSearch.get("field").asText() : DEFAULT_FIELD;
+        double boost = semanticSearch.has("boost") ? semanticSearch.get("boost").asDouble() : 1.0;
+
+        String mode = semanticSearch.has("mode") ? semanticSearch.get("mode").asText() : MODE_KNN;
+        if (!MODE_KNN.equals(mode) && !MODE_EXACT.equals(mode)) {
+            throw new IllegalArgumentException("semantic_search.mode must be [" + MODE_KNN + "] or [" + MODE_EXACT + "] but was [" + mode + "]");
+        }
+
+        int k = semanticSearch.has("k") ? semanticSearch.get("k").asInt() : Math.max(1, defaultK);
+        if (k < 1) {
+            throw new IllegalArgumentException("semantic_search.k must be greater than 0");
+        }
+        int numCandidates = semanticSearch.has("num_candidates") ? semanticSearch.get("num_candidates").asInt() :
+            Math.min(KnnSearchBuilder.NUM_CANDS_LIMIT, Math.max(100, (int) Math.ceil(k * KnnSearchBuilder.NUM_CANDS_MULTIPLICATIVE_FACTOR)));
+        if (numCandidates < k || numCandidates > KnnSearchBuilder.NUM_CANDS_LIMIT) {
+            throw new IllegalArgumentException("semantic_search.num_candidates must be between k [" + k + "] and "
+                + KnnSearchBuilder.NUM_CANDS_LIMIT + " but was [" + numCandidates + "]");
+        }
+        Float similarity = semanticSearch.has("similarity") ? (float) semanticSearch.get("similarity").asDouble() : null;
+        boolean rescore = semanticSearch.has("rescore") && semanticSearch.get("rescore").asBoolean();
+        String rescoreField = semanticSearch.has("rescore_field") ? semanticSearch.get("rescore_field").asText() : field;
+        Float quantizationRange = semanticSearch.has("quantization_range") ? (float) semanticSearch.get("quantization_range").asDouble() : null;
+        if (quantizationRange != null && !(quantizationRange > 0)) {
+            throw new IllegalArgumentException("semantic_search.quantization_range must be a positive number");
+        }
+
+        Integer dimensions = semanticSearch.has("dimensions") ? semanticSearch.get("dimensions").asInt() : null;
+        if (dimensions != null && dimensions < 1) {
+            throw new IllegalArgumentException("semantic_search.dimensions must be greater than 0");
+        }
+
+        return new VectorSearch(field, boost, MODE_EXACT.equals(mode), k, numCandidates, similarity, rescore, rescoreField, quantizationRange,
+            dimensions);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    public boolean isRescore() {
+        return rescore;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getNumCandidates() {
+        return numCandidates;
+    }
+
+    /**
+     * The number of dimensions to embed the query with, or {@code null} for the model's default.
+     */
+    public Integer getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Completes with {@code queryVector} once the mapping of {@link #getField()} in every index behind
+     * {@code index} has been found compatible with this search. The mapping is looked up while the
+     * vector is still being embedded, so the check adds no latency of its own.
+     */
+    public CompletableFuture<float[]> checkMapping(Client client, String index, CompletableFuture<float[]> queryVector) {
+        CompletableFuture<Map<String, Map<String, Object>>> mappings = new CompletableFuture<>();
+        GetFieldMappingsRequest request = new GetFieldMappingsRequest().indices(index).fields(field).includeDefaults(true);
+        client.admin().indices().getFieldMappings(request, ActionListener.wrap(
+            response -> mappings.complete(fieldMappings(response)), mappings::completeExceptionally));
+
+        CompletableFuture<float[]> result = new CompletableFuture<>();
+        queryVector.thenCombine(mappings, (vector, fieldMappings) -> {
+            validate(fieldMappings, vector);
+            return vector;
+        }).whenComplete((vector, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+            } else {
+                result.complete(vector);
+            }
+        });
+        return result;
+    }
+
+    private Map<String, Map<String, Object>> fieldMappings(GetFieldMappingsResponse response) {
+        Map<String, Map<String, Object>> byIndex = new HashMap<>();
+        response.mappings().forEach((indexName, fields) -> {
+            GetFieldMappingsResponse.FieldMappingMetadata metadata = fields.get(field);
+            if (metadata != null && metadata.sourceAsMap().size() == 1) {
+                Object mapping = metadata.sourceAsMap().values().iterator().next();
+                if (mapping instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> properties = (Map<String, Object>) mapping;
+                    byIndex.put(indexName, properties);
+                }
+            }
+        });
+        return byIndex;
+    }
+
+    /**
+     * @param mappings the field's mapping properties per index, for the indices that map it
+     * @throws IllegalArgumentException if no index maps the field or one maps it in a way this search cannot use
+     */
+    void validate(Map<String, Map<String, Object>> mappings, float[] queryVector) {
+        if (mappings.isEmpty()) {
+            throw new IllegalArgumentException("Vector field not found in index mapping. Please ensure the index has vector fields "
+                + "created by the embedding pipeline. No field found for [" + field + "] in mapping");
+        }
+        String mappedElementType = null;
+        boolean allDotProduct = true;
+        for (Map.Entry<String, Map<String, Object>> entry : mappings.entrySet()) {
+            Map<String, Object> mapping = entry.getValue();
+            String description = "[" + field + "] in index [" + entry.getKey() + "]";
+            if (!"dense_vector".equals(mapping.get("type"))) {
+                throw new IllegalArgumentException("Vector field " + description + " is mapped as [" + mapping.get("type")
+                    + "], semantic search needs a dense_vector field");
+            }
+            Object dims = mapping.get("dims");
+            if (dims instanceof Number && ((Number) dims).intValue() != queryVector.length) {
+                throw new IllegalArgumentException("Vector field " + description + " has [" + dims + "] dimensions but the query vector has ["
+                    + queryVector.length + "]");
+            }
+            if (!exact && !isIndexed(mapping)) {
+                throw new IllegalArgumentException("Vector field " + description + " is not indexed for kNN search, map it with "
+                    + "\"index\": true or search it with \"mode\": \"" + MODE_EXACT + "\"");
+            }
+            String type = mapping.get("element_type") != null ? mapping.get("element_type").toString() : "float";
+            if (mappedElementType != null && !mappedElementType.equals(type)) {
+                throw new IllegalArgumentException("Vector field [" + field + "] is mapped with element_type [" + mappedElementType
+                    + "] and [" + type + "] in different indices");
+            }
+            mappedElementType = type;
+            allDotProduct &= "dot_product".equals(mapping.get("similarity"));
+        }
+        elementType = mappedElementType;
+        dotProduct = allDotProduct;
+    }
+
+    /**
+     * The query vector in the form the field stores: quantized for {@code byte} fields.
+     */
+    float[] searchVector(float[] queryVector) {
+        if (dotProduct) {
+            queryVector = Vectors.l2Normalize(queryVector);
+        }
+        if (!"byte".equals(elementType)) {
+            return queryVector;
+        }
+        byte[] quantized = VectorQuantizer.int8(queryVector, quantizationRange);
+        float[] vector = new float[quantized.length];
+        for (int i = 0; i < quantized.length; i++) {
+            vector[i] = quantized[i];
+        }
+        return vector;
+    }
+
+    private static boolean isIndexed(Map<String, Object> mapping) {
+        Object indexed = mapping.get("index");
+        return indexed == null || Boolean.parseBoolean(indexed.toString());
+    }
+
+    /**
+     * Adds the vector search for {@code queryVector} to {@code source}, as its {@code knn} section
+     * or, in exact mode, as its query.
+     */
+    public void apply(SearchSourceBuilder source, float[] queryVector) {
+        float[] searchVector = searchVector(queryVector);
+        if (exact) {
+            source.query(QueryBuilders.wrapperQuery(scriptScoreQuery(field, searchVector)));
+            return;
+        }
+        KnnSearchBuilder knn = new KnnSearchBuilder(field, searchVector, k, numCandidates, similarity);
+        knn.boost((float) boost);
+        source.knnSearch(List.of(knn));
+        if (rescore) {
+            // A separate rescore field holds the float vectors, so it is scored with the unquantized query
+            float[] rescoreVector = rescoreField.equals(field) ? searchVector : dotProduct ? Vectors.l2Normalize(queryVector) : queryVector;
+            source.addRescorer(new QueryRescorerBuilder(QueryBuilders.wrapperQuery(scriptScoreQuery(rescoreField, rescoreVector)))
+                .setQueryWeight(0f)
+                .setRescoreQueryWeight(1f)
+                .windowSize(k));
+        }
+    }
+
+    String scriptScoreQuery(String field, float[] queryVector) {
+        // A separate rescore field holds the float vectors
+        boolean floatVectors = !field.equals(this.field) || "float".equals(elementType);
+        ObjectNode script = MAPPER.createObjectNode();
+        // Documents without a vector score 0 rather than failing the search
+        // On unit-length float vectors the dot product is the cosine similarity, without computing norms
+        script.put("source", String.format(Locale.ROOT, "doc['%s'].size() == 0 ? 0 : %s(params.query_vector, '%s') * %f + 1.0",
+            field, dotProduct && floatVectors ? "dotProduct" : "cosineSimilarity", field, boost));
+        ArrayNode vectorArray = script.putObject("params").putArray("query_vector");
+        for (float value : queryVector) {
+            vectorArray.add(value);
+        }
+
+        ObjectNode scriptScore = MAPPER.createObjectNode();
+        scriptScore.putObject("query").putObject("match_all");
+        scriptScore.set("script", script);
+        ObjectNode fullQuery = MAPPER.createObjectNode();
+        fullQuery.set("script_score", scriptScore);
+        try {
+            return MAPPER.writeValueAsString(fullQuery);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize script_score query", e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.genericembedding;
+
+/**
+ * Arithmetic on embedding vectors.
+ */
+public final class Vectors {
+
+    private Vectors() {
+    }
+
+    /**
+     * Returns a unit-length copy of {@code vector}, or the vector itself if it is all zeros.
+     */
+    public static float[] l2Normalize(float[] vector) {
+        double sumOfSquares = 0;
+        for (float value : vector) {
+            sumOfSquares += (double) value * value;
+        }
+        if (sumOfSquares == 0) {
+            return vector;
+        }
+        float scale = (float) (1.0 / Math.sqrt(sumOfSquares));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+}
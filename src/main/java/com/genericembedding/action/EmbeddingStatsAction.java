@@ -0,0 +1,298 @@
+package com.genericembedding.action;
+
+import com.genericembedding.EmbeddingStats;
+import org.elasticsearch.action.ActionType;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Writeable;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.xcontent.ToXContentFragment;
+import org.elasticsearch.xcontent.ToXContentObject;
+import org.elasticsearch.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the embedding counters, latency histograms, cache statistics and rate limiter state of
+ * every node. The coordinating node merges them into cluster totals, with cluster percentiles computed
+ * from the merged histograms, and also lists each node on its own so that a slow or throttled node
+ * stands out.
+ */
+public class EmbeddingStatsAction {
+
+    public static final String NAME = "cluster:monitor/ai_embed/stats";
+    public static final ActionType<Response> INSTANCE = new ActionType<>(NAME);
+
+    private EmbeddingStatsAction() {
+    }
+
+    public static class Request extends BaseNodesRequest<Request> {
+        public Request(String... nodeIds) {
+            super(nodeIds);
+        }
+    }
+
+    public static class NodeRequest extends TransportRequest {
+        public NodeRequest() {
+        }
+
+        public NodeRequest(StreamInput in) throws IOException {
+            super(in);
+        }
+    }
+
+    /**
+     * Sizes and hit counts of the ingest embedding cache and the search handlers' query cache.
+     */
+    public static class CacheStats implements ToXContentFragment, Writeable {
+        private final long entries;
+        private final long sizeInBytes;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long queryEntries;
+        private final long queryHits;
+        private final long queryMisses;
+        private final long queryCoalesced;
+
+        public CacheStats(long entries, long sizeInBytes, long hits, long misses, long evictions,
+                          long queryEntries, long queryHits, long queryMisses, long queryCoalesced) {
+            this.entries = entries;
+            this.sizeInBytes = sizeInBytes;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.queryEntries = queryEntries;
+            this.queryHits = queryHits;
+            this.queryMisses = queryMisses;
+            this.queryCoalesced = queryCoalesced;
+        }
+
+        public CacheStats(StreamInput in) throws IOException {
+            this(in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong(),
+                in.readVLong(), in.readVLong(), in.readVLong(), in.readVLong());
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(entries);
+            out.writeVLong(sizeInBytes);
+            out.writeVLong(hits);
+            out.writeVLong(misses);
+            out.writeVLong(evictions);
+            out.writeVLong(queryEntries);
+            out.writeVLong(queryHits);
+            out.writeVLong(queryMisses);
+            out.writeVLong(queryCoalesced);
+        }
+
+        public CacheStats merge(CacheStats other) {
+            return new CacheStats(entries + other.entries, sizeInBytes + other.sizeInBytes, hits + other.hits,
+                misses + other.misses, evictions + other.evictions, queryEntries + other.queryEntries,
+                queryHits + other.queryHits, queryMisses + other.queryMisses, queryCoalesced + other.queryCoalesced);
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject("embedding_cache");
+            builder.field("entries", entries);
+            builder.field("size_in_bytes", sizeInBytes);
+            builder.field("hits", hits);
+            builder.field("misses", misses);
+            builder.field("evictions", evictions);
+            builder.endObject();
+            builder.startObject("query_cache");
+            builder.field("entries", queryEntries);
+            builder.field("hits", queryHits);
+            builder.field("misses", queryMisses);
+            builder.field("coalesced", queryCoalesced);
+            return builder.endObject();
+        }
+    }
+
+    /**
+     * A node's share of one API's limits. {@code key} is the registry key, a hash, so no credential
+     * leaves the node; {@code api} names the model and endpoint.
+     */
+    public static class LimiterState implements ToXContentObject, Writeable {
+        private final String key;
+        private final String api;
+        private final double share;
+        private final boolean active;
+        private final int maxRequestsPerSecond;
+        private final long maxTokensPerMinute;
+
+        public LimiterState(String key, String api, double share, boolean active, int maxRequestsPerSecond, long maxTokensPerMinute) {
+            this.key = key;
+            this.api = api;
+            this.share = share;
+            this.active = active;
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            this.maxTokensPerMinute = maxTokensPerMinute;
+        }
+
+        public LimiterState(StreamInput in) throws IOException {
+            this(in.readString(), in.readString(), in.readDouble(), in.readBoolean(), in.readVInt(), in.readVLong());
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeString(key);
+            out.writeString(api);
+            out.writeDouble(share);
+            out.writeBoolean(active);
+            out.writeVInt(maxRequestsPerSecond);
+            out.writeVLong(maxTokensPerMinute);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public double getShare() {
+            return share;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field("api", api);
+            builder.field("active", active);
+            builder.field("share", share);
+            builder.field("max_requests_per_second", maxRequestsPerSecond * share);
+            if (maxTokensPerMinute > 0) {
+                builder.field("max_tokens_per_minute", (long) (maxTokensPerMinute * share));
+            }
+            return builder.endObject();
+        }
+    }
+
+    public static class NodeResponse extends BaseNodeResponse {
+        private final EmbeddingStats.Snapshot stats;
+        private final CacheStats caches;
+        private final List<LimiterState> limits;
+
+        public NodeResponse(DiscoveryNode node, EmbeddingStats.Snapshot stats, CacheStats caches, List<LimiterState> limits) {
+            super(node);
+            this.stats = stats;
+            this.caches = caches;
+            this.limits = limits;
+        }
+
+        public NodeResponse(StreamInput in) throws IOException {
+            super(in);
+            this.stats = new EmbeddingStats.Snapshot(in);
+            this.caches = new CacheStats(in);
+            this.limits = in.readCollectionAsList(LimiterState::new);
+        }
+
+        public EmbeddingStats.Snapshot getStats() {
+            return stats;
+        }
+
+        public CacheStats getCaches() {
+            return caches;
+        }
+
+        public List<LimiterState> getLimits() {
+            return limits;
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            stats.writeTo(out);
+            caches.writeTo(out);
+            out.writeCollection(limits);
+        }
+    }
+
+    public static class Response extends BaseNodesResponse<NodeResponse> implements ToXContentFragment {
+        public Response(ClusterName clusterName, List<NodeResponse> nodes, List<FailedNodeException> failures) {
+            super(clusterName, nodes, failures);
+        }
+
+        @Override
+        protected List<NodeResponse> readNodesFrom(StreamInput in) throws IOException {
+            return in.readCollectionAsList(NodeResponse::new);
+        }
+
+        @Override
+        protected void writeNodesTo(StreamOutput out, List<NodeResponse> nodes) throws IOException {
+            out.writeCollection(nodes);
+        }
+
+        /**
+         * The stats of all responding nodes added up.
+         */
+        public EmbeddingStats.Snapshot mergedStats() {
+            EmbeddingStats.Snapshot merged = EmbeddingStats.Snapshot.empty();
+            for (NodeResponse node : getNodes()) {
+                merged = merged.merge(node.stats);
+            }
+            return merged;
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject("cluster");
+            mergedStats().toXContent(builder, params);
+            CacheStats caches = new CacheStats(0, 0, 0, 0, 0, 0, 0, 0, 0);
+            // Per API: how many nodes hold its limits, how many are sending, and the sum of their shares
+            Map<String, long[]> nodeCounts = new TreeMap<>();
+            Map<String, Double> shares = new TreeMap<>();
+            Map<String, String> labels = new TreeMap<>();
+            for (NodeResponse node : getNodes()) {
+                caches = caches.merge(node.caches);
+                for (LimiterState limit : node.limits) {
+                    long[] counts = nodeCounts.computeIfAbsent(limit.key, k -> new long[2]);
+                    counts[0]++;
+                    counts[1] += limit.active ? 1 : 0;
+                    shares.merge(limit.key, limit.share, Double::sum);
+                    labels.put(limit.key, limit.api);
+                }
+            }
+            builder.startObject("caches");
+            caches.toXContent(builder, params);
+            builder.endObject();
+            builder.startArray("limits");
+            for (Map.Entry<String, long[]> entry : nodeCounts.entrySet()) {
+                builder.startObject();
+                builder.field("api", labels.get(entry.getKey()));
+                builder.field("nodes", entry.getValue()[0]);
+                builder.field("active_nodes", entry.getValue()[1]);
+                builder.field("share", shares.get(entry.getKey()));
+                builder.endObject();
+            }
+            builder.endArray();
+            builder.endObject();
+
+            builder.startObject("nodes");
+            for (NodeResponse node : getNodes()) {
+                builder.startObject(node.getNode().getId());
+                builder.field("name", node.getNode().getName());
+                builder.field("transport_address", node.getNode().getAddress().toString());
+                node.stats.toXContent(builder, params);
+                builder.startObject("caches");
+                node.caches.toXContent(builder, params);
+                builder.endObject();
+                builder.field("limits", node.limits);
+                builder.endObject();
+            }
+            return builder.endObject();
+        }
+    }
+}
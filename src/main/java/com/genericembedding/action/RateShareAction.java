@@ -0,0 +1,101 @@
+package com.genericembedding.action;
+
+import org.elasticsearch.action.ActionType;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.transport.TransportRequest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Asks every node which APIs it holds limits for and which of those it is currently sending to, so
+ * that each node can work out its share of the account-wide rate limits. All nodes are asked, since
+ * the search handlers send from whichever node coordinates the search, not only from ingest nodes.
+ */
+public class RateShareAction {
+
+    public static final String NAME = "cluster:monitor/ai_embed/rate_share";
+    public static final ActionType<Response> INSTANCE = new ActionType<>(NAME);
+
+    private RateShareAction() {
+    }
+
+    public static class Request extends BaseNodesRequest<Request> {
+        public Request() {
+            super(Strings.EMPTY_ARRAY);
+        }
+    }
+
+    public static class NodeRequest extends TransportRequest {
+        public NodeRequest() {
+        }
+
+        public NodeRequest(StreamInput in) throws IOException {
+            super(in);
+        }
+    }
+
+    public static class NodeResponse extends BaseNodeResponse {
+        private final Set<String> heldApis;
+        private final Set<String> activeApis;
+
+        public NodeResponse(DiscoveryNode node, Set<String> heldApis, Set<String> activeApis) {
+            super(node);
+            this.heldApis = heldApis;
+            this.activeApis = activeApis;
+        }
+
+        public NodeResponse(StreamInput in) throws IOException {
+            super(in);
+            this.heldApis = in.readCollectionAsSet(StreamInput::readString);
+            this.activeApis = in.readCollectionAsSet(StreamInput::readString);
+        }
+
+        /**
+         * Registry keys of the APIs this node holds limits for, whether or not it is sending to them.
+         */
+        public Set<String> getHeldApis() {
+            return heldApis;
+        }
+
+        /**
+         * Registry keys of the APIs this node sent requests to recently. Keys are hashes, so no
+         * credential leaves the node.
+         */
+        public Set<String> getActiveApis() {
+            return activeApis;
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeStringCollection(heldApis);
+            out.writeStringCollection(activeApis);
+        }
+    }
+
+    public static class Response extends BaseNodesResponse<NodeResponse> {
+        public Response(ClusterName clusterName, List<NodeResponse> nodes, List<FailedNodeException> failures) {
+            super(clusterName, nodes, failures);
+        }
+
+        @Override
+        protected List<NodeResponse> readNodesFrom(StreamInput in) throws IOException {
+            return in.readCollectionAsList(NodeResponse::new);
+        }
+
+        @Override
+        protected void writeNodesTo(StreamOutput out, List<NodeResponse> nodes) throws IOException {
+            out.writeCollection(nodes);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.genericembedding.action;
+
+import com.genericembedding.ApiLimits;
+import com.genericembedding.ClusterRateShares;
+import com.genericembedding.EmbeddingCache;
+import com.genericembedding.EmbeddingStats;
+import com.genericembedding.ProviderRegistry;
+import com.genericembedding.QueryEmbeddingCache;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class TransportEmbeddingStatsAction extends TransportNodesAction<
+    EmbeddingStatsAction.Request,
+    EmbeddingStatsAction.Response,
+    EmbeddingStatsAction.NodeRequest,
+    EmbeddingStatsAction.NodeResponse> {
+
+    private final EmbeddingStats stats;
+    private final EmbeddingCache embeddingCache;
+    private final QueryEmbeddingCache queryCache;
+    private final ProviderRegistry registry;
+    private final ClusterRateShares rateShares;
+
+    @Inject
+    public TransportEmbeddingStatsAction(ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                         ActionFilters actionFilters, EmbeddingStats stats, EmbeddingCache embeddingCache,
+                                         QueryEmbeddingCache queryCache, ProviderRegistry registry, ClusterRateShares rateShares) {
+        super(
+            EmbeddingStatsAction.NAME,
+            clusterService,
+            transportService,
+            actionFilters,
+            EmbeddingStatsAction.NodeRequest::new,
+            threadPool.executor(ThreadPool.Names.MANAGEMENT)
+        );
+        this.stats = stats;
+        this.embeddingCache = embeddingCache;
+        this.queryCache = queryCache;
+        this.registry = registry;
+        this.rateShares = rateShares;
+    }
+
+    @Override
+    protected EmbeddingStatsAction.Response newResponse(EmbeddingStatsAction.Request request, List<EmbeddingStatsAction.NodeResponse> nodes,
+                                                        List<FailedNodeException> failures) {
+        return new EmbeddingStatsAction.Response(clusterService.getClusterName(), nodes, failures);
+    }
+
+    @Override
+    protected EmbeddingStatsAction.NodeRequest newNodeRequest(EmbeddingStatsAction.Request request) {
+        return new EmbeddingStatsAction.NodeRequest();
+    }
+
+    @Override
+    protected EmbeddingStatsAction.NodeResponse newNodeResponse(StreamInput in, DiscoveryNode node) throws IOException {
+        return new EmbeddingStatsAction.NodeResponse(in);
+    }
+
+    @Override
+    protected EmbeddingStatsAction.NodeResponse nodeOperation(EmbeddingStatsAction.NodeRequest request, Task task) {
+        EmbeddingStatsAction.CacheStats caches = new EmbeddingStatsAction.CacheStats(
+            embeddingCache.size(),
+            embeddingCache.sizeInBytes(),
+            embeddingCache.getHitCount(),
+            embeddingCache.getMissCount(),
+            embeddingCache.getEvictionCount(),
+            queryCache.size(),
+            queryCache.getHitCount(),
+            queryCache.getMissCount(),
+            queryCache.getCoalescedCount()
+        );
+        List<EmbeddingStatsAction.LimiterState> limits = new ArrayList<>();
+        for (Map.Entry<String, ApiLimits> entry : registry.apis().entrySet()) {
+            ApiLimits api = entry.getValue();
+            limits.add(new EmbeddingStatsAction.LimiterState(
+                entry.getKey(),
+                registry.apiLabel(entry.getKey()),
+                api.getShare(),
+                api.isActive(rateShares.getIdleWindowNanos()),
+                api.getMaxRequestsPerSecond(),
+                api.getMaxTokensPerMinute()
+            ));
+        }
+        return new EmbeddingStatsAction.NodeResponse(clusterService.localNode(), stats.snapshot(), caches, limits);
+    }
+}
@@ -0,0 +1,64 @@
+package com.genericembedding.action;
+
+import com.genericembedding.ClusterRateShares;
+import com.genericembedding.ProviderRegistry;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.tasks.Task;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.List;
+
+public class TransportRateShareAction extends TransportNodesAction<
+    RateShareAction.Request,
+    RateShareAction.Response,
+    RateShareAction.NodeRequest,
+    RateShareAction.NodeResponse> {
+
+    private final ProviderRegistry registry;
+    private final ClusterRateShares rateShares;
+
+    @Inject
+    public TransportRateShareAction(ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                    ActionFilters actionFilters, ProviderRegistry registry, ClusterRateShares rateShares) {
+        super(
+            RateShareAction.NAME,
+            clusterService,
+            transportService,
+            actionFilters,
+            RateShareAction.NodeRequest::new,
+            threadPool.executor(ThreadPool.Names.MANAGEMENT)
+        );
+        this.registry = registry;
+        this.rateShares = rateShares;
+    }
+
+    @Override
+    protected RateShareAction.Response newResponse(RateShareAction.Request request, List<RateShareAction.NodeResponse> nodes,
+                                                   List<FailedNodeException> failures) {
+        return new RateShareAction.Response(clusterService.getClusterName(), nodes, failures);
+    }
+
+    @Override
+    protected RateShareAction.NodeRequest newNodeRequest(RateShareAction.Request request) {
+        return new RateShareAction.NodeRequest();
+    }
+
+    @Override
+    protected RateShareAction.NodeResponse newNodeResponse(StreamInput in, DiscoveryNode node) throws IOException {
+        return new RateShareAction.NodeResponse(in);
+    }
+
+    @Override
+    protected RateShareAction.NodeResponse nodeOperation(RateShareAction.NodeRequest request, Task task) {
+        return new RateShareAction.NodeResponse(clusterService.localNode(), registry.heldApis(),
+            registry.activeApis(rateShares.getIdleWindowNanos()));
+    }
+}
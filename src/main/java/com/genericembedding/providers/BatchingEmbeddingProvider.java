@@ -0,0 +1,223 @@
+package com.genericembedding.providers;
+
+import com.genericembedding.EmbeddingExecutor;
+import com.genericembedding.EmbeddingStats;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Coalesces {@link #embedAsync(List)} calls from concurrently ingested documents into a single
+ * provider request.
+ *
+ * Requests are queued until the pending batch reaches {@code maxInputs} texts or {@code maxBytes}
+ * of UTF-8 input, or until {@code lingerMs} has passed since the first queued request, whichever
+ * comes first. The combined response is then sliced back into one response per caller, in the
+ * order each caller submitted its texts. A text that several callers of the same batch submitted is
+ * sent once and its vector handed to each of them. Synchronous {@link #embed(List)} calls bypass the
+ * batcher.
+ */
+public class BatchingEmbeddingProvider implements EmbeddingProvider {
+
+    private static final Logger logger = LogManager.getLogger(BatchingEmbeddingProvider.class);
+
+    private final EmbeddingProvider delegate;
+    private final EmbeddingExecutor executor;
+    private final int maxInputs;
+    private final long maxBytes;
+    private final long lingerMs;
+    private final EmbeddingStats stats;
+
+    private final Object lock = new Object();
+    private List<PendingRequest> pending = new ArrayList<>();
+    private int pendingInputs;
+    private long pendingBytes;
+    private long generation;
+    private boolean flushScheduled;
+
+    public BatchingEmbeddingProvider(EmbeddingProvider delegate, EmbeddingExecutor executor, int maxInputs, long maxBytes, long lingerMs) {
+        this(delegate, executor, maxInputs, maxBytes, lingerMs, new EmbeddingStats());
+    }
+
+    public BatchingEmbeddingProvider(EmbeddingProvider delegate, EmbeddingExecutor executor, int maxInputs, long maxBytes, long lingerMs,
+                                     EmbeddingStats stats) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.maxInputs = maxInputs;
+        this.maxBytes = maxBytes;
+        this.lingerMs = lingerMs;
+        this.stats = stats;
+    }
+
+    @Override
+    public ProviderResponse embed(List<ProviderRequest> requests) throws IOException {
+        return delegate.embed(requests);
+    }
+
+    @Override
+    public CompletableFuture<ProviderResponse> embedAsync(List<ProviderRequest> requests) {
+        long bytes = 0;
+        for (ProviderRequest request : requests) {
+            bytes += utf8Length(request.getText());
+        }
+        if (requests.size() >= maxInputs || bytes >= maxBytes) {
+            return delegate.embedAsync(requests);
+        }
+
+        PendingRequest request = new PendingRequest(requests, bytes);
+        List<PendingRequest> overflow = null;
+        List<PendingRequest> full = null;
+        long scheduleGeneration = -1;
+        synchronized (lock) {
+            if (!pending.isEmpty() && (pendingInputs + requests.size() > maxInputs || pendingBytes + bytes > maxBytes)) {
+                overflow = drain();
+            }
+            pending.add(request);
+            pendingInputs += requests.size();
+            pendingBytes += bytes;
+            if (pendingInputs >= maxInputs || pendingBytes >= maxBytes) {
+                full = drain();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduleGeneration = generation;
+            }
+        }
+
+        if (overflow != null) {
+            send(overflow);
+        }
+        if (full != null) {
+            send(full);
+        }
+        if (scheduleGeneration >= 0) {
+            long expected = scheduleGeneration;
+            executor.schedule(lingerMs, () -> flush(expected));
+        }
+        return request.future;
+    }
+
+    private void flush(long expectedGeneration) {
+        List<PendingRequest> batch;
+        synchronized (lock) {
+            if (generation != expectedGeneration || pending.isEmpty()) {
+                // Already sent because it filled up before the linger time elapsed
+                return;
+            }
+            batch = drain();
+        }
+        send(batch);
+    }
+
+    private List<PendingRequest> drain() {
+        List<PendingRequest> batch = pending;
+        pending = new ArrayList<>();
+        pendingInputs = 0;
+        pendingBytes = 0;
+        generation++;
+        flushScheduled = false;
+        return batch;
+    }
+
+    private void send(List<PendingRequest> batch) {
+        List<ProviderRequest> combined = new ArrayList<>();
+        for (PendingRequest request : batch) {
+            combined.addAll(request.requests);
+        }
+        DistinctInputs distinct = DistinctInputs.of(combined);
+        stats.recordDuplicates(distinct.duplicates(), distinct.duplicateBytes());
+        logger.debug("Sending coalesced embedding request with {} inputs ({} duplicates) from {} callers",
+            distinct.requests().size(), distinct.duplicates(), batch.size());
+
+        CompletableFuture<ProviderResponse> future;
+        try {
+            future = delegate.embedAsync(distinct.requests());
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((response, failure) -> {
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                for (PendingRequest request : batch) {
+                    request.future.completeExceptionally(cause);
+                }
+                return;
+            }
+            if (response.getVectors().size() != distinct.requests().size()) {
+                IllegalStateException e = new IllegalStateException("Number of returned embeddings (" + response.getVectors().size()
+                    + ") does not match number of batched inputs (" + distinct.requests().size() + ")");
+                for (PendingRequest request : batch) {
+                    request.future.completeExceptionally(e);
+                }
+                return;
+            }
+            List<float[]> vectors = distinct.expand(response.getVectors());
+            long totalBytes = 0;
+            for (PendingRequest request : batch) {
+                totalBytes += request.bytes;
+            }
+            int offset = 0;
+            for (PendingRequest request : batch) {
+                int end = offset + request.requests.size();
+                List<float[]> slice = new ArrayList<>(vectors.subList(offset, end));
+                offset = end;
+                request.future.complete(new ProviderResponse(slice, apportionUsage(response, request.bytes, totalBytes)));
+            }
+        });
+    }
+
+    /**
+     * The provider reports usage for the whole batch; each caller gets a share proportional to
+     * the size of its own input so per-document usage still roughly adds up to the batch total.
+     */
+    private static Map<String, Object> apportionUsage(ProviderResponse response, long bytes, long totalBytes) {
+        if (!response.hasUsage()) {
+            return null;
+        }
+        double share = totalBytes == 0 ? 0 : (double) bytes / totalBytes;
+        Map<String, Object> usage = new HashMap<>();
+        for (Map.Entry<String, Object> entry : response.getUsage().entrySet()) {
+            if (entry.getValue() instanceof Number) {
+                usage.put(entry.getKey(), (int) Math.round(((Number) entry.getValue()).doubleValue() * share));
+            } else {
+                usage.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return usage;
+    }
+
+    static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static class PendingRequest {
+        private final List<ProviderRequest> requests;
+        private final long bytes;
+        private final CompletableFuture<ProviderResponse> future = new CompletableFuture<>();
+
+        PendingRequest(List<ProviderRequest> requests, long bytes) {
+            this.requests = requests;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.genericembedding.providers;
+
+import com.genericembedding.EmbeddingCache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Serves embeddings from the node's {@link EmbeddingCache} and only sends the texts it has not
+ * seen before to the wrapped provider. Usage reported on a response covers the cache misses only.
+ */
+public class CachingEmbeddingProvider implements EmbeddingProvider {
+
+    private final EmbeddingProvider delegate;
+    private final EmbeddingCache cache;
+    private final String apiUrl;
+    private final String model;
+
+    public CachingEmbeddingProvider(EmbeddingProvider delegate, EmbeddingCache cache, String apiUrl, String model) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.apiUrl = apiUrl;
+        this.model = model;
+    }
+
+    @Override
+    public ProviderResponse embed(List<ProviderRequest> requests) throws IOException {
+        Lookup lookup = lookup(requests);
+        if (lookup.misses.isEmpty()) {
+            return lookup.complete(null);
+        }
+        return lookup.complete(delegate.embed(lookup.misses));
+    }
+
+    @Override
+    public CompletableFuture<ProviderResponse> embedAsync(List<ProviderRequest> requests) {
+        Lookup lookup = lookup(requests);
+        if (lookup.misses.isEmpty()) {
+            return CompletableFuture.completedFuture(lookup.complete(null));
+        }
+        return delegate.embedAsync(lookup.misses).thenApply(lookup::complete);
+    }
+
+    private Lookup lookup(List<ProviderRequest> requests) {
+        Lookup lookup = new Lookup(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            String key = EmbeddingCache.key(apiUrl, model, requests.get(i).getText());
+            lookup.keys[i] = key;
+            lookup.vectors[i] = cache.get(key);
+            if (lookup.vectors[i] == null) {
+                lookup.misses.add(requests.get(i));
+            }
+        }
+        return lookup;
+    }
+
+    private class Lookup {
+        private final String[] keys;
+        private final float[][] vectors;
+        private final List<ProviderRequest> misses = new ArrayList<>();
+
+        Lookup(int size) {
+            this.keys = new String[size];
+            this.vectors = new float[size][];
+        }
+
+        ProviderResponse complete(ProviderResponse missResponse) {
+            if (missResponse != null && missResponse.getVectors().size() != misses.size()) {
+                throw new IllegalStateException("Number of returned embeddings (" + missResponse.getVectors().size()
+                    + ") does not match number of uncached inputs (" + misses.size() + ")");
+            }
+            List<float[]> result = new ArrayList<>(vectors.length);
+            int next = 0;
+            for (int i = 0; i < vectors.length; i++) {
+                if (vectors[i] != null) {
+                    result.add(vectors[i]);
+                } else {
+                    float[] vector = missResponse.getVectors().get(next++);
+                    cache.put(keys[i], vector);
+                    result.add(vector);
+                }
+            }
+            return new ProviderResponse(result, missResponse != null ? missResponse.getUsage() : null);
+        }
+    }
+}
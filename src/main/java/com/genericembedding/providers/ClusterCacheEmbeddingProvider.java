@@ -0,0 +1,85 @@
+package com.genericembedding.providers;
+
+import com.genericembedding.ClusterEmbeddingCache;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Checks the {@link ClusterEmbeddingCache} with one multi-get per (coalesced) request before
+ * calling the wrapped provider, and writes newly fetched vectors back in bulk. A failed lookup is
+ * treated as a miss. Synchronous {@link #embed(List)} calls bypass the cluster cache, since they
+ * would have to block on a search round trip.
+ */
+public class ClusterCacheEmbeddingProvider implements EmbeddingProvider {
+
+    private static final Logger logger = LogManager.getLogger(ClusterCacheEmbeddingProvider.class);
+
+    private final EmbeddingProvider delegate;
+    private final ClusterEmbeddingCache cache;
+    private final String model;
+
+    public ClusterCacheEmbeddingProvider(EmbeddingProvider delegate, ClusterEmbeddingCache cache, String model) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.model = model;
+    }
+
+    @Override
+    public ProviderResponse embed(List<ProviderRequest> requests) throws IOException {
+        return delegate.embed(requests);
+    }
+
+    @Override
+    public CompletableFuture<ProviderResponse> embedAsync(List<ProviderRequest> requests) {
+        List<String> ids = new ArrayList<>(requests.size());
+        for (ProviderRequest request : requests) {
+            ids.add(ClusterEmbeddingCache.id(model, request.getText()));
+        }
+        return cache.getAll(ids).exceptionally(e -> {
+            logger.warn("Cluster embedding cache lookup failed, embedding all inputs", e);
+            return Collections.emptyMap();
+        }).thenCompose(found -> {
+            List<ProviderRequest> misses = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                if (!found.containsKey(ids.get(i))) {
+                    misses.add(requests.get(i));
+                }
+            }
+            if (misses.isEmpty()) {
+                return CompletableFuture.completedFuture(merge(ids, found, null));
+            }
+            return delegate.embedAsync(misses).thenApply(response -> merge(ids, found, response));
+        });
+    }
+
+    private ProviderResponse merge(List<String> ids, Map<String, float[]> found, ProviderResponse missResponse) {
+        int missCount = ids.size() - (int) ids.stream().filter(found::containsKey).count();
+        if (missResponse != null && missResponse.getVectors().size() != missCount) {
+            throw new IllegalStateException("Number of returned embeddings (" + missResponse.getVectors().size()
+                + ") does not match number of uncached inputs (" + missCount + ")");
+        }
+        List<float[]> result = new ArrayList<>(ids.size());
+        Map<String, float[]> fetched = new HashMap<>();
+        int next = 0;
+        for (String id : ids) {
+            float[] cached = found.get(id);
+            if (cached != null) {
+                result.add(cached);
+            } else {
+                float[] vector = missResponse.getVectors().get(next++);
+                fetched.put(id, vector);
+                result.add(vector);
+            }
+        }
+        cache.putAll(model, fetched);
+        return new ProviderResponse(result, missResponse != null ? missResponse.getUsage() : null);
+    }
+}
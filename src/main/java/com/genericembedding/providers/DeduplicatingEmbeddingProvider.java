@@ -0,0 +1,54 @@
+package com.genericembedding.providers;
+
+import com.genericembedding.EmbeddingStats;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends each distinct text of a call once, so a document whose fields or passages repeat the same
+ * text pays for it once. Requests that share a text get the same vector.
+ */
+public class DeduplicatingEmbeddingProvider implements EmbeddingProvider {
+
+    private final EmbeddingProvider delegate;
+    private final EmbeddingStats stats;
+
+    public DeduplicatingEmbeddingProvider(EmbeddingProvider delegate, EmbeddingStats stats) {
+        this.delegate = delegate;
+        this.stats = stats;
+    }
+
+    @Override
+    public ProviderResponse embed(List<ProviderRequest> requests) throws IOException {
+        DistinctInputs distinct = distinct(requests);
+        if (distinct.duplicates() == 0) {
+            return delegate.embed(requests);
+        }
+        return expand(distinct, delegate.embed(distinct.requests()));
+    }
+
+    @Override
+    public CompletableFuture<ProviderResponse> embedAsync(List<ProviderRequest> requests) {
+        DistinctInputs distinct = distinct(requests);
+        if (distinct.duplicates() == 0) {
+            return delegate.embedAsync(requests);
+        }
+        return delegate.embedAsync(distinct.requests()).thenApply(response -> expand(distinct, response));
+    }
+
+    private DistinctInputs distinct(List<ProviderRequest> requests) {
+        DistinctInputs distinct = DistinctInputs.of(requests);
+        stats.recordDuplicates(distinct.duplicates(), distinct.duplicateBytes());
+        return distinct;
+    }
+
+    private static ProviderResponse expand(DistinctInputs distinct, ProviderResponse response) {
+        if (response.getVectors().size() != distinct.requests().size()) {
+            throw new IllegalStateException("Number of returned embeddings (" + response.getVectors().size()
+                + ") does not match number of distinct inputs (" + distinct.requests().size() + ")");
+        }
+        return new ProviderResponse(distinct.expand(response.getVectors()), response.getUsage());
+    }
+}
@@ -0,0 +1,90 @@
+package com.genericembedding.providers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The distinct texts of a list of requests, and for every request the position of its text among them.
+ *
+ * When there are no duplicates the original list is used as is. Otherwise {@link #expand(List)} maps
+ * each distinct vector back to every request that asked for it, handing out the same array rather
+ * than a copy; vectors are never modified once returned by a provider.
+ */
+public final class DistinctInputs {
+
+    private final List<ProviderRequest> requests;
+    private final int[] positions;
+    private final int inputs;
+    private final long duplicateBytes;
+
+    private DistinctInputs(List<ProviderRequest> requests, int[] positions, int inputs, long duplicateBytes) {
+        this.requests = requests;
+        this.positions = positions;
+        this.inputs = inputs;
+        this.duplicateBytes = duplicateBytes;
+    }
+
+    public static DistinctInputs of(List<ProviderRequest> requests) {
+        if (requests.size() < 2) {
+            return new DistinctInputs(requests, null, requests.size(), 0);
+        }
+        Map<String, Integer> seen = new HashMap<>(requests.size() * 4 / 3 + 1);
+        List<ProviderRequest> distinct = null;
+        int[] positions = new int[requests.size()];
+        long duplicateBytes = 0;
+        for (int i = 0; i < requests.size(); i++) {
+            ProviderRequest request = requests.get(i);
+            Integer position = seen.putIfAbsent(request.getText(), distinct != null ? distinct.size() : i);
+            if (position == null) {
+                positions[i] = distinct != null ? distinct.size() : i;
+                if (distinct != null) {
+                    distinct.add(request);
+                }
+            } else {
+                if (distinct == null) {
+                    // First duplicate: everything before it was distinct and kept its position
+                    distinct = new ArrayList<>(requests.subList(0, i));
+                }
+                positions[i] = position;
+                duplicateBytes += BatchingEmbeddingProvider.utf8Length(request.getText());
+            }
+        }
+        return distinct == null
+            ? new DistinctInputs(requests, null, requests.size(), 0)
+            : new DistinctInputs(distinct, positions, requests.size(), duplicateBytes);
+    }
+
+    /**
+     * The requests to send, one per distinct text.
+     */
+    public List<ProviderRequest> requests() {
+        return requests;
+    }
+
+    public int duplicates() {
+        return inputs - requests.size();
+    }
+
+    /**
+     * UTF-8 length of the texts that were left out as duplicates.
+     */
+    public long duplicateBytes() {
+        return duplicateBytes;
+    }
+
+    /**
+     * Maps the vectors of {@link #requests()} back to one vector per original request.
+     */
+    public List<float[]> expand(List<float[]> vectors) {
+        if (positions == null) {
+            return vectors;
+        }
+        List<float[]> expanded = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            expanded.add(vectors.get(position));
+        }
+        return expanded;
+    }
+}
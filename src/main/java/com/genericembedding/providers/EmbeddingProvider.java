@@ -2,6 +2,7 @@ package com.genericembedding.providers;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface EmbeddingProvider {
     /**
@@ -11,4 +12,19 @@ public interface EmbeddingProvider {
      * @throws IOException If the API call fails.
      */
     ProviderResponse embed(List<ProviderRequest> requests) throws IOException;
+
+    /**
+     * Non-blocking variant of {@link #embed(List)}. The returned future completes once the
+     * vectors are available, or exceptionally if the API call fails. The default
+     * implementation simply runs {@link #embed(List)} on the calling thread.
+     * @param requests The request objects containing the texts to embed.
+     * @return A future completed with the response object.
+     */
+    default CompletableFuture<ProviderResponse> embedAsync(List<ProviderRequest> requests) {
+        try {
+            return CompletableFuture.completedFuture(embed(requests));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
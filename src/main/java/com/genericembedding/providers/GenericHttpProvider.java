@@ -1,19 +1,26 @@
 package com.genericembedding.providers;
 
+import com.genericembedding.ApiLimits;
 import com.genericembedding.HttpHelper;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class GenericHttpProvider implements EmbeddingProvider {
     private final HttpHelper httpHelper;
 
-    public GenericHttpProvider(Map<String, Object> config) {
-        this.httpHelper = new HttpHelper(config);
+    public GenericHttpProvider(Map<String, Object> config, ProviderContext context, ApiLimits limits) {
+        this.httpHelper = new HttpHelper(config, context, limits);
     }
 
     @Override
     public ProviderResponse embed(List<ProviderRequest> requests) throws IOException {
         return httpHelper.getEmbeddings(requests);
     }
+
+    @Override
+    public CompletableFuture<ProviderResponse> embedAsync(List<ProviderRequest> requests) {
+        return httpHelper.getEmbeddingsAsync(requests);
+    }
 }
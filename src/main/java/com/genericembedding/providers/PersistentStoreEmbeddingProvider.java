@@ -0,0 +1,103 @@
+package com.genericembedding.providers;
+
+import com.genericembedding.PersistentEmbeddingStore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Consults the node's {@link PersistentEmbeddingStore} before calling the wrapped provider and
+ * appends every newly fetched vector to it. Stored vectors are read straight from the
+ * memory-mapped file into the response arrays with a single bulk copy.
+ *
+ * That copy is the only one a hit pays, and it is kept on purpose: the heap cache above this
+ * provider holds on to response vectors, and a view retained there would keep a superseded store
+ * file mapped after compaction, so it could never be deleted.
+ */
+public class PersistentStoreEmbeddingProvider implements EmbeddingProvider {
+
+    private static final Logger logger = LogManager.getLogger(PersistentStoreEmbeddingProvider.class);
+
+    private final EmbeddingProvider delegate;
+    private final PersistentEmbeddingStore store;
+    private final String model;
+
+    public PersistentStoreEmbeddingProvider(EmbeddingProvider delegate, PersistentEmbeddingStore store, String model) {
+        this.delegate = delegate;
+        this.store = store;
+        this.model = model;
+    }
+
+    @Override
+    public ProviderResponse embed(List<ProviderRequest> requests) throws IOException {
+        Lookup lookup = lookup(requests);
+        if (lookup.misses.isEmpty()) {
+            return lookup.complete(null);
+        }
+        return lookup.complete(delegate.embed(lookup.misses));
+    }
+
+    @Override
+    public CompletableFuture<ProviderResponse> embedAsync(List<ProviderRequest> requests) {
+        Lookup lookup = lookup(requests);
+        if (lookup.misses.isEmpty()) {
+            return CompletableFuture.completedFuture(lookup.complete(null));
+        }
+        return delegate.embedAsync(lookup.misses).thenApply(lookup::complete);
+    }
+
+    private Lookup lookup(List<ProviderRequest> requests) {
+        Lookup lookup = new Lookup(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            String key = PersistentEmbeddingStore.key(model, requests.get(i).getText());
+            lookup.keys[i] = key;
+            lookup.vectors[i] = store.get(key);
+            if (lookup.vectors[i] == null) {
+                lookup.misses.add(requests.get(i));
+            }
+        }
+        return lookup;
+    }
+
+    private class Lookup {
+        private final String[] keys;
+        private final FloatBuffer[] vectors;
+        private final List<ProviderRequest> misses = new ArrayList<>();
+
+        Lookup(int size) {
+            this.keys = new String[size];
+            this.vectors = new FloatBuffer[size];
+        }
+
+        ProviderResponse complete(ProviderResponse missResponse) {
+            if (missResponse != null && missResponse.getVectors().size() != misses.size()) {
+                throw new IllegalStateException("Number of returned embeddings (" + missResponse.getVectors().size()
+                    + ") does not match number of unstored inputs (" + misses.size() + ")");
+            }
+            List<float[]> result = new ArrayList<>(vectors.length);
+            int next = 0;
+            for (int i = 0; i < vectors.length; i++) {
+                if (vectors[i] != null) {
+                    float[] vector = new float[vectors[i].remaining()];
+                    vectors[i].get(vector);
+                    result.add(vector);
+                } else {
+                    float[] vector = missResponse.getVectors().get(next++);
+                    try {
+                        store.put(keys[i], vector);
+                    } catch (IOException e) {
+                        // The vector is still good; only the on-disk copy is lost
+                        logger.warn("Failed to append embedding to persistent store", e);
+                    }
+                    result.add(vector);
+                }
+            }
+            return new ProviderResponse(result, missResponse != null ? missResponse.getUsage() : null);
+        }
+    }
+}
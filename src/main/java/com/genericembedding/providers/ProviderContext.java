@@ -0,0 +1,149 @@
+package com.genericembedding.providers;
+
+import com.genericembedding.BpeTokenCounter;
+import com.genericembedding.ClusterEmbeddingCache;
+import com.genericembedding.EmbeddingCache;
+import com.genericembedding.EmbeddingExecutor;
+import com.genericembedding.EmbeddingHttpClient;
+import com.genericembedding.EmbeddingStats;
+import com.genericembedding.EstimatingTokenCounter;
+import com.genericembedding.PersistentEmbeddingStore;
+import com.genericembedding.ProviderRegistry;
+import com.genericembedding.TokenCounter;
+
+/**
+ * The node services that providers are built on: where their work runs, the connection pool, the
+ * token counter, the caches and the stats they report to. One context is shared by every provider
+ * built for the same scope; what is specific to a provider is its config and its {@link com.genericembedding.ApiLimits}.
+ *
+ * Anything not set on the {@link Builder} defaults to running on the calling thread, the default
+ * HTTP client, a cl100k token estimate, no caches and fresh ingest stats.
+ */
+public class ProviderContext {
+
+    private final EmbeddingExecutor executor;
+    private final EmbeddingHttpClient httpClient;
+    private final TokenCounter tokenCounter;
+    private final EmbeddingCache cache;
+    private final PersistentEmbeddingStore store;
+    private final ClusterEmbeddingCache clusterCache;
+    private final EmbeddingStats stats;
+    private final String scope;
+
+    private ProviderContext(Builder builder) {
+        this.executor = builder.executor;
+        this.httpClient = builder.httpClient != null ? builder.httpClient : EmbeddingHttpClient.defaultClient();
+        this.tokenCounter = builder.tokenCounter != null ? builder.tokenCounter : new EstimatingTokenCounter(BpeTokenCounter.CL100K_BASE);
+        this.cache = builder.cache;
+        this.store = builder.store;
+        this.clusterCache = builder.clusterCache;
+        this.stats = builder.stats != null ? builder.stats : new EmbeddingStats();
+        this.scope = builder.scope;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public EmbeddingExecutor getExecutor() {
+        return executor;
+    }
+
+    public EmbeddingHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public TokenCounter getTokenCounter() {
+        return tokenCounter;
+    }
+
+    /**
+     * The node's heap cache, or {@code null} if vectors are not cached on the heap.
+     */
+    public EmbeddingCache getCache() {
+        return cache;
+    }
+
+    /**
+     * The node's persistent store, or {@code null} if vectors are not kept on disk.
+     */
+    public PersistentEmbeddingStore getStore() {
+        return store;
+    }
+
+    /**
+     * The cluster-wide cache index, or {@code null} if vectors are not shared between nodes.
+     */
+    public ClusterEmbeddingCache getClusterCache() {
+        return clusterCache;
+    }
+
+    public EmbeddingStats getStats() {
+        return stats;
+    }
+
+    /**
+     * The {@link ProviderRegistry} scope the providers are built for, which their stats are reported under.
+     */
+    public String getScope() {
+        return scope;
+    }
+
+    public static class Builder {
+        private EmbeddingExecutor executor = EmbeddingExecutor.DIRECT;
+        private EmbeddingHttpClient httpClient;
+        private TokenCounter tokenCounter;
+        private EmbeddingCache cache;
+        private PersistentEmbeddingStore store;
+        private ClusterEmbeddingCache clusterCache;
+        private EmbeddingStats stats;
+        private String scope = ProviderRegistry.INGEST;
+
+        private Builder() {
+        }
+
+        public Builder setExecutor(EmbeddingExecutor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder setHttpClient(EmbeddingHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        public Builder setTokenCounter(TokenCounter tokenCounter) {
+            this.tokenCounter = tokenCounter;
+            return this;
+        }
+
+        public Builder setCache(EmbeddingCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public Builder setStore(PersistentEmbeddingStore store) {
+            this.store = store;
+            return this;
+        }
+
+        public Builder setClusterCache(ClusterEmbeddingCache clusterCache) {
+            this.clusterCache = clusterCache;
+            return this;
+        }
+
+        public Builder setStats(EmbeddingStats stats) {
+            this.stats = stats;
+            return this;
+        }
+
+        public Builder setScope(String scope) {
+            this.scope = scope;
+            return this;
+        }
+
+        public ProviderContext build() {
+            return new ProviderContext(this);
+        }
+    }
+}
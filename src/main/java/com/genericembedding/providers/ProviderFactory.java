@@ -1,19 +1,68 @@
 package com.genericembedding.providers;
 
-import com.genericembedding.HttpHelper;
+import com.genericembedding.ApiLimits;
+import com.genericembedding.EmbeddingCache;
+import com.genericembedding.EmbeddingExecutor;
+import com.genericembedding.EmbeddingStats;
 import com.genericembedding.PluginConstants;
 import java.util.Map;
 
 public class ProviderFactory {
-    public static EmbeddingProvider create(Map<String, Object> config) {
+    /**
+     * Builds the provider for one config: the HTTP provider its {@code provider} option names, behind
+     * whichever of the context's caches are set and the batcher if the config batches.
+     *
+     * @param limits the limits of the API the config calls, shared by every provider calling it
+     */
+    public static EmbeddingProvider create(Map<String, Object> config, ProviderContext context, ApiLimits limits) {
         String providerType = (String) config.getOrDefault(PluginConstants.CONFIG_PROVIDER, PluginConstants.PROVIDER_TYPE_GENERIC);
+        String apiUrl = (String) config.getOrDefault(PluginConstants.CONFIG_API_URL, PluginConstants.DEFAULT_API_URL);
+        String model = cacheModel(config);
+        EmbeddingExecutor executor = context.getExecutor();
+        EmbeddingStats stats = context.getStats();
 
+        EmbeddingProvider provider;
         switch (providerType.toLowerCase()) {
             case PluginConstants.PROVIDER_TYPE_OPENAI:
-                return new OpenAIProvider(config);
+                provider = new OpenAIProvider(config, context, limits);
+                break;
             case PluginConstants.PROVIDER_TYPE_GENERIC:
             default:
-                return new GenericHttpProvider(config);
+                provider = new GenericHttpProvider(config, context, limits);
+                break;
         }
+
+        // The cluster cache sits behind the batcher so that a whole batch is looked up with one multi-get
+        if (context.getClusterCache() != null) {
+            provider = new ClusterCacheEmbeddingProvider(provider, context.getClusterCache(), model);
+        }
+
+        int batchMaxInputs = ((Number) config.getOrDefault(PluginConstants.CONFIG_BATCH_MAX_INPUTS, PluginConstants.DEFAULT_BATCH_MAX_INPUTS)).intValue();
+        if (batchMaxInputs > 1) {
+            long batchMaxBytes = ((Number) config.getOrDefault(PluginConstants.CONFIG_BATCH_MAX_BYTES, PluginConstants.DEFAULT_BATCH_MAX_BYTES)).longValue();
+            long batchLingerMs = ((Number) config.getOrDefault(PluginConstants.CONFIG_BATCH_LINGER_MS, PluginConstants.DEFAULT_BATCH_LINGER_MS)).longValue();
+            provider = new BatchingEmbeddingProvider(provider, executor, batchMaxInputs, batchMaxBytes, batchLingerMs, stats);
+        }
+
+        // The local caches sit in front of the batcher so that hits never wait for a batch to fill
+        if (context.getStore() != null) {
+            provider = new PersistentStoreEmbeddingProvider(provider, context.getStore(), model);
+        }
+        EmbeddingCache cache = context.getCache();
+        if (cache != null && cache.isEnabled()) {
+            provider = new CachingEmbeddingProvider(provider, cache, apiUrl, model);
+        }
+        // Outermost, so a document's repeated texts are looked up, batched and sent once
+        return new DeduplicatingEmbeddingProvider(provider, stats);
+    }
+
+    /**
+     * The model name the caches key vectors by. Shortened vectors of a model are different vectors,
+     * so a {@code dimensions} setting is part of it.
+     */
+    public static String cacheModel(Map<String, Object> config) {
+        String model = (String) config.getOrDefault(PluginConstants.CONFIG_MODEL, PluginConstants.DEFAULT_MODEL);
+        Object dimensions = config.get(PluginConstants.CONFIG_DIMENSIONS);
+        return dimensions != null ? model + "/" + ((Number) dimensions).intValue() : model;
     }
 }
@@ -4,20 +4,24 @@ import java.util.List;
 import java.util.Map;
 
 public class ProviderResponse {
-    private final List<List<Float>> vectors;
+    private final List<float[]> vectors;
     private final Map<String, Object> usage;
 
-    public ProviderResponse(List<List<Float>> vectors) {
+    public ProviderResponse(List<float[]> vectors) {
         this.vectors = vectors;
         this.usage = null;
     }
 
-    public ProviderResponse(List<List<Float>> vectors, Map<String, Object> usage) {
+    public ProviderResponse(List<float[]> vectors, Map<String, Object> usage) {
         this.vectors = vectors;
         this.usage = usage;
     }
 
-    public List<List<Float>> getVectors() {
+    /**
+     * One primitive vector per request, in request order. Arrays may be shared with caches and
+     * must not be modified.
+     */
+    public List<float[]> getVectors() {
         return vectors;
     }
 
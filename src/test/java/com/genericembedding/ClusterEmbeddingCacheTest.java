@@ -0,0 +1,70 @@
+package com.genericembedding;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.internal.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.indices.SystemIndexDescriptor;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ClusterEmbeddingCacheTest {
+
+    @Test
+    public void testSystemIndexDescriptorIsValid() {
+        SystemIndexDescriptor descriptor = ClusterEmbeddingCache.systemIndexDescriptor();
+        assertTrue(descriptor.isAutomaticallyManaged());
+        assertTrue(descriptor.matchesIndexPattern(ClusterEmbeddingCache.INDEX_NAME));
+        assertEquals(ClusterEmbeddingCache.ORIGIN, descriptor.getOrigin());
+    }
+
+    @Test
+    public void testVectorEncodingRoundTrips() {
+        float[] vector = {0.25f, -1.5f, Float.MIN_VALUE, 3.0e7f};
+        assertArrayEquals(vector, ClusterEmbeddingCache.decode(ClusterEmbeddingCache.encode(vector)), 0f);
+    }
+
+    @Test
+    public void testIdDependsOnModelAndText() {
+        assertEquals(ClusterEmbeddingCache.id("model", "text"), ClusterEmbeddingCache.id("model", "text"));
+        assertNotEquals(ClusterEmbeddingCache.id("model", "text"), ClusterEmbeddingCache.id("other", "text"));
+    }
+
+    @Test
+    public void testLookupsRunInTheSystemContextAndRestoreTheCallers() throws Exception {
+        ThreadContext threadContext = new ThreadContext(Settings.EMPTY);
+        ThreadPool threadPool = mock(ThreadPool.class);
+        when(threadPool.getThreadContext()).thenReturn(threadContext);
+        Client client = mock(Client.class);
+        when(client.threadPool()).thenReturn(threadPool);
+        AtomicReference<ActionListener<MultiGetResponse>> pending = new AtomicReference<>();
+        doAnswer(invocation -> {
+            assertTrue(threadContext.isSystemContext());
+            assertNull("the caller's credentials are not used", threadContext.getHeader("Authorization"));
+            pending.set(invocation.getArgument(1));
+            return null;
+        }).when(client).multiGet(any(), any());
+
+        threadContext.putHeader("Authorization", "Basic dXNlcjpwYXNz");
+        CompletableFuture<String> callerHeader = new ClusterEmbeddingCache(client).getAll(List.of("id"))
+            .thenApply(found -> threadContext.getHeader("Authorization"));
+        assertFalse(threadContext.isSystemContext());
+
+        // The response arrives on a thread that still carries the system context
+        ThreadContext.StoredContext callerContext = threadContext.stashContext();
+        threadContext.markAsSystemContext();
+        pending.get().onResponse(new MultiGetResponse(new MultiGetItemResponse[0]));
+        callerContext.restore();
+        assertEquals("Basic dXNlcjpwYXNz", callerHeader.get());
+    }
+}
@@ -0,0 +1,144 @@
+package com.genericembedding;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ClusterRateSharesTest {
+
+    private static final Set<String> INGEST_NODES = set("n0", "n1", "n2");
+
+    @Test
+    public void testActiveNodesSplitTheBudgetEvenly() {
+        Map<String, Set<String>> active = nodes(set("a", "b"), set("a"), set("a"));
+
+        Map<String, Double> shares = ClusterRateShares.computeShares(active, active, INGEST_NODES, "n0");
+
+        assertEquals(1.0 / 3, shares.get("a"), 1e-9);
+        assertEquals("only this node uses b; the two idle nodes keep a slice", 1.0 / 1.2, shares.get("b"), 1e-9);
+    }
+
+    @Test
+    public void testIdleNodeKeepsRoomToStartWithinTheBudget() {
+        Map<String, Set<String>> held = nodes(set("a"), set("a"), set("a"));
+        Map<String, Set<String>> active = nodes(set("a"), set("a"), set());
+
+        double idle = ClusterRateShares.computeShares(held, active, INGEST_NODES, "n2").get("a");
+        double sending = ClusterRateShares.computeShares(held, active, INGEST_NODES, "n0").get("a");
+
+        assertTrue(idle > 0);
+        assertEquals(1.0, 2 * sending + idle, 1e-9);
+    }
+
+    @Test
+    public void testCoordinatingNodesSendingQueriesShareTheBudget() {
+        // Three ingest nodes and two coordinating-only nodes, n3 and n4, embedding search queries
+        Map<String, Set<String>> held = nodes(set("a"), set("a"), set("a"), set("a"), set("a"));
+        Map<String, Set<String>> active = nodes(set("a"), set("a"), set(), set("a"), set());
+
+        double total = 0;
+        for (String node : held.keySet()) {
+            double share = ClusterRateShares.computeShares(held, active, INGEST_NODES, node).get("a");
+            assertTrue(share > 0);
+            total += share;
+        }
+
+        assertEquals("the shares of all nodes add up to the account limit", 1.0, total, 1e-9);
+    }
+
+    @Test
+    public void testRescaledLimiterKeepsOutstandingPermits() {
+        long[] now = {0};
+        ApiLimits limits = new ApiLimits(10, 10, 0, () -> now[0]);
+        assertEquals(0, limits.requests().tryReserve(10));
+
+        limits.setShare(0.5);
+
+        assertTrue("the spent burst is not handed out again", limits.requests().tryReserve() > 0);
+        now[0] = 2_000_000_000L;
+        assertEquals("refilled at the new rate", 0, limits.requests().tryReserve());
+    }
+
+    @Test
+    public void testClusterStaysWithinTheAccountLimitWhileSharesMove() {
+        long[] now = {0};
+        List<ApiLimits> nodes = Arrays.asList(
+            new ApiLimits(10, 10, 0, () -> now[0]),
+            new ApiLimits(10, 10, 0, () -> now[0]),
+            new ApiLimits(10, 10, 0, () -> now[0])
+        );
+        // Two nodes are sending and the third is idle, until it starts halfway through
+        Map<String, Set<String>> before = nodes(set("a"), set("a"), set());
+        Map<String, Set<String>> after = nodes(set("a"), set("a"), set("a"));
+        long end = 10_000_000_000L;
+        long[] nextSend = new long[nodes.size()];
+        int sent = 0;
+        for (now[0] = 0; now[0] < end; now[0] += 1_000_000L) {
+            boolean started = now[0] >= end / 2;
+            for (int i = 0; i < nodes.size(); i++) {
+                Map<String, Set<String>> activeByNode = started ? after : before;
+                nodes.get(i).setShare(ClusterRateShares.computeShares(after, activeByNode, INGEST_NODES, "n" + i).get("a"));
+                if (i == 2 && !started || now[0] < nextSend[i]) {
+                    continue;
+                }
+                long waitNanos;
+                // Send everything admitted now, and hold the first delayed request until its slot
+                while ((waitNanos = nodes.get(i).requests().tryReserve()) == 0) {
+                    sent++;
+                }
+                nextSend[i] = now[0] + waitNanos;
+                sent += nextSend[i] < end ? 1 : 0;
+            }
+        }
+
+        assertTrue("10/s for 10s plus one burst of 10, but sent " + sent, sent <= 10 * 10 + 10);
+    }
+
+    @Test
+    public void testActivityFollowsTheLimitsClock() {
+        long[] now = {0};
+        ApiLimits limits = new ApiLimits(10, 10, 0, () -> now[0]);
+        assertFalse(limits.isActive(1_000));
+
+        limits.markUsed();
+        now[0] = 999;
+        assertTrue(limits.isActive(1_000));
+        now[0] = 1_000;
+        assertFalse(limits.isActive(1_000));
+    }
+
+    @Test
+    public void testShareScalesLocalLimiters() {
+        ApiLimits limits = new ApiLimits(10, 10, 6000);
+
+        limits.setShare(0.5);
+
+        RateLimiter requests = limits.requests();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("a half share keeps half the burst", 0, requests.tryReserve());
+        }
+        long waitNanos = requests.tryReserve();
+        assertTrue("requests are spaced 200ms apart at half of 10/s, was " + waitNanos, waitNanos > 150_000_000L);
+        assertTrue(limits.tokens().isEnabled());
+    }
+
+    @SafeVarargs
+    private static Map<String, Set<String>> nodes(Set<String>... apisByNode) {
+        Map<String, Set<String>> nodes = new HashMap<>();
+        for (int i = 0; i < apisByNode.length; i++) {
+            nodes.put("n" + i, apisByNode[i]);
+        }
+        return nodes;
+    }
+
+    private static Set<String> set(String... apis) {
+        return new HashSet<>(Arrays.asList(apis));
+    }
+}
@@ -0,0 +1,67 @@
+package com.genericembedding;
+
+import com.genericembedding.providers.CachingEmbeddingProvider;
+import com.genericembedding.providers.EmbeddingProvider;
+import com.genericembedding.providers.ProviderRequest;
+import com.genericembedding.providers.ProviderResponse;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+public class EmbeddingCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntries() {
+        // 16 segments with one entry each; keys landing in the same segment evict each other
+        EmbeddingCache cache = new EmbeddingCache(16, Long.MAX_VALUE);
+        int inserted = 0;
+        for (int i = 0; i < 100; i++) {
+            cache.put("key-" + i, new float[]{i});
+            inserted++;
+        }
+
+        assertTrue(cache.size() <= 16);
+        assertEquals(inserted - cache.size(), cache.getEvictionCount());
+        assertNotNull(cache.get("key-99"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testRespectsByteBound() {
+        EmbeddingCache cache = new EmbeddingCache(Integer.MAX_VALUE, 16 * 1024);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key-" + i, new float[256]);
+        }
+        assertTrue(cache.sizeInBytes() <= 16 * 1024);
+    }
+
+    @Test
+    public void testCachingProviderOnlySendsMisses() throws Exception {
+        EmbeddingCache cache = new EmbeddingCache(100, Long.MAX_VALUE);
+        cache.put(EmbeddingCache.key("url", "model", "cached"), new float[]{1f, 2f});
+
+        EmbeddingProvider delegate = mock(EmbeddingProvider.class);
+        when(delegate.embed(any())).thenReturn(new ProviderResponse(Collections.singletonList(new float[]{3f, 4f})));
+        CachingEmbeddingProvider provider = new CachingEmbeddingProvider(delegate, cache, "url", "model");
+
+        List<float[]> vectors = provider.embed(Arrays.asList(new ProviderRequest("cached"), new ProviderRequest("fresh"))).getVectors();
+
+        assertEquals(2, vectors.size());
+        assertArrayEquals(new float[]{1f, 2f}, vectors.get(0), 0f);
+        assertArrayEquals(new float[]{3f, 4f}, vectors.get(1), 0f);
+        verify(delegate).embed(argThat(requests -> requests.size() == 1 && "fresh".equals(requests.get(0).getText())));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        provider.embed(Collections.singletonList(new ProviderRequest("fresh")));
+        verify(delegate, times(1)).embed(any());
+        assertEquals(2, cache.getHitCount());
+    }
+}
@@ -0,0 +1,237 @@
+package com.genericembedding;
+
+import com.genericembedding.providers.ProviderContext;
+import com.genericembedding.providers.ProviderRequest;
+import com.genericembedding.providers.ProviderResponse;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EmbeddingHttpClientTest {
+
+    private HttpServer server;
+    private String url;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final ExecutorService handoff = Executors.newCachedThreadPool();
+    private volatile int failFirst;
+    private volatile CountDownLatch release;
+    private volatile String lastRequestBody;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/embeddings", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            lastRequestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            int count = requests.incrementAndGet();
+            try {
+                if (release != null) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body;
+            if (count <= failFirst) {
+                body = "{\"error\":\"slow down\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(429, body.length);
+            } else {
+                body = "{\"data\":[{\"index\":0,\"embedding\":[0.5,1.5]}],\"usage\":{\"total_tokens\":3}}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+            }
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        url = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/embeddings";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        handoff.shutdownNow();
+    }
+
+    private HttpHelper helper(EmbeddingHttpClient client) {
+        Map<String, Object> config = new HashMap<>();
+        config.put(PluginConstants.CONFIG_API_URL, url);
+        config.put(PluginConstants.CONFIG_BACKOFF_INITIAL_DELAY_MS, 1L);
+        config.put(PluginConstants.CONFIG_BACKOFF_MAX_DELAY_MS, 1L);
+        return new HttpHelper(config, ProviderContext.builder().setHttpClient(client).build(), ApiLimits.fromConfig(config));
+    }
+
+    @Test
+    public void testReusesConnectionAcrossRequests() throws Exception {
+        HttpHelper helper = helper(new EmbeddingHttpClient(4));
+        for (int i = 0; i < 10; i++) {
+            ProviderResponse response = helper.getEmbeddings(Collections.singletonList(new ProviderRequest("text")));
+            assertArrayEquals(new float[]{0.5f, 1.5f}, response.getVectors().get(0), 0f);
+        }
+        assertEquals(10, requests.get());
+        assertEquals("sequential requests should share one pooled connection", 1, clientPorts.size());
+    }
+
+    @Test
+    public void testAsksForDimensionsOnlyWhenSet() throws Exception {
+        EmbeddingHttpClient client = new EmbeddingHttpClient(4);
+        helper(client).getEmbeddings(Collections.singletonList(new ProviderRequest("text")));
+        assertFalse(lastRequestBody, lastRequestBody.contains("dimensions"));
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(PluginConstants.CONFIG_API_URL, url);
+        config.put(PluginConstants.CONFIG_DIMENSIONS, 256);
+        new HttpHelper(config, ProviderContext.builder().setHttpClient(client).build(), ApiLimits.fromConfig(config)).getEmbeddings(Collections.singletonList(new ProviderRequest("text")));
+        assertTrue(lastRequestBody, lastRequestBody.contains("\"dimensions\": 256"));
+    }
+
+    @Test
+    public void testRetriesRateLimitedResponses() throws Exception {
+        failFirst = 2;
+        Map<String, Object> config = new HashMap<>();
+        config.put(PluginConstants.CONFIG_API_URL, url);
+        config.put(PluginConstants.CONFIG_BACKOFF_INITIAL_DELAY_MS, 1L);
+        config.put(PluginConstants.CONFIG_BACKOFF_MAX_DELAY_MS, 1L);
+        EmbeddingStats embeddingStats = new EmbeddingStats();
+        ProviderContext context = ProviderContext.builder().setHttpClient(new EmbeddingHttpClient(4)).setStats(embeddingStats).build();
+        ProviderResponse response = new HttpHelper(config, context, ApiLimits.fromConfig(config))
+            .getEmbeddings(Collections.singletonList(new ProviderRequest("text")));
+
+        assertEquals(3, requests.get());
+        assertEquals(3, response.getUsage().get("total_tokens"));
+        ProviderStats stats = embeddingStats.provider(ProviderRegistry.INGEST, PluginConstants.DEFAULT_MODEL + "@" + url);
+        assertEquals(1, stats.getRequestCount());
+        assertEquals(1, stats.getInputCount());
+        assertEquals(2, stats.getRetryCount());
+        assertEquals(2, stats.getThrottledCount());
+        assertEquals(0, stats.getErrorCount());
+        assertEquals(3, stats.getTokens("total_tokens"));
+        assertEquals(1, stats.getLatency().getCount());
+    }
+
+    @Test
+    public void testCapsRequestsInFlightPerHost() throws Exception {
+        release = new CountDownLatch(1);
+        EmbeddingHttpClient client = new EmbeddingHttpClient(2);
+        AtomicInteger handedOff = new AtomicInteger();
+        List<CompletableFuture<HttpResponse<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url)).POST(HttpRequest.BodyPublishers.ofString("{}")).build();
+            futures.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString(), task -> {
+                handedOff.incrementAndGet();
+                handoff.execute(task);
+            }));
+        }
+        String host = URI.create(url).getAuthority();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (requests.get() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(2, requests.get());
+        assertEquals(2, client.getInFlight(host));
+
+        release.countDown();
+        for (CompletableFuture<HttpResponse<String>> future : futures) {
+            assertEquals(200, future.get(10, TimeUnit.SECONDS).statusCode());
+        }
+        assertEquals(5, requests.get());
+        assertEquals(0, client.getInFlight(host));
+        assertEquals("queued requests are sent from their executor, not the thread that freed the slot", 3, handedOff.get());
+    }
+
+    @Test
+    public void testStalledBodyTimesOutAndFreesItsSlot() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        server.createContext("/stall", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write("{\"data\":".getBytes(StandardCharsets.UTF_8));
+                os.flush();
+                stalled.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException | IOException e) {
+                // The client gave up on the body
+            }
+        });
+        EmbeddingHttpClient client = new EmbeddingHttpClient(1);
+        Map<String, Object> config = new HashMap<>();
+        config.put(PluginConstants.CONFIG_API_URL, url.replace("/embeddings", "/stall"));
+        config.put(PluginConstants.CONFIG_READ_TIMEOUT, "1s");
+        HttpHelper helper = new HttpHelper(config, ProviderContext.builder().setHttpClient(client).build(), ApiLimits.fromConfig(config));
+
+        long start = System.nanoTime();
+        try {
+            helper.getEmbeddings(Collections.singletonList(new ProviderRequest("text")));
+            fail("a body that stops arriving must time out");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+        } finally {
+            stalled.countDown();
+        }
+        assertTrue("gave up after the read timeout", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals("the aborted request frees its slot", 0, client.getInFlight(URI.create(url).getAuthority()));
+    }
+
+    @Test
+    public void testStreamedBodyHoldsItsSlotUntilRead() throws Exception {
+        CountDownLatch rest = new CountDownLatch(1);
+        server.createContext("/stream", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write("{\"data\":".getBytes(StandardCharsets.UTF_8));
+                os.flush();
+                rest.await(10, TimeUnit.SECONDS);
+                os.write("[]}".getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        EmbeddingHttpClient client = new EmbeddingHttpClient(1);
+        URI uri = URI.create(url.replace("/embeddings", "/stream"));
+        HttpRequest request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString("{}")).build();
+
+        HttpResponse<InputStream> response = client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream(), handoff).get(10, TimeUnit.SECONDS);
+        assertEquals("headers alone do not free the connection", 1, client.getInFlight(uri.getAuthority()));
+
+        rest.countDown();
+        try (InputStream body = response.body()) {
+            assertEquals("{\"data\":[]}", new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.getInFlight(uri.getAuthority()) > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getInFlight(uri.getAuthority()));
+    }
+}
@@ -0,0 +1,73 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.xcontent.ToXContentObject;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EmbeddingStatsTest {
+
+    @Test
+    public void testReportsProvidersPerScopeAndSearchPhases() {
+        EmbeddingStats stats = new EmbeddingStats();
+        ProviderStats ingest = stats.provider(ProviderRegistry.INGEST, "model@http://api");
+        assertSame(ingest, stats.provider(ProviderRegistry.INGEST, "model@http://api"));
+        assertNotSame(ingest, stats.provider(ProviderRegistry.SEARCH, "model@http://api"));
+
+        ingest.recordRequest(3);
+        ingest.recordRetry(429);
+        ingest.recordUsage(Map.of("prompt_tokens", 7, "total_tokens", 7, "model", "m"));
+        ingest.recordCompletion(2_000_000, false);
+        stats.recordDuplicates(2, 10);
+        stats.semanticSearch().recordEmbed(1_000_000);
+        stats.semanticSearch().recordRequest(System.nanoTime(), true);
+
+        String json = Strings.toString(stats);
+        assertTrue(json, json.contains("\"deduplicated_inputs\":2"));
+        assertTrue(json, json.contains("\"model@http://api\":{\"requests\":1,\"inputs\":3,\"tokens\":{\"prompt_tokens\":7,\"total_tokens\":7}"));
+        assertTrue(json, json.contains("\"retries\":1,\"throttled\":1,\"errors\":0"));
+        assertTrue(json, json.contains("\"semantic\":{\"requests\":1,\"errors\":1,\"embed_latency_millis\":{\"count\":1"));
+    }
+
+    @Test
+    public void testSnapshotsSurviveTheWireAndMergeAcrossNodes() throws Exception {
+        EmbeddingStats fast = new EmbeddingStats();
+        EmbeddingStats slow = new EmbeddingStats();
+        for (int i = 0; i < 90; i++) {
+            fast.provider(ProviderRegistry.INGEST, "m@http://api").recordCompletion(1_000_000, false);
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.provider(ProviderRegistry.INGEST, "m@http://api").recordCompletion(100_000_000, false);
+            slow.provider(ProviderRegistry.INGEST, "m@http://api").recordThrottled();
+        }
+        slow.provider(ProviderRegistry.SEARCH, "q@http://api").recordRequest(1);
+        slow.hybridSearch().recordRequest(System.nanoTime(), false);
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        slow.snapshot().writeTo(out);
+        assertTrue("sparse histograms keep the snapshot small: " + out.size(), out.size() < 200);
+        EmbeddingStats.Snapshot received;
+        try (StreamInput in = out.bytes().streamInput()) {
+            received = new EmbeddingStats.Snapshot(in);
+        }
+        assertEquals(Strings.toString(slow), Strings.toString(snapshotObject(received)));
+
+        EmbeddingStats.Snapshot cluster = fast.snapshot().merge(received);
+        ProviderStats.Snapshot provider = cluster.getIngestProviders().get("m@http://api");
+        assertEquals(10, provider.getThrottledCount());
+        assertEquals(100, provider.getLatency().getCount());
+        assertEquals(1000, provider.getLatency().percentileMicros(50), 1000 / 32);
+        assertEquals(100_000, provider.getLatency().percentileMicros(99), 100_000 / 32);
+        assertEquals(1, cluster.getSearchProviders().get("q@http://api").getRequestCount());
+        assertEquals(1, cluster.getHybridSearch().getRequestCount());
+    }
+
+    private static ToXContentObject snapshotObject(EmbeddingStats.Snapshot snapshot) {
+        return (builder, params) -> snapshot.toXContent(builder.startObject(), params).endObject();
+    }
+}
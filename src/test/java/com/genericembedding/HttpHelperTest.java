@@ -1,5 +1,6 @@
 package com.genericembedding;
 
+import com.genericembedding.providers.ProviderContext;
 import org.junit.Test;
 import java.util.HashMap;
 import java.util.Map;
@@ -15,7 +16,7 @@ public class HttpHelperTest {
         config.put("api_url", "https://api.openai.com/v1/embeddings");
         config.put("model", "text-embedding-3-small");
         
-        HttpHelper helper = new HttpHelper(config);
+        HttpHelper helper = new HttpHelper(config, ProviderContext.builder().build(), ApiLimits.fromConfig(config));
         assertNotNull("HttpHelper should be instantiable", helper);
     }
 
@@ -0,0 +1,60 @@
+package com.genericembedding;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HybridFusionTest {
+
+    private static final String[] REGULAR = {"a", "b", "c"};
+    private static final float[] REGULAR_SCORES = {12f, 9f, 3f};
+    private static final String[] SEMANTIC = {"c", "d"};
+    private static final float[] SEMANTIC_SCORES = {0.9f, 0.8f};
+
+    @Test
+    public void testSumAddsWeightedScoresAndKeepsBothPositions() {
+        HybridFusion.Result result = new HybridFusion(HybridFusion.Method.SUM, 0.5f, 1f, HybridFusion.DEFAULT_RANK_CONSTANT)
+            .fuse(REGULAR, REGULAR_SCORES, SEMANTIC, SEMANTIC_SCORES, 10);
+
+        assertEquals(4, result.size());
+        assertEquals(0, result.regularRank(0));
+        assertEquals(6f, result.score(0), 1e-6f);
+        // "c" was found by both searches
+        assertEquals(2, result.regularRank(2));
+        assertEquals(0, result.semanticRank(2));
+        assertEquals(1.5f + 0.9f, result.score(2), 1e-6f);
+        assertEquals(-1, result.regularRank(3));
+        assertEquals(1, result.semanticRank(3));
+    }
+
+    @Test
+    public void testRrfRanksDocumentsFoundByBothSearchesFirst() {
+        HybridFusion.Result result = new HybridFusion(HybridFusion.Method.RRF, 1f, 1f, 60)
+            .fuse(REGULAR, REGULAR_SCORES, SEMANTIC, SEMANTIC_SCORES, 2);
+
+        assertEquals(2, result.size());
+        assertEquals("c", REGULAR[result.regularRank(0)]);
+        assertEquals(1f / 63 + 1f / 61, result.score(0), 1e-6f);
+        assertEquals("a", REGULAR[result.regularRank(1)]);
+    }
+
+    @Test
+    public void testLinearNormalizesEachList() {
+        HybridFusion.Result result = new HybridFusion(HybridFusion.Method.LINEAR, 1f, 2f, HybridFusion.DEFAULT_RANK_CONSTANT)
+            .fuse(REGULAR, REGULAR_SCORES, SEMANTIC, SEMANTIC_SCORES, 10);
+
+        // c: 0 from the keyword list plus 2 * 1 from the vector list; a: 1; b: 2/3; d: 2 * 0
+        assertEquals("c", REGULAR[result.regularRank(0)]);
+        assertEquals(2f, result.score(0), 1e-6f);
+        assertEquals(0, result.regularRank(1));
+        assertEquals(1f, result.score(1), 1e-6f);
+        assertEquals(2f / 3, result.score(2), 1e-6f);
+        assertEquals(1, result.semanticRank(3));
+        assertEquals(0f, result.score(3), 1e-6f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMethodIsRejected() {
+        HybridFusion.Method.parse("max");
+    }
+}
@@ -0,0 +1,122 @@
+package com.genericembedding;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.ChunkedToXContent;
+import org.elasticsearch.core.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.xcontent.ToXContent;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HybridSearchRestHandlerTest {
+
+    @Test
+    public void testInvalidRequestsFailWithBadRequest() {
+        IllegalArgumentException mismatch = new IllegalArgumentException("query vector has 3 dimensions but field [v] has 4");
+
+        assertEquals(RestStatus.BAD_REQUEST, HybridSearchRestHandler.failureStatus(new CompletionException(mismatch)));
+        assertEquals(RestStatus.BAD_REQUEST, HybridSearchRestHandler.failureStatus(mismatch));
+        assertEquals(RestStatus.INTERNAL_SERVER_ERROR, HybridSearchRestHandler.failureStatus(new CompletionException(new IOException("API down"))));
+    }
+
+    @Test
+    public void testCombinedResponseSplitsEachScoreIntoRegularAndSemantic() throws Exception {
+        SearchResponse response = response(
+            hit("both", 1.5f, 1.0f),
+            hit("lexical", 2.0f, 2.0f),
+            hit("vector", 0.8f, null),
+            // What is left over is float rounding on the summed score, not a vector match
+            hit("rounding", 3.0f + 3e-6f, 3.0f)
+        );
+
+        JsonNode body = render(HybridSearchRestHandler.combinedResponseBody(response));
+
+        JsonNode hits = body.get("hits").get("hits");
+        assertEquals(4, hits.size());
+        assertEquals("hybrid", hits.get(0).get("_search_type").asText());
+        assertEquals(1.0, hits.get(0).get("_regular_score").asDouble(), 1e-6);
+        assertEquals(0.5, hits.get(0).get("_semantic_score").asDouble(), 1e-6);
+        assertEquals(1.5, hits.get(0).get("_combined_score").asDouble(), 1e-6);
+        assertEquals("regular", hits.get(1).get("_search_type").asText());
+        assertFalse(hits.get(1).has("_semantic_score"));
+        assertEquals("semantic", hits.get(2).get("_search_type").asText());
+        assertEquals(0.8, hits.get(2).get("_semantic_score").asDouble(), 1e-6);
+        assertFalse(hits.get(2).has("_regular_score"));
+        assertEquals("regular", hits.get(3).get("_search_type").asText());
+
+        JsonNode breakdown = body.get("search_breakdown");
+        assertEquals(3, breakdown.get("regular_hits").asInt());
+        assertEquals(2, breakdown.get("semantic_hits").asInt());
+        assertEquals(4, breakdown.get("combined_hits").asInt());
+        assertEquals(1, breakdown.get("hybrid_matches").asInt());
+        assertEquals(4, body.get("hits").get("total").get("value").asInt());
+        assertEquals(1.5, body.get("hits").get("max_score").asDouble(), 1e-6);
+    }
+
+    @Test
+    public void testEmptyCombinedResponse() throws Exception {
+        JsonNode body = render(HybridSearchRestHandler.combinedResponseBody(response()));
+
+        assertEquals(0, body.get("hits").get("hits").size());
+        assertTrue(body.get("hits").get("max_score").isNull());
+        assertEquals(0, body.get("search_breakdown").get("hybrid_matches").asInt());
+    }
+
+    @Test
+    public void testSourceIsCopiedIntoTheResponseInItsOwnContentType() throws Exception {
+        SearchHit json = hit("json", 1f, 1f);
+        json.sourceRef(new BytesArray("{\"title\":\"red shoes\"}"));
+        SearchHit smile = hit("smile", 0.5f, 0.5f);
+        smile.sourceRef(BytesReference.bytes(XContentFactory.smileBuilder().startObject().field("title", "blue shoes").endObject()));
+
+        JsonNode hits = render(HybridSearchRestHandler.combinedResponseBody(response(json, smile))).get("hits").get("hits");
+
+        assertEquals("red shoes", hits.get(0).get("_source").get("title").asText());
+        assertEquals("blue shoes", hits.get(1).get("_source").get("title").asText());
+    }
+
+    private static SearchHit hit(String id, float score, Float regularScore) {
+        SearchHit hit = SearchHit.unpooled(0, id);
+        hit.score(score);
+        if (regularScore != null) {
+            hit.matchedQueries(Map.of(HybridSearchRestHandler.REGULAR_QUERY_NAME, regularScore));
+        }
+        return hit;
+    }
+
+    private static SearchResponse response(SearchHit... hits) {
+        SearchResponse response = mock(SearchResponse.class);
+        when(response.getHits()).thenReturn(SearchHits.unpooled(hits, new TotalHits(hits.length, TotalHits.Relation.EQUAL_TO),
+            hits.length == 0 ? Float.NaN : hits[0].getScore()));
+        when(response.getTook()).thenReturn(TimeValue.timeValueMillis(7));
+        when(response.getTotalShards()).thenReturn(1);
+        when(response.getSuccessfulShards()).thenReturn(1);
+        return response;
+    }
+
+    private static JsonNode render(ChunkedToXContent body) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        Iterator<? extends ToXContent> chunks = body.toXContentChunked(ToXContent.EMPTY_PARAMS);
+        while (chunks.hasNext()) {
+            chunks.next().toXContent(builder, ToXContent.EMPTY_PARAMS);
+        }
+        return new ObjectMapper().readTree(BytesReference.bytes(builder).utf8ToString());
+    }
+}
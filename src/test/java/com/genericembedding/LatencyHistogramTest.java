@@ -0,0 +1,72 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.Strings;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsCoverTheirValuesWithinThreePercent() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 1000, 123_456, 987_654_321, LatencyHistogram.MAX_VALUE_MICROS}) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(bucket < LatencyHistogram.BUCKETS);
+            long highest = LatencyHistogram.highestValue(bucket);
+            assertTrue(value + " <= " + highest, value <= highest);
+            assertTrue(value + " within 1/32 of " + highest, highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+            if (bucket > 0) {
+                assertTrue("buckets are contiguous", LatencyHistogram.highestValue(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(millis * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50_500, snapshot.getMeanMicros(), 0.01);
+        assertEquals(50_000, snapshot.percentileMicros(50), 50_000 / 32);
+        assertEquals(99_000, snapshot.percentileMicros(99), 99_000 / 32);
+        assertEquals(100_000, snapshot.percentileMicros(100));
+        assertEquals(100_000, snapshot.getMaxMicros());
+        assertEquals(0, LatencyHistogram.Snapshot.empty().percentileMicros(99));
+
+        LatencyHistogram.Snapshot merged = snapshot.merge(snapshot);
+        assertEquals(200, merged.getCount());
+        assertEquals(snapshot.percentileMicros(50), merged.percentileMicros(50));
+
+        String json = Strings.toString(snapshot);
+        assertTrue(json, json.contains("\"count\":100") && json.contains("\"max\":100.0"));
+    }
+
+    @Test
+    public void testConcurrentRecordingLosesNothing() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(i);
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(40_000, histogram.snapshot().getCount());
+        assertEquals(9_999, histogram.snapshot().getMaxMicros());
+    }
+}
@@ -0,0 +1,123 @@
+package com.genericembedding;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PersistentEmbeddingStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEntriesSurviveReopen() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        PersistentEmbeddingStore store = new PersistentEmbeddingStore(directory, 1024 * 1024);
+        store.put(PersistentEmbeddingStore.key("model", "text"), new float[]{0.5f, -1.5f, 2f});
+        store.close();
+
+        PersistentEmbeddingStore reopened = new PersistentEmbeddingStore(directory, 1024 * 1024);
+        FloatBuffer vector = reopened.get(PersistentEmbeddingStore.key("model", "text"));
+        assertNotNull(vector);
+        assertEquals(3, vector.limit());
+        assertEquals(-1.5f, vector.get(1), 0f);
+        assertNull(reopened.get(PersistentEmbeddingStore.key("other-model", "text")));
+        reopened.close();
+    }
+
+    @Test
+    public void testTornAppendIsDiscardedOnRecovery() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        PersistentEmbeddingStore store = new PersistentEmbeddingStore(directory, 1024 * 1024);
+        store.put("first", new float[]{1f, 2f});
+        long firstEnd = store.sizeInBytes();
+        store.put("second", new float[]{3f, 4f});
+        Path file = store.file();
+        store.close();
+
+        // Corrupt the last float of the second record so its checksum no longer matches
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), firstEnd + 4 + 2 + "second".length() + 4 + 4);
+        }
+
+        PersistentEmbeddingStore reopened = new PersistentEmbeddingStore(directory, 1024 * 1024);
+        assertNotNull(reopened.get("first"));
+        assertNull(reopened.get("second"));
+        assertEquals(firstEnd, reopened.sizeInBytes());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactionKeepsNewestEntriesWithinCap() throws Exception {
+        PersistentEmbeddingStore store = new PersistentEmbeddingStore(folder.getRoot().toPath(), 1024 * 1024);
+        float[] values = new float[1024];
+        Arrays.fill(values, 1f);
+        FloatBuffer early = null;
+        for (int i = 0; i < 400; i++) {
+            store.put("key-" + i, values);
+            if (i == 0) {
+                early = store.get("key-0");
+            }
+        }
+
+        assertTrue(store.getCompactionCount() > 0);
+        assertTrue(store.sizeInBytes() <= 1024 * 1024);
+        assertNotNull(store.get("key-399"));
+        assertNull(store.get("key-0"));
+        // Views handed out before compaction still read the old mapping
+        assertEquals(1f, early.get(1023), 0f);
+        store.close();
+    }
+
+    @Test
+    public void testCompactionRunsOnTheExecutorAndSwitchesToANewFile() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        List<Runnable> pending = new ArrayList<>();
+        PersistentEmbeddingStore store = new PersistentEmbeddingStore(directory, 1024 * 1024, pending::add);
+        Path original = store.file();
+        float[] values = new float[1024];
+        Arrays.fill(values, 1f);
+        int stored = 0;
+        while (pending.isEmpty()) {
+            store.put("key-" + stored++, values);
+        }
+
+        // The put that found the file full returned without compacting, and dropped its vector
+        assertEquals(0, store.getCompactionCount());
+        assertNull(store.get("key-" + (stored - 1)));
+        store.put("key-" + stored, values);
+        assertEquals(1, pending.size());
+
+        pending.remove(0).run();
+        assertEquals(1, store.getCompactionCount());
+        assertNotEquals(original, store.file());
+        assertFalse(Files.exists(original));
+        assertNotNull(store.get("key-" + (stored - 2)));
+        store.put("after", values);
+        assertNotNull(store.get("after"));
+        store.close();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                assertEquals(store.file(), file);
+            }
+        }
+        PersistentEmbeddingStore reopened = new PersistentEmbeddingStore(directory, 1024 * 1024);
+        assertNotNull(reopened.get("after"));
+        assertNotNull(reopened.get("key-" + (stored - 2)));
+        reopened.close();
+    }
+}
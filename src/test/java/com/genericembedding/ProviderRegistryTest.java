@@ -0,0 +1,116 @@
+package com.genericembedding;
+
+import com.genericembedding.providers.EmbeddingProvider;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class ProviderRegistryTest {
+
+    @Test
+    public void testIdenticalConfigsShareOneProvider() {
+        ProviderRegistry registry = new ProviderRegistry();
+        AtomicInteger built = new AtomicInteger();
+
+        EmbeddingProvider first = registry.acquire(ProviderRegistry.INGEST, config("key-a", 2), limits -> {
+            built.incrementAndGet();
+            return mock(EmbeddingProvider.class);
+        });
+        EmbeddingProvider second = registry.acquire(ProviderRegistry.INGEST, config("key-a", 2), limits -> {
+            built.incrementAndGet();
+            return mock(EmbeddingProvider.class);
+        });
+
+        assertSame(first, second);
+        assertEquals(1, built.get());
+    }
+
+    @Test
+    public void testProvidersForOneCredentialShareLimits() {
+        ProviderRegistry registry = new ProviderRegistry();
+        ApiLimits[] seen = new ApiLimits[3];
+
+        registry.acquire(ProviderRegistry.INGEST, config("key-a", 2), limits -> provider(seen, 0, limits));
+        registry.acquire(ProviderRegistry.INGEST, config("key-a", 8), limits -> provider(seen, 1, limits));
+        registry.acquire(ProviderRegistry.INGEST, config("key-b", 2), limits -> provider(seen, 2, limits));
+
+        assertEquals(3, registry.providerCount());
+        assertEquals(2, registry.apiCount());
+        assertSame("batch options differ but the API key is the same", seen[0], seen[1]);
+        assertNotSame(seen[0], seen[2]);
+    }
+
+    @Test
+    public void testRetainReleasesProvidersOfDeletedPipelines() {
+        ProviderRegistry registry = new ProviderRegistry();
+        EmbeddingProvider kept = registry.acquire(ProviderRegistry.INGEST, config("key-a", 2), limits -> mock(EmbeddingProvider.class));
+        registry.acquire(ProviderRegistry.INGEST, config("key-b", 2), limits -> mock(EmbeddingProvider.class));
+        registry.acquire(ProviderRegistry.SEARCH, config("key-b", 1), limits -> mock(EmbeddingProvider.class));
+
+        registry.retain(Collections.singletonList(config("key-a", 2)));
+
+        assertEquals(1, registry.providerCount());
+        assertEquals(1, registry.apiCount());
+        assertSame(kept, registry.acquire(ProviderRegistry.INGEST, config("key-a", 2), limits -> mock(EmbeddingProvider.class)));
+
+        registry.retain(Collections.emptyList());
+        assertEquals(0, registry.providerCount());
+        assertEquals(0, registry.apiCount());
+    }
+
+    @Test
+    public void testIdleSearchProvidersAreReleased() {
+        long[] now = {0};
+        ProviderRegistry registry = new ProviderRegistry(() -> now[0]);
+        registry.acquire(ProviderRegistry.INGEST, config("key-a", 2), limits -> mock(EmbeddingProvider.class));
+        registry.acquire(ProviderRegistry.SEARCH, config("caller-1", 1), limits -> mock(EmbeddingProvider.class));
+        registry.acquire(ProviderRegistry.SEARCH, config("caller-2", 1), limits -> mock(EmbeddingProvider.class));
+
+        now[0] = 50;
+        EmbeddingProvider recent = registry.acquire(ProviderRegistry.SEARCH, config("caller-2", 1), limits -> mock(EmbeddingProvider.class));
+        now[0] = 100;
+        registry.releaseIdle(ProviderRegistry.SEARCH, 100);
+
+        assertEquals("ingest providers are not subject to the timeout", 2, registry.providerCount());
+        assertEquals(2, registry.apiCount());
+        assertSame(recent, registry.acquire(ProviderRegistry.SEARCH, config("caller-2", 1), limits -> mock(EmbeddingProvider.class)));
+    }
+
+    @Test
+    public void testProvidersOfUnstoredPipelinesAreReleasedWhenIdle() {
+        long[] now = {0};
+        ProviderRegistry registry = new ProviderRegistry(() -> now[0]);
+        registry.acquire(ProviderRegistry.INGEST, config("stored", 2), limits -> mock(EmbeddingProvider.class));
+        registry.retain(Collections.singletonList(config("stored", 2)));
+        // Built for an inline _simulate pipeline, which is never stored
+        registry.acquire(ProviderRegistry.INGEST, config("simulated", 2), limits -> mock(EmbeddingProvider.class));
+
+        now[0] = 100;
+        registry.releaseIdle(ProviderRegistry.INGEST, 100);
+
+        assertEquals("a stored pipeline's provider is kept however long ago it was built", 1, registry.providerCount());
+        assertEquals(1, registry.apiCount());
+    }
+
+    private static EmbeddingProvider provider(ApiLimits[] seen, int slot, ApiLimits limits) {
+        seen[slot] = limits;
+        return mock(EmbeddingProvider.class);
+    }
+
+    private static Map<String, Object> config(String apiKey, int batchMaxInputs) {
+        Map<String, Object> config = new HashMap<>();
+        config.put(PluginConstants.CONFIG_API_URL, PluginConstants.DEFAULT_API_URL);
+        config.put(PluginConstants.CONFIG_MODEL, PluginConstants.DEFAULT_MODEL);
+        config.put(PluginConstants.CONFIG_BATCH_MAX_INPUTS, batchMaxInputs);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "Bearer " + apiKey);
+        config.put(PluginConstants.CONFIG_HEADERS, headers);
+        return config;
+    }
+}
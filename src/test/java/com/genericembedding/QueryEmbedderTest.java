@@ -0,0 +1,91 @@
+package com.genericembedding;
+
+import com.genericembedding.providers.EmbeddingProvider;
+import com.genericembedding.providers.ProviderContext;
+import com.genericembedding.providers.ProviderResponse;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class QueryEmbedderTest {
+
+    @Test
+    public void testEmbeddingCompletesAsynchronouslyInEachCallersContext() {
+        ThreadContext threadContext = new ThreadContext(Settings.EMPTY);
+        EmbeddingExecutor executor = new EmbeddingExecutor(Runnable::run, (delayMs, command) -> command.run(), threadContext);
+        ProviderRegistry registry = new ProviderRegistry();
+        EmbeddingProvider provider = mock(EmbeddingProvider.class);
+        CompletableFuture<ProviderResponse> pending = new CompletableFuture<>();
+        when(provider.embedAsync(any())).thenReturn(pending);
+        registry.acquire(ProviderRegistry.SEARCH, searchConfig("secret"), limits -> provider);
+
+        QueryEmbedder embedder = new QueryEmbedder(Settings.EMPTY, searchContext(executor), registry,
+            new QueryEmbeddingCache(100, TimeValue.timeValueMinutes(1)));
+
+        AtomicReference<String> firstUser = new AtomicReference<>();
+        AtomicReference<String> secondUser = new AtomicReference<>();
+        CompletableFuture<float[]> first;
+        CompletableFuture<float[]> second;
+        ThreadContext.StoredContext stored = threadContext.stashContext();
+        try {
+            threadContext.putHeader("user", "first");
+            first = embedder.embed("query", "Bearer secret");
+            first.thenRun(() -> firstUser.set(threadContext.getHeader("user")));
+        } finally {
+            stored.restore();
+        }
+        stored = threadContext.stashContext();
+        try {
+            threadContext.putHeader("user", "second");
+            second = embedder.embed("query", "Bearer secret");
+            second.thenRun(() -> secondUser.set(threadContext.getHeader("user")));
+        } finally {
+            stored.restore();
+        }
+        assertFalse("embed must return before the provider answers", first.isDone() || second.isDone());
+
+        pending.complete(new ProviderResponse(Arrays.asList(new float[]{1f})));
+
+        verify(provider, times(1)).embedAsync(any());
+        assertArrayEquals(new float[]{1f}, first.join(), 0f);
+        assertSame(first.join(), second.join());
+        assertEquals("first", firstUser.get());
+        assertEquals("second", secondUser.get());
+    }
+
+    @Test
+    public void testMissingApiKeyFailsTheFuture() {
+        QueryEmbedder embedder = new QueryEmbedder(Settings.EMPTY, searchContext(EmbeddingExecutor.DIRECT),
+            new ProviderRegistry(), new QueryEmbeddingCache(100, TimeValue.timeValueMinutes(1)));
+        assumeTrue(System.getenv("OPENAI_API_KEY") == null);
+
+        assertTrue(embedder.embed("query", null).isCompletedExceptionally());
+    }
+
+    private static ProviderContext searchContext(EmbeddingExecutor executor) {
+        return ProviderContext.builder().setExecutor(executor).setScope(ProviderRegistry.SEARCH).build();
+    }
+
+    private static Map<String, Object> searchConfig(String apiKey) {
+        Map<String, Object> config = new HashMap<>();
+        config.put(PluginConstants.CONFIG_API_URL, PluginConstants.DEFAULT_API_URL);
+        config.put(PluginConstants.CONFIG_MODEL, PluginConstants.DEFAULT_MODEL);
+        config.put(PluginConstants.CONFIG_PROVIDER, PluginConstants.PROVIDER_TYPE_OPENAI);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", "Bearer " + apiKey);
+        config.put(PluginConstants.CONFIG_HEADERS, headers);
+        return config;
+    }
+}
@@ -0,0 +1,121 @@
+package com.genericembedding;
+
+import org.elasticsearch.core.TimeValue;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class QueryEmbeddingCacheTest {
+
+    @Test
+    public void testConcurrentIdenticalQueriesShareOneCall() throws Exception {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(100, TimeValue.timeValueMinutes(1));
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<float[]> pending = new CompletableFuture<>();
+
+        CompletableFuture<float[]> first = cache.get("url", "model", "key", "red shoes", () -> {
+            calls.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<float[]> second = cache.get("url", "model", "key", "  red \t shoes ", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        pending.complete(new float[]{1f});
+
+        assertEquals(1, calls.get());
+        assertSame(first.get(), second.get());
+        assertEquals(1, cache.getCoalescedCount());
+
+        cache.get("url", "model", "key", "red shoes", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        }).get();
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testEntriesExpireAfterTtl() throws Exception {
+        AtomicLong now = new AtomicLong();
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(100, TimeValue.timeValueSeconds(10), now::get);
+        AtomicInteger calls = new AtomicInteger();
+
+        for (long second : new long[]{0, 9, 10}) {
+            now.set(TimeUnit.SECONDS.toNanos(second));
+            cache.get("url", "model", "key", "query", () -> {
+                calls.incrementAndGet();
+                return CompletableFuture.completedFuture(new float[]{1f});
+            }).get();
+        }
+
+        assertEquals("loaded, served from cache, reloaded once expired", 2, calls.get());
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(100, TimeValue.timeValueMinutes(1));
+
+        CompletableFuture<float[]> failed = cache.get("url", "model", "key", "query",
+            () -> CompletableFuture.failedFuture(new IOException("API Error")));
+        assertTrue(failed.isCompletedExceptionally());
+
+        CompletableFuture<float[]> retried = cache.get("url", "model", "key", "query",
+            () -> CompletableFuture.completedFuture(new float[]{1f}));
+        assertFalse(retried.isCompletedExceptionally());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testCallersThatJoinedAThrottledCallShareItsFailure() {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(100, TimeValue.timeValueMinutes(1));
+        CompletableFuture<float[]> throttled = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        List<CompletableFuture<float[]>> callers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            callers.add(cache.get("url", "model", "key", "query", () -> {
+                calls.incrementAndGet();
+                return throttled;
+            }));
+        }
+        throttled.completeExceptionally(new IOException("API request failed with status 429"));
+
+        assertEquals("a throttled call is not repeated once per waiting caller", 1, calls.get());
+        for (CompletableFuture<float[]> caller : callers) {
+            assertTrue(caller.isCompletedExceptionally());
+        }
+        assertEquals(4, cache.getCoalescedCount());
+    }
+
+    @Test
+    public void testCallersWithDifferentCredentialsDoNotShareVectorsOrFailures() throws Exception {
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(100, TimeValue.timeValueMinutes(1));
+        CompletableFuture<float[]> rejected = new CompletableFuture<>();
+        AtomicInteger otherCalls = new AtomicInteger();
+
+        CompletableFuture<float[]> first = cache.get("url", "model", "revoked", "query", () -> rejected);
+        CompletableFuture<float[]> second = cache.get("url", "model", "valid", "query", () -> {
+            otherCalls.incrementAndGet();
+            return CompletableFuture.completedFuture(new float[]{2f});
+        });
+        rejected.completeExceptionally(new IOException("401 Unauthorized"));
+
+        assertTrue(first.isCompletedExceptionally());
+        assertArrayEquals(new float[]{2f}, second.get(), 0f);
+        assertEquals(1, otherCalls.get());
+        assertEquals(0, cache.getCoalescedCount());
+        assertTrue("another key's vector is not served", cache.get("url", "model", "revoked", "query",
+            () -> CompletableFuture.failedFuture(new IOException("401 Unauthorized"))).isCompletedExceptionally());
+    }
+}
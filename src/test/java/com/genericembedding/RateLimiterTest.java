@@ -0,0 +1,98 @@
+package com.genericembedding;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void testBurstThenSpacedByInterval() {
+        AtomicLong clock = new AtomicLong(1_000_000L);
+        RateLimiter limiter = new RateLimiter(100, 3, clock::get);
+
+        assertEquals(0, limiter.tryReserve());
+        assertEquals(0, limiter.tryReserve());
+        assertEquals(0, limiter.tryReserve());
+        assertEquals(INTERVAL, limiter.tryReserve());
+        assertEquals(2 * INTERVAL, limiter.tryReserve());
+
+        // Capacity refills continuously, not in whole-second windows
+        clock.addAndGet(3 * INTERVAL);
+        assertEquals(0, limiter.tryReserve());
+        assertEquals(INTERVAL, limiter.tryReserve());
+    }
+
+    @Test
+    public void testPerMinuteReservationsAreReconciled() {
+        AtomicLong clock = new AtomicLong(0);
+        RateLimiter tokens = RateLimiter.perMinute(6000, clock::get);
+        long perToken = TimeUnit.MILLISECONDS.toNanos(10);
+
+        assertEquals(0, tokens.tryReserve(5000));
+        assertEquals(0, tokens.tryReserve(1000));
+        assertEquals(500 * perToken, tokens.tryReserve(500));
+
+        // The first batch turned out to cost only 4000 tokens
+        tokens.adjust(-1000);
+        assertEquals(0, tokens.tryReserve(500));
+    }
+
+    @Test
+    public void testDisabledWhenRateIsZero() {
+        RateLimiter limiter = new RateLimiter(0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, limiter.tryReserve());
+        }
+    }
+
+    @Test
+    public void testHoldsRateExactlyUnderContention() throws Exception {
+        int threads = 64;
+        int perThread = 500;
+        int burst = 20;
+        AtomicLong clock = new AtomicLong(0);
+        RateLimiter limiter = new RateLimiter(100, burst, clock::get);
+
+        List<Long> waits = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    waits.add(limiter.tryReserve());
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // Every reservation gets its own slot: exactly `burst` go immediately and the rest are
+        // spaced one interval apart, with no slot handed out twice or skipped
+        List<Long> sorted = new ArrayList<>(waits);
+        Collections.sort(sorted);
+        assertEquals(threads * perThread, sorted.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            assertEquals(Math.max(0, i + 1 - burst) * INTERVAL, (long) sorted.get(i));
+        }
+    }
+}
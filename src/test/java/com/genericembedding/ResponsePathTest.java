@@ -0,0 +1,61 @@
+package com.genericembedding;
+
+import com.genericembedding.providers.ProviderResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ResponsePathTest {
+
+    private static ProviderResponse parse(String path, String json) throws IOException {
+        return ResponsePath.compile(path).parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testOpenAIResponseIsOrderedByIndexAndReadsUsage() throws Exception {
+        String json = "{\"object\":\"list\",\"data\":["
+            + "{\"object\":\"embedding\",\"embedding\":[0.3,0.4],\"index\":1},"
+            + "{\"index\":0,\"object\":\"embedding\",\"embedding\":[0.1,0.2]}],"
+            + "\"model\":\"m\",\"usage\":{\"prompt_tokens\":5,\"total_tokens\":5}}";
+
+        ProviderResponse response = parse(PluginConstants.DEFAULT_RESPONSE_PATH, json);
+
+        assertEquals(2, response.getVectors().size());
+        assertArrayEquals(new float[]{0.1f, 0.2f}, response.getVectors().get(0), 0f);
+        assertArrayEquals(new float[]{0.3f, 0.4f}, response.getVectors().get(1), 0f);
+        assertEquals(5, response.getUsage().get("total_tokens"));
+    }
+
+    @Test
+    public void testSingleInputPathMatchesEveryInput() throws Exception {
+        String json = "{\"meta\":{\"ignored\":[1,2,3]},\"embeddings\":[{\"values\":[1,2,3]},{\"values\":[4,5,6]}]}";
+
+        ProviderResponse response = parse("embeddings.0.values", json);
+
+        assertEquals(2, response.getVectors().size());
+        assertArrayEquals(new float[]{4f, 5f, 6f}, response.getVectors().get(1), 0f);
+        assertFalse(response.hasUsage());
+    }
+
+    @Test
+    public void testExplicitIndexAfterWildcardSelectsOneElement() throws Exception {
+        String json = "{\"results\":[{\"outputs\":[[1,1],[9,9]]},{\"outputs\":[[2,2],[9,9]]}]}";
+
+        ProviderResponse response = parse("results.*.outputs.0", json);
+
+        assertEquals(2, response.getVectors().size());
+        assertArrayEquals(new float[]{1f, 1f}, response.getVectors().get(0), 0f);
+        assertArrayEquals(new float[]{2f, 2f}, response.getVectors().get(1), 0f);
+    }
+
+    @Test
+    public void testRejectsMissingOrMalformedEmbeddings() {
+        assertThrows(IOException.class, () -> parse("data.*.embedding", "{\"error\":\"nope\"}"));
+        assertThrows(IOException.class, () -> parse("data.*.embedding", "{\"data\":[{\"embedding\":\"abc\"}]}"));
+        assertThrows(IllegalArgumentException.class, () -> ResponsePath.compile("data..embedding"));
+    }
+}
@@ -3,11 +3,18 @@ package com.genericembedding;
 import com.genericembedding.providers.EmbeddingProvider;
 import com.genericembedding.providers.ProviderRequest;
 import com.genericembedding.providers.ProviderResponse;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.ingest.IngestDocument;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -21,8 +28,8 @@ public class SimpleProcessorTest {
     @Before
     public void setUp() {
         mockProvider = mock(EmbeddingProvider.class);
-        processor = new AIEmbedProcessor("test-tag", "test-description", 
-            Arrays.asList("title", "content"), mockProvider);
+        processor = AIEmbedProcessor.builder("test-tag", "test-description",
+            Arrays.asList("title", "content"), mockProvider).build();
     }
 
     @Test
@@ -32,9 +39,9 @@ public class SimpleProcessorTest {
 
     @Test
     public void testProviderInteraction() throws Exception {
-        List<List<Float>> mockVectors = Arrays.asList(
-            Arrays.asList(0.1f, 0.2f, 0.3f),
-            Arrays.asList(0.4f, 0.5f, 0.6f)
+        List<float[]> mockVectors = Arrays.asList(
+            new float[]{0.1f, 0.2f, 0.3f},
+            new float[]{0.4f, 0.5f, 0.6f}
         );
         ProviderResponse mockResponse = new ProviderResponse(mockVectors);
 
@@ -50,8 +57,8 @@ public class SimpleProcessorTest {
         verify(mockProvider, times(1)).embed(any());
         assertNotNull(result);
         assertEquals(2, result.getVectors().size());
-        assertEquals(Arrays.asList(0.1f, 0.2f, 0.3f), result.getVectors().get(0));
-        assertEquals(Arrays.asList(0.4f, 0.5f, 0.6f), result.getVectors().get(1));
+        assertArrayEquals(new float[]{0.1f, 0.2f, 0.3f}, result.getVectors().get(0), 0f);
+        assertArrayEquals(new float[]{0.4f, 0.5f, 0.6f}, result.getVectors().get(1), 0f);
     }
 
     @Test
@@ -79,11 +86,140 @@ public class SimpleProcessorTest {
 
     @Test
     public void testProviderResponseCreation() {
-        List<List<Float>> vectors = Arrays.asList(
-            Arrays.asList(0.1f, 0.2f, 0.3f)
+        List<float[]> vectors = Arrays.asList(
+            new float[]{0.1f, 0.2f, 0.3f}
         );
         ProviderResponse response = new ProviderResponse(vectors);
         assertEquals(1, response.getVectors().size());
-        assertEquals(Arrays.asList(0.1f, 0.2f, 0.3f), response.getVectors().get(0));
+        assertArrayEquals(new float[]{0.1f, 0.2f, 0.3f}, response.getVectors().get(0), 0f);
+    }
+
+    @Test
+    public void testAsyncExecuteSetsVectorFieldsWhenProviderCompletes() {
+        CompletableFuture<ProviderResponse> pending = new CompletableFuture<>();
+        when(mockProvider.embedAsync(any())).thenReturn(pending);
+
+        IngestDocument document = newDocument();
+        AtomicReference<IngestDocument> result = new AtomicReference<>();
+        processor.execute(document, (doc, e) -> {
+            assertNull(e);
+            result.set(doc);
+        });
+
+        assertTrue(processor.isAsync());
+        assertNull("handler must not run before the provider completes", result.get());
+
+        pending.complete(new ProviderResponse(Arrays.asList(
+            new float[]{0.1f, 0.2f},
+            new float[]{0.3f, 0.4f}
+        )));
+
+        assertSame(document, result.get());
+        assertEquals(Arrays.asList(0.1f, 0.2f), document.getFieldValue("title_vector", List.class));
+        assertEquals(Arrays.asList(0.3f, 0.4f), document.getFieldValue("content_vector", List.class));
+    }
+
+    @Test
+    public void testAsyncExecuteRecordsProviderFailure() {
+        when(mockProvider.embedAsync(any())).thenReturn(CompletableFuture.failedFuture(new IOException("API Error")));
+
+        IngestDocument document = newDocument();
+        AtomicReference<IngestDocument> result = new AtomicReference<>();
+        processor.execute(document, (doc, e) -> result.set(doc));
+
+        assertSame(document, result.get());
+        assertEquals("Failed to embed fields: API Error", document.getFieldValue("embedding_error", String.class));
+        assertFalse(document.hasField("title_vector"));
+    }
+
+    @Test
+    public void testChunkedFieldsAreEmbeddedInOneCallAsPassages() {
+        TextChunker chunker = new TextChunker(new EstimatingTokenCounter(BpeTokenCounter.CL100K_BASE), 1, 0);
+        AIEmbedProcessor chunking = AIEmbedProcessor.builder("tag", "description", Arrays.asList("title"), mockProvider)
+            .setChunker(chunker)
+            .build();
+        when(mockProvider.embedAsync(any())).thenReturn(CompletableFuture.completedFuture(new ProviderResponse(Arrays.asList(
+            new float[]{1f},
+            new float[]{2f}
+        ))));
+
+        IngestDocument document = newDocument();
+        chunking.execute(document, (doc, e) -> assertNull(e));
+
+        verify(mockProvider).embedAsync(argThat(requests -> requests.size() == 2
+            && "Test".equals(requests.get(0).getText()) && " Title".equals(requests.get(1).getText())));
+        List<?> passages = document.getFieldValue("title_chunks", List.class);
+        assertEquals(2, passages.size());
+        Map<?, ?> second = (Map<?, ?>) passages.get(1);
+        assertEquals(4, second.get("offset"));
+        assertEquals(6, second.get("length"));
+        assertEquals(Arrays.asList(2f), second.get("vector"));
+        assertFalse(document.hasField("title_vector"));
+    }
+
+    @Test
+    public void testFingerprintModeSkipsUnchangedFields() {
+        AIEmbedProcessor fingerprinting = AIEmbedProcessor.builder("tag", "description", Arrays.asList("title"), mockProvider)
+            .setFingerprintKey("model")
+            .build();
+        when(mockProvider.embedAsync(any())).thenReturn(CompletableFuture.completedFuture(new ProviderResponse(Arrays.asList(
+            new float[]{1f}
+        ))));
+
+        IngestDocument document = newDocument();
+        fingerprinting.execute(document, (doc, e) -> assertNull(e));
+        String fingerprint = document.getFieldValue("title_fingerprint", String.class);
+        assertNotNull(fingerprint);
+
+        AtomicReference<IngestDocument> result = new AtomicReference<>();
+        fingerprinting.execute(document, (doc, e) -> result.set(doc));
+        assertSame("an unchanged document completes without calling the provider", document, result.get());
+        verify(mockProvider, times(1)).embedAsync(any());
+
+        document.setFieldValue("title", "New Title");
+        fingerprinting.execute(document, (doc, e) -> assertNull(e));
+        verify(mockProvider, times(2)).embedAsync(any());
+        assertNotEquals(fingerprint, document.getFieldValue("title_fingerprint", String.class));
+    }
+
+    @Test
+    public void testQuantizedOutputKeepsFloatVectorWhenAsked() {
+        AIEmbedProcessor quantizing = AIEmbedProcessor.builder("tag", "description", Arrays.asList("title"), mockProvider)
+            .setQuantizer(new VectorQuantizer(VectorQuantizer.INT8, null))
+            .setKeepFloat(true)
+            .build();
+        when(mockProvider.embedAsync(any())).thenReturn(CompletableFuture.completedFuture(new ProviderResponse(Arrays.asList(
+            new float[]{0.5f, -0.2f}
+        ))));
+
+        IngestDocument document = newDocument();
+        quantizing.execute(document, (doc, e) -> assertNull(e));
+
+        assertEquals(Arrays.asList((byte) 127, (byte) -51), document.getFieldValue("title_vector", List.class));
+        assertEquals(Arrays.asList(0.5f, -0.2f), document.getFieldValue("title_vector_float", List.class));
+    }
+
+    @Test
+    public void testNormalizedOutputLeavesProviderVectorsUntouched() {
+        AIEmbedProcessor normalizing = AIEmbedProcessor.builder("tag", "description", Arrays.asList("title"), mockProvider)
+            .setNormalize(true)
+            .build();
+        float[] providerVector = {3f, 4f};
+        when(mockProvider.embedAsync(any())).thenReturn(CompletableFuture.completedFuture(new ProviderResponse(Arrays.asList(
+            providerVector
+        ))));
+
+        IngestDocument document = newDocument();
+        normalizing.execute(document, (doc, e) -> assertNull(e));
+
+        assertEquals(Arrays.asList(0.6f, 0.8f), document.getFieldValue("title_vector", List.class));
+        assertArrayEquals("cached vectors are shared and must not change", new float[]{3f, 4f}, providerVector, 0f);
+    }
+
+    private static IngestDocument newDocument() {
+        Map<String, Object> source = new HashMap<>();
+        source.put("title", "Test Title");
+        source.put("content", "Test Content");
+        return new IngestDocument("index", "id", 1L, null, VersionType.INTERNAL, source);
     }
 }
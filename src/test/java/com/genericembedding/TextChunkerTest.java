@@ -0,0 +1,40 @@
+package com.genericembedding;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TextChunkerTest {
+
+    private final TokenCounter counter = new EstimatingTokenCounter(BpeTokenCounter.CL100K_BASE);
+
+    private static String text(String source, int[] chunk) {
+        return source.substring(chunk[0], chunk[1]);
+    }
+
+    @Test
+    public void testChunksWithOverlapOnWordBoundaries() {
+        String source = "one two three four five six seven";
+        List<int[]> chunks = new TextChunker(counter, 3, 1).chunk(source);
+
+        assertEquals(3, chunks.size());
+        assertEquals("one two three", text(source, chunks.get(0)));
+        assertEquals(" three four five", text(source, chunks.get(1)));
+        assertEquals(" five six seven", text(source, chunks.get(2)));
+    }
+
+    @Test
+    public void testShortTextIsOneChunk() {
+        List<int[]> chunks = new TextChunker(counter, 512, 64).chunk("short text");
+        assertEquals(1, chunks.size());
+        assertArrayEquals(new int[]{0, 10}, chunks.get(0));
+    }
+
+    @Test
+    public void testRejectsOverlapNotSmallerThanSize() {
+        assertThrows(IllegalArgumentException.class, () -> new TextChunker(counter, 10, 10));
+        assertThrows(IllegalArgumentException.class, () -> new TextChunker(counter, 0, 0));
+    }
+}
@@ -0,0 +1,97 @@
+package com.genericembedding;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import static org.junit.Assert.*;
+
+public class TokenCounterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path writeVocabulary(String encoding, String... merges) throws Exception {
+        List<String> lines = new ArrayList<>();
+        int rank = 0;
+        for (int b = 0; b < 256; b++) {
+            lines.add(Base64.getEncoder().encodeToString(new byte[]{(byte) b}) + " " + rank++);
+        }
+        for (String merge : merges) {
+            lines.add(Base64.getEncoder().encodeToString(merge.getBytes(StandardCharsets.UTF_8)) + " " + rank++);
+        }
+        Path dir = Files.createDirectories(folder.getRoot().toPath().resolve(PluginConstants.PROCESSOR_TYPE));
+        Files.write(dir.resolve(encoding + ".tiktoken"), lines, StandardCharsets.US_ASCII);
+        return folder.getRoot().toPath();
+    }
+
+    @Test
+    public void testBpeMergesByRank() throws Exception {
+        Path configDir = writeVocabulary(BpeTokenCounter.CL100K_BASE, "ab", "abab", " ab");
+        TokenCounter counter = TokenCounter.fromSettings(Settings.EMPTY, configDir);
+
+        assertTrue(counter instanceof BpeTokenCounter);
+        assertEquals(1, counter.count("abab"));
+        // "abcab" -> [ab][c][ab]
+        assertEquals(3, counter.count("abcab"));
+        // Pre-tokenization splits "abab ab" into "abab" and " ab"
+        assertEquals(2, counter.count("abab ab"));
+        // Numbers are split into groups of at most three digits before merging
+        assertEquals(5, counter.count("12345"));
+        // Multi-byte characters fall back to their UTF-8 bytes
+        assertEquals(2, counter.count("é"));
+    }
+
+    @Test
+    public void testFallsBackToEstimateWithoutVocabulary() {
+        TokenCounter counter = TokenCounter.fromSettings(Settings.EMPTY, folder.getRoot().toPath());
+
+        assertTrue(counter instanceof EstimatingTokenCounter);
+        assertEquals(0, counter.count(""));
+        assertEquals(4, counter.count("The quick brown fox"));
+        assertTrue(counter.count("internationalization") > 1);
+    }
+
+    @Test
+    public void testExplicitEncodingRequiresVocabulary() throws Exception {
+        Settings settings = Settings.builder().put(TokenCounter.ENCODING_SETTING.getKey(), BpeTokenCounter.O200K_BASE).build();
+        IllegalStateException missing = assertThrows(IllegalStateException.class,
+            () -> TokenCounter.fromSettings(settings, folder.getRoot().toPath()));
+        assertTrue(missing.getMessage(), missing.getMessage().contains("o200k_base.tiktoken"));
+
+        Path configDir = writeVocabulary(BpeTokenCounter.O200K_BASE);
+        Files.write(configDir.resolve(PluginConstants.PROCESSOR_TYPE).resolve("o200k_base.tiktoken"),
+            List.of("not a vocabulary"), StandardCharsets.US_ASCII);
+        assertThrows(IllegalStateException.class, () -> TokenCounter.fromSettings(settings, configDir));
+
+        writeVocabulary(BpeTokenCounter.O200K_BASE, "ab");
+        assertTrue(TokenCounter.fromSettings(settings, configDir) instanceof BpeTokenCounter);
+    }
+
+    @Test
+    public void testCl100kPreTokenizationMatchesTiktoken() {
+        assertEquals(Arrays.asList("Hello", ",", " world", "!!\n"), pieces("Hello, world!!\n"));
+        assertEquals(Arrays.asList("I", "'m", " ", "123", "45", " ok"), pieces("I'm 12345 ok"));
+        assertEquals(Arrays.asList("hello", "  ", " world"), pieces("hello   world"));
+        assertEquals(Arrays.asList("a", "  \n\n", "b", "   "), pieces("a  \n\nb   "));
+    }
+
+    private static List<String> pieces(String text) {
+        List<String> pieces = new ArrayList<>();
+        Matcher matcher = BpeTokenCounter.pattern(BpeTokenCounter.CL100K_BASE).matcher(text);
+        while (matcher.find()) {
+            pieces.add(matcher.group());
+        }
+        return pieces;
+    }
+}
@@ -0,0 +1,101 @@
+package com.genericembedding;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput benchmark for the local tokenizers. Counts a 1 MiB English-like text with the BPE
+ * counter, over a vocabulary in which every word of the text merges back to a single token through
+ * all of its prefixes, and with the estimating counter, and reports megabytes per second. The
+ * processor counts every chunk and the limiter counts every batch on the ingest thread, so a
+ * regression here is a regression in indexing throughput.
+ */
+public class TokenCounterThroughputTest {
+
+    private static final String[] WORDS = {
+        "the", "embedding", "of", "a", "document", "is", "computed", "by", "provider", "and", "stored",
+        "in", "vector", "field", "each", "chunk", "counted", "against", "tokens", "per", "minute",
+        "budget", "before", "request", "sent", "internationalization", "search", "hybrid", "cluster", "node"
+    };
+    private static final int TEXT_BYTES = 1 << 20;
+    private static final int ROUNDS = 5;
+    // Orders of magnitude below what either counter does on a laptop, so only a pathological regression fails
+    private static final double MIN_MB_PER_SECOND = 1.0;
+
+    @Test
+    public void testBpeCounterThroughput() {
+        String text = text();
+        TokenCounter counter = new BpeTokenCounter(BpeTokenCounter.CL100K_BASE, vocabulary());
+        // Every word is merged to one token, so each pre-tokenized piece counts once
+        assertEquals(pieces(text), counter.count(text));
+        assertThroughput("bpe", counter, text);
+    }
+
+    @Test
+    public void testEstimatingCounterThroughput() {
+        String text = text();
+        TokenCounter counter = new EstimatingTokenCounter(BpeTokenCounter.CL100K_BASE);
+        assertTrue(counter.count(text) >= pieces(text));
+        assertThroughput("estimate", counter, text);
+    }
+
+    private static void assertThroughput(String name, TokenCounter counter, String text) {
+        for (int i = 0; i < ROUNDS; i++) {
+            counter.count(text);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            counter.count(text);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double mbPerSecond = (double) TEXT_BYTES * ROUNDS / (1 << 20) / seconds;
+        String result = String.format(Locale.ROOT, "%s counter: %.1f MB/s", name, mbPerSecond);
+        assertTrue(result, mbPerSecond >= MIN_MB_PER_SECOND);
+    }
+
+    private static Map<String, Integer> vocabulary() {
+        Map<String, Integer> ranks = new HashMap<>();
+        for (int b = 0; b < 256; b++) {
+            ranks.put(String.valueOf((char) b), ranks.size());
+        }
+        for (String word : WORDS) {
+            for (String piece : new String[]{word, " " + word}) {
+                for (int end = 2; end <= piece.length(); end++) {
+                    ranks.putIfAbsent(piece.substring(0, end), ranks.size());
+                }
+            }
+        }
+        ranks.putIfAbsent(".", ranks.size());
+        return ranks;
+    }
+
+    private static String text() {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(TEXT_BYTES);
+        while (text.length() < TEXT_BYTES) {
+            int words = 5 + random.nextInt(15);
+            for (int i = 0; i < words; i++) {
+                text.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            text.append(". ");
+        }
+        text.setLength(TEXT_BYTES);
+        return text.toString();
+    }
+
+    private static int pieces(String text) {
+        int pieces = 0;
+        Matcher matcher = BpeTokenCounter.pattern(BpeTokenCounter.CL100K_BASE).matcher(text);
+        while (matcher.find()) {
+            pieces++;
+        }
+        return pieces;
+    }
+}
@@ -0,0 +1,101 @@
+package com.genericembedding;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.genericembedding.providers.ProviderResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Allocation benchmark for the primitive vector contract. Decodes the same OpenAI-style response
+ * of 1536-dimension vectors into what the processor writes to a document, once as primitive
+ * arrays wrapped in {@link FloatVectorList} and once as the boxed {@code List<List<Float>>} the
+ * contract used to carry, and compares the bytes allocated by this thread. Both sides use the same
+ * streaming parser, so the difference is the boxing alone.
+ */
+public class VectorAllocationTest {
+
+    private static final int DIMS = 1536;
+    private static final int BATCH = 32;
+    private static final int ROUNDS = 20;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Test
+    public void testPrimitiveVectorsAllocateLessThanBoxedLists() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        byte[] json = response();
+        ResponsePath path = ResponsePath.compile(PluginConstants.DEFAULT_RESPONSE_PATH);
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals(BATCH, primitive(path, json).size());
+            assertEquals(BATCH, boxed(json).size());
+        }
+
+        long thread = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ROUNDS; i++) {
+            primitive(path, json);
+        }
+        long primitive = (threads.getThreadAllocatedBytes(thread) - start) / (ROUNDS * BATCH);
+
+        start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ROUNDS; i++) {
+            boxed(json);
+        }
+        long boxed = (threads.getThreadAllocatedBytes(thread) - start) / (ROUNDS * BATCH);
+
+        // A boxed Float costs 16 bytes plus a 4 byte reference against 4 bytes in a float[]
+        String result = "bytes allocated per vector: primitive=" + primitive + " boxed=" + boxed;
+        assertTrue(result, boxed - primitive >= DIMS * 16L);
+    }
+
+    private static List<List<Float>> primitive(ResponsePath path, byte[] json) throws IOException {
+        ProviderResponse response = path.parse(new ByteArrayInputStream(json));
+        List<List<Float>> documentValues = new ArrayList<>(BATCH);
+        for (float[] vector : response.getVectors()) {
+            documentValues.add(new FloatVectorList(vector));
+        }
+        return documentValues;
+    }
+
+    private static List<List<Float>> boxed(byte[] json) throws IOException {
+        List<List<Float>> vectors = new ArrayList<>(BATCH);
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && "embedding".equals(parser.getCurrentName())) {
+                    parser.nextToken();
+                    List<Float> vector = new ArrayList<>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        vector.add(parser.getFloatValue());
+                    }
+                    vectors.add(vector);
+                }
+            }
+        }
+        return vectors;
+    }
+
+    private static byte[] response() {
+        StringBuilder json = new StringBuilder("{\"object\":\"list\",\"data\":[");
+        for (int i = 0; i < BATCH; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"object\":\"embedding\",\"index\":").append(i).append(",\"embedding\":[");
+            for (int d = 0; d < DIMS; d++) {
+                json.append(d == 0 ? "" : ",").append(String.format(Locale.ROOT, "%.8f", Math.sin(i * DIMS + d)));
+            }
+            json.append("]}");
+        }
+        return json.append("],\"usage\":{\"prompt_tokens\":64,\"total_tokens\":64}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
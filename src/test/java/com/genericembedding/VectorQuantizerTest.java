@@ -0,0 +1,35 @@
+package com.genericembedding;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VectorQuantizerTest {
+
+    @Test
+    public void testInt8ScalesEachVectorByItsLargestComponent() {
+        VectorQuantizer quantizer = new VectorQuantizer(VectorQuantizer.INT8, null);
+
+        assertArrayEquals(new byte[]{127, -64, 0}, quantizer.quantize(new float[]{0.2f, -0.1f, 0f}));
+        assertArrayEquals(new byte[]{127, -64, 0}, quantizer.quantize(new float[]{2f, -1f, 0f}));
+        assertArrayEquals("a zero vector stays zero", new byte[2], quantizer.quantize(new float[2]));
+    }
+
+    @Test
+    public void testInt8WithFixedRangeClipsOutliers() {
+        VectorQuantizer quantizer = new VectorQuantizer(VectorQuantizer.INT8, 0.1f);
+
+        assertArrayEquals(new byte[]{51, -127, 127}, quantizer.quantize(new float[]{0.04f, -0.1f, 0.5f}));
+        assertNotEquals(new VectorQuantizer(VectorQuantizer.INT8, null).key(), quantizer.key());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBitIsRejectedSinceThisElasticsearchHasNoBitVectors() {
+        new VectorQuantizer("bit", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownTypeIsRejected() {
+        new VectorQuantizer("int4", null);
+    }
+}
@@ -0,0 +1,143 @@
+package com.genericembedding;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.index.query.WrapperQueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.rescore.QueryRescorerBuilder;
+import org.elasticsearch.search.vectors.KnnSearchBuilder;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class VectorSearchTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void testKnnIsTheDefault() throws Exception {
+        VectorSearch search = VectorSearch.parse(json("{\"enabled\": true, \"field\": \"text_vector\", \"similarity\": 0.5}"), 20);
+        SearchSourceBuilder source = new SearchSourceBuilder();
+        search.apply(source, new float[]{0.1f, 0.2f});
+
+        assertNull("no brute-force query", source.query());
+        assertTrue(source.rescores() == null || source.rescores().isEmpty());
+        assertEquals(1, source.knnSearch().size());
+        KnnSearchBuilder knn = source.knnSearch().get(0);
+        assertEquals("text_vector", knn.getField());
+        assertEquals(20, knn.k());
+        assertEquals(100, search.getNumCandidates());
+        assertTrue(source.toString().contains("\"similarity\":0.5"));
+    }
+
+    @Test
+    public void testExactModeAndRescoreUseScriptScore() throws Exception {
+        SearchSourceBuilder exact = new SearchSourceBuilder();
+        VectorSearch.parse(json("{\"mode\": \"exact\"}"), 10).apply(exact, new float[]{1f});
+        assertTrue(exact.knnSearch().isEmpty());
+        assertTrue(exact.query().toString().contains("wrapper"));
+
+        SearchSourceBuilder rescored = new SearchSourceBuilder();
+        VectorSearch.parse(json("{\"k\": 5, \"num_candidates\": 50, \"rescore\": true}"), 10).apply(rescored, new float[]{1f});
+        assertEquals(5, rescored.knnSearch().get(0).k());
+        assertEquals(1, rescored.rescores().size());
+        assertEquals(Integer.valueOf(5), ((QueryRescorerBuilder) rescored.rescores().get(0)).windowSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNumCandidatesBelowKIsRejected() throws Exception {
+        VectorSearch.parse(json("{\"k\": 50, \"num_candidates\": 10}"), 10);
+    }
+
+    @Test
+    public void testMappingIsChecked() throws Exception {
+        VectorSearch knn = VectorSearch.parse(json("{\"field\": \"v\"}"), 10);
+        VectorSearch exact = VectorSearch.parse(json("{\"field\": \"v\", \"mode\": \"exact\"}"), 10);
+        float[] vector = new float[3];
+
+        knn.validate(Map.of("idx", mapping("dense_vector", 3, true)), vector);
+        exact.validate(Map.of("idx", mapping("dense_vector", 3, false)), vector);
+
+        assertRejected(knn, new HashMap<>(), vector, "not found");
+        assertRejected(knn, Map.of("idx", mapping("dense_vector", 3, false)), vector, "not indexed");
+        assertRejected(knn, Map.of("idx", mapping("dense_vector", 4, true)), vector, "dimensions");
+        assertRejected(exact, Map.of("idx", mapping("float", null, true)), vector, "dense_vector");
+    }
+
+    @Test
+    public void testByteFieldsAreSearchedWithAQuantizedQuery() throws Exception {
+        VectorSearch search = VectorSearch.parse(json("{\"field\": \"v\", \"rescore\": true, \"rescore_field\": \"v_float\"}"), 10);
+        Map<String, Object> mapping = mapping("dense_vector", 2, true);
+        mapping.put("element_type", "byte");
+        search.validate(Map.of("idx", mapping), new float[2]);
+
+        SearchSourceBuilder source = new SearchSourceBuilder();
+        search.apply(source, new float[]{0.5f, -0.2f});
+
+        assertArrayEquals(new float[]{127f, -51f}, source.knnSearch().get(0).getQueryVector(), 0f);
+        WrapperQueryBuilder rescoreQuery = (WrapperQueryBuilder) ((QueryRescorerBuilder) source.rescores().get(0)).getRescoreQuery();
+        String rescore = new String(rescoreQuery.source(), StandardCharsets.UTF_8);
+        assertTrue(rescore, rescore.contains("v_float") && rescore.contains("0.5"));
+    }
+
+    @Test
+    public void testDotProductFieldsGetANormalizedQuery() throws Exception {
+        VectorSearch search = VectorSearch.parse(json("{\"field\": \"v\", \"mode\": \"exact\", \"dimensions\": 2}"), 10);
+        Map<String, Object> mapping = mapping("dense_vector", 2, false);
+        mapping.put("similarity", "dot_product");
+        search.validate(Map.of("idx", mapping), new float[2]);
+
+        assertEquals(Integer.valueOf(2), search.getDimensions());
+        assertArrayEquals(new float[]{0.6f, 0.8f}, search.searchVector(new float[]{3f, 4f}), 1e-6f);
+        String script = search.scriptScoreQuery("v", new float[]{0.6f, 0.8f});
+        assertTrue(script, script.contains("dotProduct(params.query_vector, 'v')"));
+    }
+
+    @Test
+    public void testByteDotProductFieldsAreScoredWithCosineSimilarity() throws Exception {
+        VectorSearch search = VectorSearch.parse(json("{\"field\": \"v\", \"rescore\": true, \"rescore_field\": \"v_float\"}"), 10);
+        Map<String, Object> mapping = mapping("dense_vector", 2, true);
+        mapping.put("element_type", "byte");
+        mapping.put("similarity", "dot_product");
+        search.validate(Map.of("idx", mapping), new float[2]);
+
+        String quantized = search.scriptScoreQuery("v", search.searchVector(new float[]{3f, 4f}));
+        assertTrue("an int8 dot product is unbounded: " + quantized, quantized.contains("cosineSimilarity(params.query_vector, 'v')"));
+        String floats = search.scriptScoreQuery("v_float", new float[]{0.6f, 0.8f});
+        assertTrue(floats, floats.contains("dotProduct(params.query_vector, 'v_float')"));
+
+        SearchSourceBuilder exact = new SearchSourceBuilder();
+        VectorSearch exactSearch = VectorSearch.parse(json("{\"field\": \"v\", \"mode\": \"exact\"}"), 10);
+        exactSearch.validate(Map.of("idx", mapping), new float[2]);
+        exactSearch.apply(exact, new float[]{3f, 4f});
+        String script = new String(((WrapperQueryBuilder) exact.query()).source(), StandardCharsets.UTF_8);
+        assertFalse(script, script.contains("dotProduct"));
+    }
+
+    private static void assertRejected(VectorSearch search, Map<String, Map<String, Object>> mappings, float[] vector, String message) {
+        try {
+            search.validate(mappings, vector);
+            fail("expected the mapping " + mappings + " to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private static Map<String, Object> mapping(String type, Integer dims, boolean indexed) {
+        Map<String, Object> mapping = new HashMap<>();
+        mapping.put("type", type);
+        if (dims != null) {
+            mapping.put("dims", dims);
+        }
+        mapping.put("index", indexed);
+        return mapping;
+    }
+
+    private static JsonNode json(String json) throws Exception {
+        return MAPPER.readTree(json);
+    }
+}
@@ -0,0 +1,115 @@
+package com.genericembedding.providers;
+
+import com.genericembedding.EmbeddingExecutor;
+import com.genericembedding.EmbeddingStats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class BatchingEmbeddingProviderTest {
+
+    private EmbeddingProvider delegate;
+    private List<Runnable> scheduled;
+    private BatchingEmbeddingProvider batcher;
+
+    @Before
+    public void setUp() {
+        delegate = mock(EmbeddingProvider.class);
+        scheduled = new ArrayList<>();
+        EmbeddingExecutor executor = new EmbeddingExecutor(Runnable::run, (delayMs, command) -> scheduled.add(command));
+        batcher = new BatchingEmbeddingProvider(delegate, executor, 3, 1024, 10);
+    }
+
+    @Test
+    public void testCoalescesUntilLingerAndFansOutByPosition() throws Exception {
+        when(delegate.embedAsync(any())).thenAnswer(invocation -> {
+            List<ProviderRequest> requests = invocation.getArgument(0);
+            List<float[]> vectors = new ArrayList<>();
+            for (ProviderRequest request : requests) {
+                vectors.add(new float[]{request.getText().length()});
+            }
+            return CompletableFuture.completedFuture(new ProviderResponse(vectors, Map.of("total_tokens", 10)));
+        });
+
+        CompletableFuture<ProviderResponse> first = batcher.embedAsync(Collections.singletonList(new ProviderRequest("a")));
+        CompletableFuture<ProviderResponse> second = batcher.embedAsync(Collections.singletonList(new ProviderRequest("bbbb")));
+
+        verify(delegate, never()).embedAsync(any());
+        assertEquals("only the first request schedules a flush", 1, scheduled.size());
+
+        scheduled.get(0).run();
+
+        verify(delegate, times(1)).embedAsync(any());
+        assertArrayEquals(new float[]{1f}, first.get().getVectors().get(0), 0f);
+        assertArrayEquals(new float[]{4f}, second.get().getVectors().get(0), 0f);
+        assertEquals(2, first.get().getUsage().get("total_tokens"));
+        assertEquals(8, second.get().getUsage().get("total_tokens"));
+    }
+
+    @Test
+    public void testFlushesImmediatelyWhenBatchIsFull() throws Exception {
+        when(delegate.embedAsync(any())).thenAnswer(invocation -> {
+            List<ProviderRequest> requests = invocation.getArgument(0);
+            List<float[]> vectors = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                vectors.add(new float[]{i});
+            }
+            return CompletableFuture.completedFuture(new ProviderResponse(vectors));
+        });
+
+        CompletableFuture<ProviderResponse> first = batcher.embedAsync(Arrays.asList(new ProviderRequest("a"), new ProviderRequest("b")));
+        CompletableFuture<ProviderResponse> second = batcher.embedAsync(Collections.singletonList(new ProviderRequest("c")));
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertArrayEquals(new float[]{2f}, second.get().getVectors().get(0), 0f);
+
+        // The linger flush scheduled for the first request must not send an empty or stale batch
+        scheduled.get(0).run();
+        verify(delegate, times(1)).embedAsync(any());
+    }
+
+    @Test
+    public void testTextsSharedByCallersAreSentOnce() throws Exception {
+        EmbeddingStats stats = new EmbeddingStats();
+        EmbeddingExecutor executor = new EmbeddingExecutor(Runnable::run, (delayMs, command) -> scheduled.add(command));
+        batcher = new BatchingEmbeddingProvider(delegate, executor, 10, 1024, 10, stats);
+        when(delegate.embedAsync(any())).thenAnswer(invocation -> {
+            List<ProviderRequest> requests = invocation.getArgument(0);
+            assertEquals(2, requests.size());
+            return CompletableFuture.completedFuture(new ProviderResponse(Arrays.asList(new float[]{1f}, new float[]{2f})));
+        });
+
+        CompletableFuture<ProviderResponse> first = batcher.embedAsync(Arrays.asList(new ProviderRequest("same"), new ProviderRequest("other")));
+        CompletableFuture<ProviderResponse> second = batcher.embedAsync(Collections.singletonList(new ProviderRequest("same")));
+        scheduled.get(0).run();
+
+        assertSame(first.get().getVectors().get(0), second.get().getVectors().get(0));
+        assertArrayEquals(new float[]{2f}, first.get().getVectors().get(1), 0f);
+        assertEquals(1, stats.getDuplicateInputCount());
+        assertEquals(4, stats.getDuplicateBytes());
+    }
+
+    @Test
+    public void testFailurePropagatesToEveryCaller() {
+        when(delegate.embedAsync(any())).thenReturn(CompletableFuture.failedFuture(new IOException("API Error")));
+
+        CompletableFuture<ProviderResponse> first = batcher.embedAsync(Collections.singletonList(new ProviderRequest("a")));
+        CompletableFuture<ProviderResponse> second = batcher.embedAsync(Collections.singletonList(new ProviderRequest("b")));
+        scheduled.get(0).run();
+
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(second.isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,101 @@
+package com.genericembedding.providers;
+
+import com.genericembedding.ClusterEmbeddingCache;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ClusterCacheEmbeddingProviderTest {
+
+    private static final String MODEL = "model";
+
+    @Test
+    public void testOnlyMissesAreEmbeddedAndMergedInInputOrder() throws Exception {
+        ClusterEmbeddingCache cache = mock(ClusterEmbeddingCache.class);
+        when(cache.getAll(any())).thenReturn(CompletableFuture.completedFuture(Map.of(id("b"), new float[]{20f})));
+        List<List<ProviderRequest>> calls = new ArrayList<>();
+        EmbeddingProvider provider = new ClusterCacheEmbeddingProvider(lengthProvider(calls), cache, MODEL);
+
+        ProviderResponse response = provider.embedAsync(requests("a", "b", "ccc")).get();
+
+        assertEquals(1, calls.size());
+        assertEquals(Arrays.asList("a", "ccc"), texts(calls.get(0)));
+        assertEquals(3, response.getVectors().size());
+        assertArrayEquals(new float[]{1f}, response.getVectors().get(0), 0f);
+        assertArrayEquals(new float[]{20f}, response.getVectors().get(1), 0f);
+        assertArrayEquals(new float[]{3f}, response.getVectors().get(2), 0f);
+        assertEquals(7, response.getUsage().get("total_tokens"));
+        verify(cache).putAll(eq(MODEL), argThat(written -> written.size() == 2 && written.containsKey(id("a")) && written.containsKey(id("ccc"))));
+    }
+
+    @Test
+    public void testFullHitDoesNotCallTheProvider() throws Exception {
+        ClusterEmbeddingCache cache = mock(ClusterEmbeddingCache.class);
+        when(cache.getAll(any())).thenReturn(CompletableFuture.completedFuture(Map.of(id("a"), new float[]{5f})));
+        List<List<ProviderRequest>> calls = new ArrayList<>();
+
+        ProviderResponse response = new ClusterCacheEmbeddingProvider(lengthProvider(calls), cache, MODEL).embedAsync(requests("a")).get();
+
+        assertTrue(calls.isEmpty());
+        assertArrayEquals(new float[]{5f}, response.getVectors().get(0), 0f);
+        verify(cache).putAll(MODEL, Collections.emptyMap());
+    }
+
+    @Test
+    public void testFailedLookupFallsBackToTheProvider() throws Exception {
+        ClusterEmbeddingCache cache = mock(ClusterEmbeddingCache.class);
+        when(cache.getAll(any())).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("unauthorized")));
+        List<List<ProviderRequest>> calls = new ArrayList<>();
+
+        ProviderResponse response = new ClusterCacheEmbeddingProvider(lengthProvider(calls), cache, MODEL).embedAsync(requests("a", "bb")).get();
+
+        assertEquals(Arrays.asList("a", "bb"), texts(calls.get(0)));
+        assertArrayEquals(new float[]{2f}, response.getVectors().get(1), 0f);
+        verify(cache).putAll(eq(MODEL), anyMap());
+    }
+
+    private static EmbeddingProvider lengthProvider(List<List<ProviderRequest>> calls) {
+        EmbeddingProvider delegate = mock(EmbeddingProvider.class);
+        when(delegate.embedAsync(any())).thenAnswer(invocation -> {
+            List<ProviderRequest> requests = invocation.getArgument(0);
+            calls.add(requests);
+            List<float[]> vectors = new ArrayList<>();
+            for (ProviderRequest request : requests) {
+                vectors.add(new float[]{request.getText().length()});
+            }
+            return CompletableFuture.completedFuture(new ProviderResponse(vectors, Map.of("total_tokens", 7)));
+        });
+        return delegate;
+    }
+
+    private static List<ProviderRequest> requests(String... texts) {
+        List<ProviderRequest> requests = new ArrayList<>();
+        for (String text : texts) {
+            requests.add(new ProviderRequest(text));
+        }
+        return requests;
+    }
+
+    private static List<String> texts(List<ProviderRequest> requests) {
+        List<String> texts = new ArrayList<>();
+        for (ProviderRequest request : requests) {
+            texts.add(request.getText());
+        }
+        return texts;
+    }
+
+    private static String id(String text) {
+        return ClusterEmbeddingCache.id(MODEL, text);
+    }
+}
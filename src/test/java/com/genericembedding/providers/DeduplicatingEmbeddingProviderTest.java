@@ -0,0 +1,58 @@
+package com.genericembedding.providers;
+
+import com.genericembedding.EmbeddingStats;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class DeduplicatingEmbeddingProviderTest {
+
+    @Test
+    public void testRepeatedTextsAreEmbeddedOnceAndShareTheirVector() throws Exception {
+        EmbeddingProvider delegate = mock(EmbeddingProvider.class);
+        List<List<ProviderRequest>> calls = new ArrayList<>();
+        when(delegate.embed(any())).thenAnswer(invocation -> {
+            List<ProviderRequest> requests = invocation.getArgument(0);
+            calls.add(requests);
+            List<float[]> vectors = new ArrayList<>();
+            for (ProviderRequest request : requests) {
+                vectors.add(new float[]{request.getText().length()});
+            }
+            return new ProviderResponse(vectors, Map.of("total_tokens", 3));
+        });
+        EmbeddingStats stats = new EmbeddingStats();
+        EmbeddingProvider provider = new DeduplicatingEmbeddingProvider(delegate, stats);
+
+        ProviderResponse response = provider.embed(Arrays.asList(
+            new ProviderRequest("Case-123"), new ProviderRequest("ab"), new ProviderRequest("Case-123"), new ProviderRequest("ab")));
+
+        assertEquals(1, calls.size());
+        assertEquals(2, calls.get(0).size());
+        assertEquals(4, response.getVectors().size());
+        assertArrayEquals(new float[]{8f}, response.getVectors().get(0), 0f);
+        assertSame(response.getVectors().get(0), response.getVectors().get(2));
+        assertSame(response.getVectors().get(1), response.getVectors().get(3));
+        assertEquals(3, response.getUsage().get("total_tokens"));
+        assertEquals(2, stats.getDuplicateInputCount());
+        assertEquals(10, stats.getDuplicateBytes());
+    }
+
+    @Test
+    public void testDistinctTextsArePassedThroughUnchanged() throws Exception {
+        EmbeddingProvider delegate = mock(EmbeddingProvider.class);
+        List<ProviderRequest> requests = Arrays.asList(new ProviderRequest("a"), new ProviderRequest("b"));
+        ProviderResponse expected = new ProviderResponse(Arrays.asList(new float[]{1f}, new float[]{2f}));
+        when(delegate.embed(requests)).thenReturn(expected);
+        EmbeddingStats stats = new EmbeddingStats();
+
+        assertSame(expected, new DeduplicatingEmbeddingProvider(delegate, stats).embed(requests));
+        assertEquals(0, stats.getDuplicateInputCount());
+    }
+}